@@ -1,12 +1,14 @@
 package lisp;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Scanner;
 
 import lisp.interpreter.LispException;
 import lisp.interpreter.LispInterpreter;
+import lisp.interpreter.LispLineProfile;
 
 /**
  * Clase principal que implementa un REPL (Read-Eval-Print-Loop) para el intérprete LISP.
@@ -40,57 +42,39 @@ public class Main {
     }
     
     /**
-     * Ejecuta un archivo LISP línea por línea.
+     * Ejecuta un archivo LISP completo. Con la propiedad
+     * {@code -Dlisp.profile.lines=N} cuenta las ejecuciones por línea y al
+     * terminar muestra las N líneas más ejecutadas.
      * 
      * @param filename Ruta al archivo LISP
      * @param interpreter Intérprete LISP
      * @throws IOException Si ocurre un error al leer el archivo
      */
     private static void executeFile(String filename, LispInterpreter interpreter) throws IOException {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            StringBuilder buffer = new StringBuilder();
-            String line;
-            
-            while ((line = reader.readLine()) != null) {
-                // Ignorar comentarios
-                if (line.trim().startsWith(";")) {
-                    continue;
-                }
-                
-                buffer.append(line).append(" ");
-                
-                // Contar paréntesis abiertos y cerrados
-                int openParens = countOccurrences(buffer.toString(), '(');
-                int closedParens = countOccurrences(buffer.toString(), ')');
-                
-                // Cuando tenemos una expresión completa, evaluarla
-                if (openParens > 0 && openParens == closedParens) {
-                    try {
-                        Object result = interpreter.eval(buffer.toString());
-                        
-                        if (result != null) {
-                            System.out.println(result);
-                        }
-                    } catch (Exception e) {
-                        System.err.println("Error: " + e.getMessage());
-                    }
-                    
-                    buffer.setLength(0);  // Limpiar el buffer
+        String source = new String(Files.readAllBytes(Paths.get(filename)), StandardCharsets.UTF_8);
+        
+        int hotLines = Integer.getInteger("lisp.profile.lines", 0);
+        LispLineProfile profile = hotLines > 0 ? new LispLineProfile() : null;
+        interpreter.setLineProfile(profile);
+        
+        try {
+            for (Object result : interpreter.load(source)) {
+                if (result != null) {
+                    System.out.println(result);
                 }
             }
-            
-            // Evaluar cualquier expresión restante
-            if (buffer.length() > 0) {
-                try {
-                    Object result = interpreter.eval(buffer.toString());
-                    
-                    if (result != null) {
-                        System.out.println(result);
-                    }
-                } catch (Exception e) {
-                    System.err.println("Error: " + e.getMessage());
-                }
+        } catch (LispException e) {
+            System.err.println("Error: " + e.getMessage());
+            for (String frame : e.getBacktrace()) {
+                System.err.println("  en " + frame);
             }
+        } finally {
+            interpreter.setLineProfile(null);
+        }
+        
+        if (profile != null) {
+            System.err.println("Líneas más ejecutadas:");
+            System.err.print(profile.report(source, hotLines));
         }
     }
     
@@ -143,6 +127,9 @@ public class Main {
                     }
                 } catch (LispException e) {
                     System.err.println("Error: " + e.getMessage());
+                    for (String frame : e.getBacktrace()) {
+                        System.err.println("  en " + frame);
+                    }
                     if (e.getCause() != null) {
                         System.err.println("Causa: " + e.getCause().getMessage());
                     }
@@ -1,26 +1,143 @@
 package lisp.environment;
 
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.UnaryOperator;
 
 /**
  * Gestiona el entorno de ejecución para el intérprete LISP.
  * Mantiene un registro de variables y funciones definidas.
+ * Las tablas son mapas persistentes: bifurcar el entorno global con fork()
+ * cuesta O(1), las escrituras copian solo el camino modificado y las
+ * lecturas nunca se bloquean. Las escrituras se publican con compareAndSet,
+ * así que varios hilos pueden compartir el entorno sin un candado global.
+ * 
+ * Las variables globales se guardan en celdas (GlobalCell): setq cambia el
+ * valor de la celda sin copiar el mapa, y el compilador guarda la celda en
+ * cada referencia para leer la variable sin volver a buscarla.
  * 
  * @author Fatima Navarro 24044
  */
 public class LispEnvironment {
     
     //-------------------------------------------------------------------
-    /** Mapa para almacenar variables (nombre -> valor) */
-    private final Map<String, Object> variables;
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<LispEnvironment, PersistentMap> VARIABLES =
+        AtomicReferenceFieldUpdater.newUpdater(LispEnvironment.class, PersistentMap.class, "variables");
+    
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<LispEnvironment, PersistentMap> FUNCTIONS =
+        AtomicReferenceFieldUpdater.newUpdater(LispEnvironment.class, PersistentMap.class, "functions");
+    
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<LispEnvironment, PersistentMap> MACROS =
+        AtomicReferenceFieldUpdater.newUpdater(LispEnvironment.class, PersistentMap.class, "macros");
+    
+    private static final AtomicIntegerFieldUpdater<LispEnvironment> DEFINITION_VERSION =
+        AtomicIntegerFieldUpdater.newUpdater(LispEnvironment.class, "definitionVersion");
+    
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<LispEnvironment, PersistentMap> LOCAL_NAMES =
+        AtomicReferenceFieldUpdater.newUpdater(LispEnvironment.class, PersistentMap.class, "localNames");
+    
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<LispEnvironment, PersistentMap> ASSIGNED_NAMES =
+        AtomicReferenceFieldUpdater.newUpdater(LispEnvironment.class, PersistentMap.class, "assignedNames");
+    
+    private static final AtomicIntegerFieldUpdater<LispEnvironment> LOCAL_NAMES_VERSION =
+        AtomicIntegerFieldUpdater.newUpdater(LispEnvironment.class, "localNamesVersion");
+    
+    private static final AtomicReferenceFieldUpdater<GlobalCell, Object> CELL_VALUE =
+        AtomicReferenceFieldUpdater.newUpdater(GlobalCell.class, Object.class, "value");
+    
+    private static final AtomicReferenceFieldUpdater<SharedCell, Object> SHARED_VALUE =
+        AtomicReferenceFieldUpdater.newUpdater(SharedCell.class, Object.class, "value");
+    
+    /** Marca de variable ausente en las búsquedas (y de ranura sin ligar) */
+    private static final Object UNBOUND = new Object();
+    
+    private static final String[] NO_SLOTS = new String[0];
+    private static final Object[] NO_VALUES = new Object[0];
+    
+    /** Mapa para almacenar variables (nombre -> valor; en el entorno global, nombre -> GlobalCell) */
+    private volatile PersistentMap<Object> variables = PersistentMap.empty();
     
     /** Mapa para almacenar funciones definidas (nombre -> definición) */
-    private final Map<String, FunctionDefinition> functions;
+    private volatile PersistentMap<FunctionDefinition> functions = PersistentMap.empty();
+    
+    /** Mapa para almacenar macros (solo se usa en el entorno global) */
+    private volatile PersistentMap<FunctionDefinition> macros = PersistentMap.empty();
+    
+    /**
+     * Solo en el entorno global: nombres que alguna vez se ligaron en uno de
+     * sus marcos (parámetros, let, bucles, setq dentro de una función). Con
+     * alcance dinámico cualquiera de ellos puede ocultar a la variable
+     * global del mismo nombre; los demás solo pueden referirse a la global.
+     * Es un mapa persistente para que fork() lo comparta en O(1).
+     */
+    private volatile PersistentMap<Boolean> localNames = PersistentMap.empty();
+    
+    /** Solo en el entorno global: cambia cada vez que se agrega un nombre a localNames */
+    private volatile int localNamesVersion;
+    
+    /**
+     * Solo en el entorno global: nombres que alguna forma verificada en él
+     * asigna con setq, incf-atomic o compare-and-set. Con alcance dinámico
+     * la asignación puede estar en cualquier función de la pila, así que una
+     * lambda que captura uno de ellos comparte la variable en una SharedCell
+     * en lugar de copiarla.
+     */
+    private volatile PersistentMap<Boolean> assignedNames = PersistentMap.empty();
+    
+    /**
+     * Nombres de las ranuras del marco: parámetros y variables de let que se
+     * guardan en un arreglo en lugar del mapa. Si un nombre se repite, vale
+     * la última ranura ligada.
+     */
+    private String[] slotNames;
+    
+    /**
+     * Valores de las ranuras (UNBOUND si la variable no está ligada). Puede
+     * ser más largo que slotNames si el marco se reutilizó (LispFrameArena).
+     */
+    private Object[] slots;
+    
+    /** Marco de let: solo tiene sus ranuras y el resto de definiciones van al padre */
+    private final boolean bindingsOnly;
     
     /** Referencia al entorno padre (para ámbitos anidados) */
-    private final LispEnvironment parent;
+    private LispEnvironment parent;
+    
+    /** Referencia al entorno global (la raíz de la cadena de entornos) */
+    private LispEnvironment global;
+    
+    /** Indica si algo que sobrevive a la llamada (una promesa) retiene el marco */
+    private volatile boolean captured;
+    
+    /**
+     * Identidad de las celdas propias del entorno global (null en los marcos).
+     * fork() la cambia: las celdas compartidas con la copia ya no son propias
+     * de ninguno de los dos y la primera escritura crea una celda nueva.
+     */
+    private volatile Object epoch;
+    
+    /**
+     * Solo en el entorno global: las escrituras en celdas lo toman en modo
+     * compartido y fork() en modo exclusivo, así que ninguna escritura que
+     * vio la identidad anterior termina en una celda que la copia ya ve.
+     */
+    private final StampedLock cellLock;
+    
+    /** Versión de las definiciones; cambia con cada defun o defmacro */
+    private volatile int definitionVersion;
+    
+    /** Indica si alguna vez se definió una función fuera del entorno global */
+    private volatile boolean localFunctions;
     
     //-------------------------------------------------------------------
     /**
@@ -38,9 +155,164 @@ public class LispEnvironment {
      * @param parent El entorno padre
      */
     public LispEnvironment(LispEnvironment parent) {
-        this.variables = new HashMap<>();
-        this.functions = new HashMap<>();
+        this(parent, NO_SLOTS);
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Constructor para un marco con ranuras. Las variables de las ranuras
+     * empiezan sin ligar y se asignan por índice, sin pasar por el mapa.
+     * 
+     * @param parent El entorno padre
+     * @param slotNames Nombres de las ranuras del marco
+     */
+    public LispEnvironment(LispEnvironment parent, String[] slotNames) {
+        this(parent, slotNames, false);
+    }
+    
+    private LispEnvironment(LispEnvironment parent, String[] slotNames, boolean bindingsOnly) {
+        this.bindingsOnly = bindingsOnly;
         this.parent = parent;
+        this.global = parent == null ? this : parent.global;
+        this.slotNames = slotNames;
+        if (parent == null) {
+            this.epoch = new Object();
+        }
+        this.cellLock = parent == null ? new StampedLock() : null;
+        global.markLocal(slotNames);
+        if (slotNames.length == 0) {
+            this.slots = NO_VALUES;
+        } else {
+            this.slots = new Object[slotNames.length];
+            Arrays.fill(slots, UNBOUND);
+        }
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Prepara un marco liberado para una llamada nueva (solo LispFrameArena).
+     * Los nombres ya se registraron como locales en el entorno global de la
+     * llamada al obtener el diseño del marco (FunctionDefinition.getFrameLayout).
+     */
+    void reuse(LispEnvironment parent, String[] slotNames) {
+        this.parent = parent;
+        this.global = parent.global;
+        this.slotNames = slotNames;
+        if (slots.length < slotNames.length) {
+            slots = new Object[slotNames.length];
+            Arrays.fill(slots, UNBOUND);
+        }
+    }
+    
+    /**
+     * Deja el marco vacío, sin referencias a valores ni a otros entornos.
+     */
+    void clear() {
+        Arrays.fill(slots, UNBOUND);
+        slotNames = NO_SLOTS;
+        parent = null;
+        global = null;
+        // Casi nunca hay definiciones locales: se evita la escritura volátil
+        if (variables != PersistentMap.<Object>empty()) {
+            variables = PersistentMap.empty();
+        }
+        if (functions != PersistentMap.<FunctionDefinition>empty()) {
+            functions = PersistentMap.empty();
+        }
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Marca este entorno y todos sus padres como retenidos: algo que
+     * sobrevive a la llamada actual (una promesa de delay o de un flujo)
+     * guarda una referencia a la cadena y la usará después. Un marco
+     * retenido nunca vuelve a LispFrameArena.
+     * 
+     * @return Este mismo entorno
+     */
+    public LispEnvironment capture() {
+        for (LispEnvironment current = this; current != null && !current.captured; current = current.parent) {
+            current.captured = true;
+        }
+        return this;
+    }
+    
+    /**
+     * Indica si el entorno fue retenido con capture.
+     * 
+     * @return true si no se puede reutilizar
+     */
+    public boolean isCaptured() {
+        return captured;
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Crea el marco de un let que no puede usar ranuras del marco actual.
+     * Solo contiene las variables del let: setq de otras variables y defun
+     * actúan sobre el entorno padre, como si el marco no existiera.
+     * 
+     * @param parent Entorno donde aparece el let
+     * @param slotNames Variables del let
+     * @return Marco nuevo con las ranuras sin ligar
+     */
+    public static LispEnvironment bindingFrame(LispEnvironment parent, String[] slotNames) {
+        return new LispEnvironment(parent, slotNames, true);
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Crea una copia independiente del entorno global en O(1): la copia
+     * comparte las tablas actuales y a partir de ahí cada entorno modifica
+     * las suyas sin afectar al otro. Sirve para dar a cada solicitud un
+     * entorno aislado sin copiar miles de definiciones.
+     * 
+     * @return Nuevo entorno global con las mismas variables, funciones y macros
+     * @throws IllegalStateException si no se llama sobre un entorno global
+     */
+    public LispEnvironment fork() {
+        if (parent != null) {
+            throw new IllegalStateException("Solo se puede bifurcar el entorno global");
+        }
+        
+        LispEnvironment copy = new LispEnvironment();
+        long stamp = cellLock.writeLock();
+        try {
+            // Sin escrituras en curso: las celdas actuales quedan fijas para los dos
+            epoch = new Object();
+            copy.variables = variables;
+        } finally {
+            cellLock.unlockWrite(stamp);
+        }
+        copy.functions = functions;
+        copy.macros = macros;
+        copy.localFunctions = localFunctions;
+        // Lo que se sabe de los nombres vale para las definiciones compartidas
+        copy.localNames = localNames;
+        copy.assignedNames = assignedNames;
+        copy.localNamesVersion = localNamesVersion;
+        return copy;
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Obtiene el entorno global al que pertenece este entorno.
+     * 
+     * @return El entorno raíz de la cadena
+     */
+    public LispEnvironment getGlobal() {
+        return global;
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Obtiene la versión actual de las definiciones de funciones y macros.
+     * Los cachés del evaluador la comparan para saber si siguen vigentes.
+     * 
+     * @return Versión de las definiciones del entorno global
+     */
+    public int getDefinitionVersion() {
+        return global.definitionVersion;
     }
     
     //-------------------------------------------------------------------
@@ -53,12 +325,15 @@ public class LispEnvironment {
      * @throws RuntimeException si la variable no está definida
      */
     public Object getVariable(String name) {
-        if (variables.containsKey(name)) {
-            return variables.get(name);
-        }
-        
-        if (parent != null) {
-            return parent.getVariable(name);
+        for (LispEnvironment current = this; current != null; current = current.parent) {
+            int slot = current.boundSlot(name);
+            if (slot >= 0) {
+                return valueOf(current.slots[slot]);
+            }
+            Object value = current.variables.lookup(name, UNBOUND);
+            if (value != UNBOUND) {
+                return current.parent == null ? ((GlobalCell) value).value : valueOf(value);
+            }
         }
         
         throw new RuntimeException("Variable no definida: " + name);
@@ -72,11 +347,207 @@ public class LispEnvironment {
      * @param value Valor a asignar
      * @return El valor asignado
      */
+    @SuppressWarnings("unchecked")
     public Object setVariable(String name, Object value) {
-        variables.put(name, value);
+        int slot = assignableSlot(name);
+        if (slot >= 0) {
+            if (slots[slot] instanceof SharedCell) {
+                ((SharedCell) slots[slot]).value = value;
+            } else {
+                slots[slot] = value;
+            }
+            return value;
+        }
+        if (bindingsOnly) {
+            return parent.setVariable(name, value);
+        }
+        if (parent == null) {
+            return assignGlobal(name, value);
+        }
+        
+        global.markLocal(name);
+        PersistentMap<Object> current;
+        do {
+            current = variables;
+            Object bound = current.get(name);
+            if (bound instanceof SharedCell) {
+                ((SharedCell) bound).value = value;
+                return value;
+            }
+        } while (!VARIABLES.compareAndSet(this, current, current.put(name, value)));
         return value;
     }
     
+    /**
+     * Asigna una variable global: escribe en su celda si es propia de este
+     * entorno, o agrega una celda nueva si no existe o es compartida con una
+     * copia de fork().
+     */
+    @SuppressWarnings("unchecked")
+    private Object assignGlobal(String name, Object value) {
+        long stamp = cellLock.readLock();
+        try {
+            Object owner = epoch;
+            PersistentMap<Object> current;
+            GlobalCell cell;
+            do {
+                current = variables;
+                cell = (GlobalCell) current.get(name);
+                if (cell != null && cell.epoch == owner) {
+                    cell.value = value;
+                    return value;
+                }
+            } while (!VARIABLES.compareAndSet(this, current, current.put(name, new GlobalCell(owner, value))));
+            return value;
+        } finally {
+            cellLock.unlockRead(stamp);
+        }
+    }
+    
+    /**
+     * Celda propia de una variable global; si es compartida con una copia de
+     * fork() la reemplaza por una propia con el mismo valor. Solo se llama
+     * para escribir, con cellLock tomado en modo compartido.
+     * 
+     * @return La celda, o null si la variable no existe
+     */
+    @SuppressWarnings("unchecked")
+    private GlobalCell ownCell(String name) {
+        Object owner = epoch;
+        PersistentMap<Object> current;
+        GlobalCell cell;
+        GlobalCell own;
+        do {
+            current = variables;
+            cell = (GlobalCell) current.get(name);
+            if (cell == null || cell.epoch == owner) {
+                return cell;
+            }
+            own = new GlobalCell(owner, cell.value);
+        } while (!VARIABLES.compareAndSet(this, current, current.put(name, own)));
+        return own;
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Actualiza atómicamente una variable existente en el entorno donde está
+     * definida. Si otro hilo la modifica entre la lectura y la escritura, la
+     * función se vuelve a aplicar sobre el valor nuevo.
+     * 
+     * @param name Nombre de la variable
+     * @param update Función que calcula el valor nuevo a partir del actual
+     * @return El valor asignado
+     * @throws RuntimeException si la variable no existe
+     */
+    @SuppressWarnings("unchecked")
+    public Object updateVariable(String name, UnaryOperator<Object> update) {
+        LispEnvironment frame = frameOf(name);
+        int slot = frame.boundSlot(name);
+        if (slot >= 0) {
+            if (frame.slots[slot] instanceof SharedCell) {
+                return ((SharedCell) frame.slots[slot]).update(update);
+            }
+            // Las ranuras son de un marco de llamada, que usa un solo hilo
+            return frame.slots[slot] = update.apply(frame.slots[slot]);
+        }
+        if (frame.parent == null) {
+            long stamp = frame.cellLock.readLock();
+            try {
+                GlobalCell cell = frame.ownCell(name);
+                Object previous;
+                Object value;
+                do {
+                    previous = cell.value;
+                    value = update.apply(previous);
+                } while (!CELL_VALUE.compareAndSet(cell, previous, value));
+                return value;
+            } finally {
+                frame.cellLock.unlockRead(stamp);
+            }
+        }
+        
+        PersistentMap<Object> current;
+        Object value;
+        do {
+            current = frame.variables;
+            Object bound = current.get(name);
+            if (bound instanceof SharedCell) {
+                return ((SharedCell) bound).update(update);
+            }
+            value = update.apply(bound);
+        } while (!VARIABLES.compareAndSet(frame, current, current.put(name, value)));
+        return value;
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Asigna una variable existente solo si su valor actual es igual (equals)
+     * al esperado, como una única operación atómica.
+     * 
+     * @param name Nombre de la variable
+     * @param expected Valor que debe tener la variable
+     * @param value Valor nuevo
+     * @return true si se asignó el valor
+     * @throws RuntimeException si la variable no existe
+     */
+    @SuppressWarnings("unchecked")
+    public boolean compareAndSetVariable(String name, Object expected, Object value) {
+        LispEnvironment frame = frameOf(name);
+        int slot = frame.boundSlot(name);
+        if (slot >= 0) {
+            if (frame.slots[slot] instanceof SharedCell) {
+                return ((SharedCell) frame.slots[slot]).compareAndSet(expected, value);
+            }
+            if (!Objects.equals(frame.slots[slot], expected)) {
+                return false;
+            }
+            frame.slots[slot] = value;
+            return true;
+        }
+        if (frame.parent == null) {
+            long stamp = frame.cellLock.readLock();
+            try {
+                GlobalCell cell = frame.ownCell(name);
+                Object previous;
+                do {
+                    previous = cell.value;
+                    if (!Objects.equals(previous, expected)) {
+                        return false;
+                    }
+                } while (!CELL_VALUE.compareAndSet(cell, previous, value));
+                return true;
+            } finally {
+                frame.cellLock.unlockRead(stamp);
+            }
+        }
+        
+        PersistentMap<Object> current;
+        do {
+            current = frame.variables;
+            Object bound = current.get(name);
+            if (bound instanceof SharedCell) {
+                return ((SharedCell) bound).compareAndSet(expected, value);
+            }
+            if (!Objects.equals(bound, expected)) {
+                return false;
+            }
+        } while (!VARIABLES.compareAndSet(frame, current, current.put(name, value)));
+        return true;
+    }
+    
+    /**
+     * Busca el entorno de la cadena donde está definida una variable.
+     */
+    private LispEnvironment frameOf(String name) {
+        for (LispEnvironment current = this; current != null; current = current.parent) {
+            if (current.boundSlot(name) >= 0 || current.variables.containsKey(name)) {
+                return current;
+            }
+        }
+        
+        throw new RuntimeException("Variable no definida: " + name);
+    }
+    
     //-------------------------------------------------------------------
     /**
      * Verifica si una variable existe en este entorno o sus padres.
@@ -85,8 +556,252 @@ public class LispEnvironment {
      * @return true si la variable existe
      */
     public boolean hasVariable(String name) {
-        return variables.containsKey(name) || 
-               (parent != null && parent.hasVariable(name));
+        for (LispEnvironment current = this; current != null; current = current.parent) {
+            if (current.boundSlot(name) >= 0 || current.variables.containsKey(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Obtiene la celda de una variable global. Solo sirve para leer la
+     * variable mientras ningún marco pueda ocultarla: ver isLocalName. No
+     * modifica el mapa: después de fork() la celda puede ser la compartida
+     * con la copia, cuyo valor ya no cambia.
+     * 
+     * @param name Nombre de la variable
+     * @return Celda vigente en el entorno global, o null si la variable no existe
+     */
+    public GlobalCell findGlobalCell(String name) {
+        return (GlobalCell) global.variables.get(name);
+    }
+    
+    /**
+     * Indica si una celda obtenida con findGlobalCell sigue siendo la de
+     * este entorno global (no lo es en una copia de fork(), ni después de
+     * bifurcar el entorno donde se obtuvo).
+     * 
+     * @param cell Celda de una variable global
+     * @return true si la celda es la vigente en este entorno
+     */
+    public boolean ownsCell(GlobalCell cell) {
+        return cell.epoch == global.epoch;
+    }
+    
+    /**
+     * Registra en este entorno global nombres ligados en uno de sus marcos.
+     * 
+     * @return El registro de nombres locales después de agregarlos
+     */
+    private PersistentMap<Boolean> markLocal(String... names) {
+        for (String name : names) {
+            markLocal(name);
+        }
+        return localNames;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private void markLocal(String name) {
+        PersistentMap<Boolean> current;
+        do {
+            current = localNames;
+            if (current.containsKey(name)) {
+                return;
+            }
+        } while (!LOCAL_NAMES.compareAndSet(this, current, current.put(name, Boolean.TRUE)));
+        LOCAL_NAMES_VERSION.incrementAndGet(this);
+    }
+    
+    /**
+     * Indica si un nombre se ligó alguna vez en un marco local de este
+     * entorno global (como parámetro, en un let o un bucle, o con setq
+     * dentro de una función). Si no, una referencia a ese nombre solo puede
+     * ser a la variable global.
+     * 
+     * @param name Nombre de la variable
+     * @return true si algún marco pudo ligarlo
+     */
+    public boolean isLocalName(String name) {
+        return global.localNames.containsKey(name);
+    }
+    
+    /**
+     * Obtiene la versión del registro de nombres locales de este entorno
+     * global. Cambia cada vez que se registra un nombre nuevo, así que una
+     * caché que guardó una celda con la versión anterior debe volver a
+     * comprobar el nombre.
+     * 
+     * @return Versión actual
+     */
+    public int getLocalNamesVersion() {
+        return global.localNamesVersion;
+    }
+    
+    /**
+     * Registra en este entorno global un nombre que alguna forma asigna. Se
+     * llama al verificar las formas, antes de evaluarlas, para que las
+     * lambdas creadas después compartan la variable con el marco que la ligó.
+     * 
+     * @param name Nombre de la variable asignada
+     */
+    @SuppressWarnings("unchecked")
+    public void markAssigned(String name) {
+        PersistentMap<Boolean> current;
+        do {
+            current = global.assignedNames;
+            if (current.containsKey(name)) {
+                return;
+            }
+        } while (!ASSIGNED_NAMES.compareAndSet(global, current, current.put(name, Boolean.TRUE)));
+    }
+    
+    /**
+     * Indica si alguna forma verificada en este entorno global asigna el nombre.
+     * 
+     * @param name Nombre de la variable
+     * @return true si una lambda que lo captura debe compartirlo
+     */
+    public boolean isAssignedName(String name) {
+        return global.assignedNames.containsKey(name);
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Captura unas variables ligadas en los marcos locales de la cadena (sin
+     * contar el entorno global). Las que nunca se asignan (ver markAssigned)
+     * se copian; las demás pasan a una SharedCell que queda en el marco y
+     * en el arreglo, así que el marco y quien reciba el arreglo leen y
+     * escriben la misma variable. Las que no están ligadas localmente quedan
+     * sin ligar en el arreglo: al pasar el arreglo a swapSlot esas ranuras
+     * siguen sin ligar y la variable se busca cuando se usa.
+     * 
+     * @param names Nombres de las variables
+     * @param assigned Cuáles asigna el propio código que las captura
+     * @return Valores o celdas de las variables, en el mismo orden
+     */
+    public Object[] captureLocals(String[] names, boolean[] assigned) {
+        if (names.length == 0) {
+            return NO_VALUES;
+        }
+        
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = isLocalName(names[i])
+                ? localBinding(names[i], assigned[i] || isAssignedName(names[i])) : UNBOUND;
+        }
+        return values;
+    }
+    
+    private Object localBinding(String name, boolean shared) {
+        for (LispEnvironment current = this; current.parent != null; current = current.parent) {
+            int slot = current.boundSlot(name);
+            if (slot >= 0) {
+                Object bound = current.slots[slot];
+                if (!shared) {
+                    return valueOf(bound);
+                }
+                if (!(bound instanceof SharedCell)) {
+                    bound = current.slots[slot] = new SharedCell(bound);
+                }
+                return bound;
+            }
+            Object value = current.variables.lookup(name, UNBOUND);
+            if (value != UNBOUND) {
+                return shared ? current.shareVariable(name) : valueOf(value);
+            }
+        }
+        return UNBOUND;
+    }
+    
+    /**
+     * Pasa una variable del mapa de este marco a una SharedCell.
+     */
+    @SuppressWarnings("unchecked")
+    private SharedCell shareVariable(String name) {
+        PersistentMap<Object> current;
+        SharedCell cell;
+        do {
+            current = variables;
+            Object bound = current.get(name);
+            if (bound instanceof SharedCell) {
+                return (SharedCell) bound;
+            }
+            cell = new SharedCell(bound);
+        } while (!VARIABLES.compareAndSet(this, current, current.put(name, cell)));
+        return cell;
+    }
+    
+    /**
+     * Valor de una ranura o de una variable local, que puede estar en una
+     * SharedCell.
+     */
+    private static Object valueOf(Object bound) {
+        return bound instanceof SharedCell ? ((SharedCell) bound).value : bound;
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Busca en este marco la ranura de cada nombre.
+     * 
+     * @param names Nombres de las variables
+     * @return Índices de las ranuras, o null si a alguno le falta ranura
+     */
+    public int[] findSlots(String[] names) {
+        int[] indices = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            indices[i] = assignableSlot(names[i]);
+            if (indices[i] < 0) {
+                return null;
+            }
+        }
+        return indices;
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Cambia el valor de una ranura y devuelve el anterior, que puede ser la
+     * marca de ranura sin ligar. Para deshacer la asignación basta con volver
+     * a llamar con el valor devuelto.
+     * 
+     * @param index Índice de la ranura
+     * @param value Valor nuevo
+     * @return Valor anterior de la ranura
+     */
+    public Object swapSlot(int index, Object value) {
+        Object previous = slots[index];
+        slots[index] = value;
+        return previous;
+    }
+    
+    /**
+     * Índice de la última ranura ligada con ese nombre, o -1.
+     */
+    private int boundSlot(String name) {
+        for (int i = slotNames.length - 1; i >= 0; i--) {
+            if (slots[i] != UNBOUND && name.equals(slotNames[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Índice de la ranura donde se asigna un nombre: la ligada o, si ninguna
+     * lo está, la última con ese nombre. -1 si el marco no tiene esa ranura.
+     */
+    private int assignableSlot(String name) {
+        int bound = boundSlot(name);
+        if (bound >= 0) {
+            return bound;
+        }
+        for (int i = slotNames.length - 1; i >= 0; i--) {
+            if (name.equals(slotNames[i])) {
+                return i;
+            }
+        }
+        return -1;
     }
     
     //-------------------------------------------------------------------
@@ -98,11 +813,72 @@ public class LispEnvironment {
      * @param body Cuerpo de la función
      * @return Nombre de la función definida
      */
+    @SuppressWarnings("unchecked")
     public String defineFunction(String name, List<String> params, Object body) {
-        functions.put(name, new FunctionDefinition(params, body));
+        if (bindingsOnly) {
+            return parent.defineFunction(name, params, body);
+        }
+        
+        FunctionDefinition function = new FunctionDefinition(params, body, global);
+        PersistentMap<FunctionDefinition> current;
+        do {
+            current = functions;
+        } while (!FUNCTIONS.compareAndSet(this, current, current.put(name, function)));
+        
+        do {
+            current = global.macros;
+        } while (!MACROS.compareAndSet(global, current, current.remove(name)));
+
+        if (this != global) {
+            global.localFunctions = true;
+        }
+        DEFINITION_VERSION.incrementAndGet(global);
         return name;
     }
     
+    //-------------------------------------------------------------------
+    /**
+     * Indica si se han definido funciones en entornos locales.
+     * En ese caso la función a la que se refiere un nombre depende del
+     * entorno de la llamada y no se puede guardar en el sitio de llamada.
+     * 
+     * @return true si hubo algún defun fuera del entorno global
+     */
+    public boolean hasLocalFunctions() {
+        return global.localFunctions;
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Define una macro. Las macros siempre se guardan en el entorno global.
+     * 
+     * @param name Nombre de la macro
+     * @param params Lista de nombres de parámetros
+     * @param body Cuerpo de la macro (produce la expansión)
+     * @return Nombre de la macro definida
+     */
+    @SuppressWarnings("unchecked")
+    public String defineMacro(String name, List<String> params, Object body) {
+        FunctionDefinition macro = new FunctionDefinition(params, body, global);
+        PersistentMap<FunctionDefinition> current;
+        do {
+            current = global.macros;
+        } while (!MACROS.compareAndSet(global, current, current.put(name, macro)));
+        DEFINITION_VERSION.incrementAndGet(global);
+        return name;
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Obtiene la definición de una macro.
+     * 
+     * @param name Nombre de la macro
+     * @return Definición de la macro o null si no existe
+     */
+    public FunctionDefinition getMacro(String name) {
+        return global.macros.get(name);
+    }
+    
     //-------------------------------------------------------------------
     /**
      * Obtiene la definición de una función.
@@ -113,17 +889,31 @@ public class LispEnvironment {
      * @throws RuntimeException si la función no está definida
      */
     public FunctionDefinition getFunction(String name) {
-        if (functions.containsKey(name)) {
-            return functions.get(name);
-        }
-        
-        if (parent != null) {
-            return parent.getFunction(name);
+        FunctionDefinition function = findFunction(name);
+        if (function != null) {
+            return function;
         }
         
         throw new RuntimeException("Función no definida: " + name);
     }
     
+    //-------------------------------------------------------------------
+    /**
+     * Busca una función recorriendo la cadena de entornos una sola vez.
+     * 
+     * @param name Nombre de la función
+     * @return Definición de la función o null si no está definida
+     */
+    public FunctionDefinition findFunction(String name) {
+        for (LispEnvironment current = this; current != null; current = current.parent) {
+            FunctionDefinition function = current.functions.get(name);
+            if (function != null) {
+                return function;
+            }
+        }
+        return null;
+    }
+    
     //-------------------------------------------------------------------
     /**
      * Verifica si una función existe en este entorno o sus padres.
@@ -132,8 +922,7 @@ public class LispEnvironment {
      * @return true si la función existe
      */
     public boolean hasFunction(String name) {
-        return functions.containsKey(name) || 
-               (parent != null && parent.hasFunction(name));
+        return findFunction(name) != null;
     }
     
     //-------------------------------------------------------------------
@@ -145,6 +934,27 @@ public class LispEnvironment {
         private final List<String> parameters;
         private final Object body;
         
+        /** Entorno global donde se definió la función */
+        private final LispEnvironment owner;
+        
+        /** Posiciones de las formas del cuerpo en el código fuente (null si no se conocen) */
+        private volatile Object sourcePositions;
+        
+        /** Ranuras del marco de cada llamada (null hasta calcularlas) */
+        private volatile String[] frameLayout;
+        
+        /** Registro de nombres locales en el que ya estaban las ranuras la última vez */
+        private volatile PersistentMap<Boolean> layoutNames;
+        
+        /** Cuerpo con llamadas expandidas en línea (null si no hay) */
+        private volatile InlinedBody inlined;
+        
+        /** Número de invocaciones desde la última compilación o desoptimización */
+        private int invocations;
+        
+        /** Código compilado por el evaluador para esta función (null si aún no hay) */
+        private volatile Object compiled;
+        
         /**
          * Constructor para una definición de función.
          * 
@@ -152,8 +962,80 @@ public class LispEnvironment {
          * @param body Cuerpo de la función (no evaluado)
          */
         public FunctionDefinition(List<String> parameters, Object body) {
+            this(parameters, body, null);
+        }
+        
+        /**
+         * Constructor para una definición que pertenece a un entorno global.
+         * 
+         * @param parameters Lista de nombres de parámetros
+         * @param body Cuerpo de la función (no evaluado)
+         * @param owner Entorno global donde se definió
+         */
+        public FunctionDefinition(List<String> parameters, Object body, LispEnvironment owner) {
             this.parameters = parameters;
             this.body = body;
+            this.owner = owner;
+        }
+        
+        /**
+         * Obtiene el entorno global donde se definió la función. Después de
+         * un fork la definición es compartida, pero sus cachés (cuerpo
+         * expandido, código compilado) solo se actualizan desde su dueño.
+         * 
+         * @return Entorno global dueño, o null si se creó fuera de un entorno
+         */
+        public LispEnvironment getOwner() {
+            return owner;
+        }
+        
+        /**
+         * Obtiene las posiciones en el código fuente de las formas del cuerpo,
+         * que el evaluador usa para ubicar los errores.
+         * 
+         * @return Mapa de posiciones del análisis que definió la función, o null
+         */
+        public Object getSourcePositions() {
+            return sourcePositions;
+        }
+        
+        /**
+         * Guarda las posiciones en el código fuente de las formas del cuerpo.
+         * 
+         * @param sourcePositions Mapa de posiciones del análisis que definió la función
+         */
+        public void setSourcePositions(Object sourcePositions) {
+            this.sourcePositions = sourcePositions;
+        }
+        
+        /**
+         * Obtiene los nombres de las ranuras del marco de llamada: los
+         * parámetros en orden y después las variables de let y bucles del
+         * cuerpo. La definición puede ser compartida por varios entornos
+         * globales (fork), así que la primera vez que se usa en uno registra
+         * allí los nombres como locales.
+         * 
+         * @param env Entorno de la llamada
+         * @return Nombres de las ranuras, o null si aún no se calcularon
+         */
+        public String[] getFrameLayout(LispEnvironment env) {
+            String[] layout = frameLayout;
+            if (layout != null && layoutNames != env.global.localNames) {
+                layoutNames = env.global.markLocal(layout);
+            }
+            return layout;
+        }
+        
+        /**
+         * Guarda los nombres de las ranuras del marco de llamada y los
+         * registra como locales en el entorno global de la llamada.
+         * 
+         * @param frameLayout Parámetros seguidos de las variables locales
+         * @param env Entorno de la llamada
+         */
+        public void setFrameLayout(String[] frameLayout, LispEnvironment env) {
+            layoutNames = env.global.markLocal(frameLayout);
+            this.frameLayout = frameLayout;
         }
         
         /**
@@ -173,5 +1055,184 @@ public class LispEnvironment {
         public Object getBody() {
             return body;
         }
+        
+        /**
+         * Cuenta una invocación de la función. El contador es aproximado: no
+         * se sincroniza porque solo sirve para decidir cuándo compilarla.
+         * 
+         * @return Número de invocaciones contadas hasta ahora
+         */
+        public int recordInvocation() {
+            return ++invocations;
+        }
+        
+        /**
+         * Obtiene el código compilado de la función.
+         * 
+         * @return Código compilado, o null si la función se interpreta
+         */
+        public Object getCompiled() {
+            return compiled;
+        }
+        
+        /**
+         * Guarda o descarta el código compilado de la función. Al descartarlo
+         * el contador de invocaciones vuelve a cero, así la función se
+         * interpreta (y se perfila) de nuevo antes de volver a compilarse.
+         * 
+         * @param compiled Código compilado, o null para volver al intérprete
+         */
+        public void setCompiled(Object compiled) {
+            this.compiled = compiled;
+            if (compiled == null) {
+                invocations = 0;
+            }
+        }
+        
+        /**
+         * Guarda una versión del cuerpo con llamadas a otras funciones
+         * expandidas en línea.
+         * 
+         * @param inlinedBody Cuerpo con las llamadas expandidas
+         * @param dependencies Funciones expandidas (nombre -> definición usada)
+         * @param global Entorno global donde se resolvieron las funciones
+         */
+        public void setInlinedBody(Object inlinedBody, Map<String, FunctionDefinition> dependencies,
+                                   LispEnvironment global) {
+            this.inlined = new InlinedBody(inlinedBody, dependencies, global, global.getDefinitionVersion());
+        }
+        
+        /**
+         * Obtiene el cuerpo que se debe ejecutar. Si alguna de las funciones
+         * expandidas en línea fue redefinida, se descarta la versión expandida
+         * (desoptimización) y se vuelve al cuerpo original.
+         * 
+         * @return Cuerpo a ejecutar
+         */
+        public Object getExecutableBody() {
+            InlinedBody current = inlined;
+            return current == null ? body : getExecutableBody(current.global);
+        }
+        
+        /**
+         * Obtiene el cuerpo que se debe ejecutar en un entorno global dado.
+         * En un entorno bifurcado (distinto del que expandió el cuerpo) las
+         * dependencias se verifican contra ese entorno sin tocar la caché,
+         * para que una redefinición en la copia no desoptimice al original.
+         * 
+         * @param global Entorno global de la llamada
+         * @return Cuerpo a ejecutar
+         */
+        public Object getExecutableBody(LispEnvironment global) {
+            InlinedBody current = inlined;
+            if (current == null) {
+                return body;
+            }
+            
+            int version = global.getDefinitionVersion();
+            if (current.global == global && current.version == version) {
+                return current.body;
+            }
+            
+            // Cambiaron las definiciones: verificar que las funciones expandidas sigan iguales
+            for (Map.Entry<String, FunctionDefinition> dependency : current.dependencies.entrySet()) {
+                String name = dependency.getKey();
+                if (global.hasLocalFunctions() || global.getMacro(name) != null
+                        || global.findFunction(name) != dependency.getValue()) {
+                    if (current.global == global) {
+                        inlined = null;
+                    }
+                    return body;
+                }
+            }
+            
+            if (current.global == global) {
+                inlined = new InlinedBody(current.body, current.dependencies, global, version);
+            }
+            return current.body;
+        }
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Celda de una variable global. setq escribe el valor en la celda, así
+     * que quien la guardó ve siempre el valor actual sin buscar el nombre.
+     */
+    public static final class GlobalCell {
+        /** Identidad del entorno global dueño de la celda */
+        private final Object epoch;
+        
+        private volatile Object value;
+        
+        GlobalCell(Object epoch, Object value) {
+            this.epoch = epoch;
+            this.value = value;
+        }
+        
+        /**
+         * Obtiene el valor actual de la variable.
+         * 
+         * @return Valor de la variable
+         */
+        public Object getValue() {
+            return value;
+        }
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Celda de una variable local que una lambda capturó y que alguna forma
+     * asigna. Está a la vez en el marco donde se ligó la variable y en las
+     * clausuras, así que un setq en cualquiera de ellos lo ven todos. Solo
+     * vive en las ranuras y mapas de los marcos: las lecturas devuelven su
+     * valor y las escrituras lo cambian, nunca la celda misma.
+     */
+    private static final class SharedCell {
+        private volatile Object value;
+        
+        SharedCell(Object value) {
+            this.value = value;
+        }
+        
+        Object update(UnaryOperator<Object> update) {
+            Object previous;
+            Object next;
+            do {
+                previous = value;
+                next = update.apply(previous);
+            } while (!SHARED_VALUE.compareAndSet(this, previous, next));
+            return next;
+        }
+        
+        boolean compareAndSet(Object expected, Object next) {
+            Object previous;
+            do {
+                previous = value;
+                if (!Objects.equals(previous, expected)) {
+                    return false;
+                }
+            } while (!SHARED_VALUE.compareAndSet(this, previous, next));
+            return true;
+        }
+    }
+    
+    //-------------------------------------------------------------------
+    /**
+     * Cuerpo expandido en línea junto con las definiciones de las que
+     * depende y la versión en la que se verificó por última vez.
+     */
+    private static final class InlinedBody {
+        private final Object body;
+        private final Map<String, FunctionDefinition> dependencies;
+        private final LispEnvironment global;
+        private final int version;
+        
+        InlinedBody(Object body, Map<String, FunctionDefinition> dependencies,
+                    LispEnvironment global, int version) {
+            this.body = body;
+            this.dependencies = dependencies;
+            this.global = global;
+            this.version = version;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,52 @@
+package lisp.environment;
+
+/**
+ * Reserva de marcos de llamada de un hilo. Las llamadas a funciones siguen
+ * un orden de pila, así que al volver de una llamada su marco queda libre y
+ * la siguiente llamada lo reutiliza (con su arreglo de ranuras) en lugar de
+ * crear uno nuevo. Con una recursión profunda no se crean marcos nuevos
+ * después de la primera bajada.
+ *
+ * <p>Un marco solo vuelve a la reserva si no escapó de la llamada: si una
+ * promesa lo retuvo ({@link LispEnvironment#capture()}) se deja al
+ * recolector de basura. No es segura entre hilos: cada hilo usa la suya.</p>
+ */
+public final class LispFrameArena {
+
+    /** Marcos libres que se conservan como máximo */
+    private static final int CAPACITY = 256;
+
+    private final LispEnvironment[] free = new LispEnvironment[CAPACITY];
+    private int size;
+
+    /**
+     * Obtiene un marco con ranuras sin ligar, reutilizado si hay uno libre.
+     *
+     * @param parent Entorno padre del marco
+     * @param slotNames Nombres de las ranuras
+     * @return Marco listo para ligar los parámetros
+     */
+    public LispEnvironment acquire(LispEnvironment parent, String[] slotNames) {
+        if (size == 0) {
+            return new LispEnvironment(parent, slotNames);
+        }
+        LispEnvironment frame = free[--size];
+        free[size] = null;
+        frame.reuse(parent, slotNames);
+        return frame;
+    }
+
+    /**
+     * Devuelve un marco al terminar su llamada. Si fue retenido, o la
+     * reserva está llena, simplemente se descarta.
+     *
+     * @param frame Marco obtenido con acquire
+     */
+    public void release(LispEnvironment frame) {
+        if (frame.isCaptured() || size == CAPACITY) {
+            return;
+        }
+        frame.clear();
+        free[size++] = frame;
+    }
+}
@@ -0,0 +1,319 @@
+package lisp.environment;
+
+/**
+ * Mapa persistente (inmutable) de símbolos a valores, implementado como un
+ * trie de mapeo de arreglos por hash (HAMT). Cada modificación devuelve un
+ * mapa nuevo que comparte con el anterior todos los nodos que no cambiaron,
+ * copiando solo el camino desde la raíz hasta la llave (a lo sumo siete
+ * nodos). Por eso copiar un mapa cuesta O(1) y los lectores nunca necesitan
+ * bloquearse: siempre ven una versión completa.
+ *
+ * @param <V> Tipo de los valores
+ */
+public final class PersistentMap<V> {
+
+    /** Valor que devuelve lookup cuando la llave no existe */
+    private static final Object NOT_FOUND = new Object();
+
+    private static final PersistentMap<?> EMPTY = new PersistentMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Obtiene el mapa vacío.
+     *
+     * @param <V> Tipo de los valores
+     * @return Mapa vacío compartido
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> PersistentMap<V> empty() {
+        return (PersistentMap<V>) EMPTY;
+    }
+
+    /**
+     * Obtiene el valor de una llave.
+     *
+     * @param key Llave a buscar
+     * @return Valor asociado, o null si no existe
+     */
+    public V get(String key) {
+        return lookup(key, null);
+    }
+
+    /**
+     * Obtiene el valor de una llave con un valor por defecto, para distinguir
+     * una llave ausente de una asociada a null con una sola búsqueda.
+     *
+     * @param key Llave a buscar
+     * @param notFound Valor a devolver si la llave no existe
+     * @return Valor asociado o notFound
+     */
+    @SuppressWarnings("unchecked")
+    public V lookup(String key, V notFound) {
+        if (root == null) {
+            return notFound;
+        }
+        Object value = root.find(0, key.hashCode(), key);
+        return value == NOT_FOUND ? notFound : (V) value;
+    }
+
+    /**
+     * Indica si el mapa contiene una llave.
+     *
+     * @param key Llave a buscar
+     * @return true si la llave existe
+     */
+    public boolean containsKey(String key) {
+        return root != null && root.find(0, key.hashCode(), key) != NOT_FOUND;
+    }
+
+    /**
+     * Devuelve un mapa con la llave asociada al valor.
+     *
+     * @param key Llave
+     * @param value Valor
+     * @return Mapa nuevo (o este mismo si no hubo cambios)
+     */
+    public PersistentMap<V> put(String key, V value) {
+        boolean[] added = new boolean[1];
+        Node start = root != null ? root : BitmapNode.EMPTY;
+        Node newRoot = start.assoc(0, key.hashCode(), key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * Devuelve un mapa sin la llave.
+     *
+     * @param key Llave a eliminar
+     * @return Mapa nuevo (o este mismo si la llave no existía)
+     */
+    public PersistentMap<V> remove(String key) {
+        if (root == null) {
+            return this;
+        }
+        Node newRoot = root.without(0, key.hashCode(), key);
+        if (newRoot == root) {
+            return this;
+        }
+        return newRoot == null ? empty() : new PersistentMap<>(newRoot, size - 1);
+    }
+
+    /**
+     * Obtiene el número de llaves.
+     *
+     * @return Número de llaves
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Nodo del trie.
+     */
+    private interface Node {
+        Object find(int shift, int hash, String key);
+
+        Node assoc(int shift, int hash, String key, Object value, boolean[] added);
+
+        /** Devuelve el nodo sin la llave, o null si queda vacío */
+        Node without(int shift, int hash, String key);
+    }
+
+    /**
+     * Nodo con hasta 32 ranuras indexadas por cinco bits del hash. El arreglo
+     * guarda pares (llave, valor); una llave null indica que el valor es un
+     * nodo hijo con las llaves que comparten esos bits.
+     */
+    private static final class BitmapNode implements Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & 31);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object find(int shift, int hash, String key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            int i = index(bit);
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                return ((Node) v).find(shift + 5, hash, key);
+            }
+            return key.equals(k) ? v : NOT_FOUND;
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, String key, Object value, boolean[] added) {
+            int bit = bit(hash, shift);
+            int i = index(bit);
+
+            if ((bitmap & bit) == 0) {
+                Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, 2 * i);
+                copy[2 * i] = key;
+                copy[2 * i + 1] = value;
+                System.arraycopy(array, 2 * i, copy, 2 * i + 2, array.length - 2 * i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, copy);
+            }
+
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+            if (k == null) {
+                Node child = ((Node) v).assoc(shift + 5, hash, key, value, added);
+                return child == v ? this : with(2 * i + 1, child);
+            }
+            if (key.equals(k)) {
+                return value == v ? this : with(2 * i + 1, value);
+            }
+
+            // Dos llaves distintas en la misma ranura: se bajan a un nodo hijo
+            added[0] = true;
+            Node child = pair(shift + 5, (String) k, v, hash, key, value);
+            Object[] copy = array.clone();
+            copy[2 * i] = null;
+            copy[2 * i + 1] = child;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        @Override
+        public Node without(int shift, int hash, String key) {
+            int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = index(bit);
+            Object k = array[2 * i];
+            Object v = array[2 * i + 1];
+
+            if (k == null) {
+                Node child = ((Node) v).without(shift + 5, hash, key);
+                if (child == v) {
+                    return this;
+                }
+                if (child != null) {
+                    return with(2 * i + 1, child);
+                }
+            } else if (!key.equals(k)) {
+                return this;
+            }
+
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, 2 * i);
+            System.arraycopy(array, 2 * i + 2, copy, 2 * i, array.length - 2 * i - 2);
+            return new BitmapNode(bitmap & ~bit, copy);
+        }
+
+        private BitmapNode with(int index, Object element) {
+            Object[] copy = array.clone();
+            copy[index] = element;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        private static Node pair(int shift, String key1, Object value1, int hash2, String key2, Object value2) {
+            int hash1 = key1.hashCode();
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+            }
+            boolean[] added = new boolean[1];
+            return EMPTY.assoc(shift, hash1, key1, value1, added).assoc(shift, hash2, key2, value2, added);
+        }
+    }
+
+    /**
+     * Nodo para llaves distintas con exactamente el mismo hash.
+     */
+    private static final class CollisionNode implements Node {
+        private final int hash;
+        private final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int indexOf(String key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Object find(int shift, int hash, String key) {
+            int i = hash == this.hash ? indexOf(key) : -1;
+            return i < 0 ? NOT_FOUND : array[i + 1];
+        }
+
+        @Override
+        public Node assoc(int shift, int hash, String key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // Otro hash: este nodo pasa a ser hijo de un nodo con bitmap
+                Node parent = new BitmapNode(BitmapNode.bit(this.hash, shift), new Object[] {null, this});
+                return parent.assoc(shift, hash, key, value, added);
+            }
+
+            int i = indexOf(key);
+            if (i >= 0) {
+                if (array[i + 1] == value) {
+                    return this;
+                }
+                Object[] copy = array.clone();
+                copy[i + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+
+            Object[] copy = new Object[array.length + 2];
+            System.arraycopy(array, 0, copy, 0, array.length);
+            copy[array.length] = key;
+            copy[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        public Node without(int shift, int hash, String key) {
+            int i = hash == this.hash ? indexOf(key) : -1;
+            if (i < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, i);
+            System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+            return new CollisionNode(hash, copy);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package lisp.interpreter;
+
+import lisp.environment.LispEnvironment;
+
+/**
+ * Variables locales ligadas por let, let* y los bucles. Usa las ranuras del
+ * marco actual si las tiene (el marco de una función reserva las de su
+ * cuerpo); si no, crea un marco solo con esas ranuras. Al cerrar, cada
+ * ranura recupera el valor que tenía antes, como corresponde al alcance
+ * dinámico.
+ */
+final class LispBindings {
+
+    private final LispEnvironment frame;
+    private final int[] slots;
+    private final Object[] previous;
+    private int bound;
+
+    private LispBindings(LispEnvironment frame, int[] slots) {
+        this.frame = frame;
+        this.slots = slots;
+        this.previous = new Object[slots.length];
+    }
+
+    /**
+     * Prepara las ranuras para ligar variables (todavía sin ligar).
+     *
+     * @param env Entorno donde aparece la forma
+     * @param names Nombres de las variables, en el orden en que se ligarán
+     * @return Variables listas para ligarse con bind
+     */
+    static LispBindings open(LispEnvironment env, String[] names) {
+        int[] slots = env.findSlots(names);
+        if (slots != null) {
+            return new LispBindings(env, slots);
+        }
+
+        slots = new int[names.length];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = i;
+        }
+        return new LispBindings(LispEnvironment.bindingFrame(env, names), slots);
+    }
+
+    /**
+     * Entorno donde se ven las variables.
+     */
+    LispEnvironment frame() {
+        return frame;
+    }
+
+    /**
+     * Liga la siguiente variable.
+     */
+    void bind(Object value) {
+        previous[bound] = frame.swapSlot(slots[bound], value);
+        bound++;
+    }
+
+    /**
+     * Cambia el valor de una variable ya ligada (el paso de un bucle).
+     */
+    void set(int index, Object value) {
+        frame.swapSlot(slots[index], value);
+    }
+
+    /**
+     * Devuelve las ranuras a sus valores anteriores, en orden inverso.
+     */
+    void close() {
+        while (bound > 0) {
+            bound--;
+            frame.swapSlot(slots[bound], previous[bound]);
+        }
+    }
+}
@@ -0,0 +1,685 @@
+package lisp.interpreter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import lisp.environment.LispEnvironment;
+import lisp.environment.LispEnvironment.FunctionDefinition;
+
+/**
+ * Traduce el cuerpo de una función caliente a una clase JVM para que HotSpot
+ * la compile como código Java. Solo se traducen funciones numéricas
+ * autocontenidas: parámetros, números, aritmética, comparaciones, cond y
+ * llamadas recursivas a la propia función (que se vuelven invocaciones
+ * estáticas directas). Cualquier otra forma hace que la función siga en el
+ * intérprete.
+ *
+ * Las llamadas a otras funciones de usuario (que también deben cumplir esas
+ * reglas) pasan por un MutableCallSite por nombre, guardado en un campo
+ * static final de la clase generada. Mientras la función llamada se
+ * interpreta, el sitio apunta a un trampolín hacia el evaluador; cuando se
+ * traduce a bytecode el sitio se reenlaza a su método estático, y al
+ * redefinirla vuelve al trampolín. Así HotSpot puede expandir en línea las
+ * llamadas entre funciones LISP.
+ *
+ * Cada llamada a una función de usuario tiene un manejador de excepciones
+ * que agrega la llamada a la traza LISP, así que un error dentro de código
+ * generado muestra las mismas funciones que en el intérprete.
+ *
+ * Cada clase se define en su propio cargador de clases; al redefinir la
+ * función deja de haber referencias a él y la JVM puede descargar la clase.
+ */
+public class LispBytecodeCompiler implements Opcodes {
+
+    private static final String BASE = "lisp/interpreter/LispBytecodeFunction";
+    private static final String RUNTIME = "lisp/interpreter/LispBytecodeRuntime";
+    private static final String OBJECT = "java/lang/Object";
+
+    private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String NARY = "([Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String TEST = "(Ljava/lang/Object;Ljava/lang/Object;)Z";
+
+    private static final String HANDLE = "java/lang/invoke/MethodHandle";
+    private static final String EXCEPTION = "lisp/interpreter/LispException";
+    private static final String FAILED =
+        "(Llisp/interpreter/LispException;Ljava/lang/Object;)Llisp/interpreter/LispException;";
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private static final MethodHandle INTERPRET;
+
+    static {
+        try {
+            INTERPRET = MethodHandles.lookup().findStatic(LispBytecodeCompiler.class, "interpret",
+                MethodType.methodType(Object.class, LispEvaluator.class, LispEnvironment.class,
+                                      String.class, Object[].class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final LispEvaluator evaluator;
+
+    /** Sitios de llamada de cada entorno global (nombre/aridad -> sitio); se accede con el candado del compilador */
+    private final Map<LispEnvironment, Map<String, MutableCallSite>> sites = new WeakHashMap<>();
+
+    /**
+     * Constructor del compilador.
+     *
+     * @param evaluator Evaluador al que vuelven las llamadas a funciones interpretadas
+     */
+    public LispBytecodeCompiler(LispEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Intenta traducir una función a bytecode.
+     *
+     * @param name Nombre de la función
+     * @param function Definición de la función
+     * @param body Cuerpo que se ejecutaría en el intérprete
+     * @param env Entorno donde se llamó a la función
+     * @return Código generado, o null si la función usa formas no soportadas
+     */
+    public synchronized LispBytecodeFunction compile(String name, FunctionDefinition function, Object body,
+                                        LispEnvironment env) {
+        LispEnvironment global = env.getGlobal();
+        if (global.hasLocalFunctions() || global.findFunction(name) != function) {
+            return null;
+        }
+
+        String className = "lisp/generated/LispFunction" + COUNTER.incrementAndGet();
+        Map<String, Integer> calls = new LinkedHashMap<>();
+        List<List<?>> callForms = new ArrayList<>();
+        Map<String, FunctionDefinition> dependencies = new LinkedHashMap<>();
+        byte[] bytes;
+        try {
+            bytes = generate(className, name, function.getParameters(), body, calls, callForms);
+            collectDependencies(name, calls, global, dependencies);
+        } catch (UnsupportedForm e) {
+            return null;
+        }
+
+        // Las clases generadas toman sus sitios de llamada al inicializarse
+        MethodHandle[] handles = new MethodHandle[calls.size()];
+        int index = 0;
+        for (Map.Entry<String, Integer> call : calls.entrySet()) {
+            handles[index++] = site(global, call.getKey(), call.getValue()).dynamicInvoker();
+        }
+
+        // Cada llamada se agrega a la traza LISP si un error la atraviesa
+        Object[] frames = new Object[callForms.size()];
+        for (int i = 0; i < frames.length; i++) {
+            String callee = (String) callForms.get(i).get(0);
+            FunctionDefinition definition = callee.equals(name) ? function : dependencies.get(callee);
+            frames[i] = new LispBytecodeRuntime.CallFrame(callee, callForms.get(i), definition);
+        }
+
+        String binaryName = className.replace('/', '.');
+        LispBytecodeRuntime.registerSites(binaryName, handles, frames);
+        try {
+            Class<?> type = new FunctionClassLoader().define(binaryName, bytes);
+            LispBytecodeFunction code = (LispBytecodeFunction) type.getDeclaredConstructor().newInstance();
+            code.bind(name, function, global, dependencies);
+
+            // Las llamadas desde otras funciones generadas van ahora directo a este código
+            MutableCallSite own = sites(global).get(key(name, function.getParameters().size()));
+            if (own != null) {
+                own.setTarget(direct(code, own.type()));
+            }
+            return code;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        } finally {
+            LispBytecodeRuntime.registerSites(binaryName, null, null);
+        }
+    }
+
+    /**
+     * Avisa que una función fue redefinida: sus sitios de llamada vuelven al
+     * trampolín y dejan de retener la clase generada para la definición anterior.
+     *
+     * @param env Entorno donde se redefinió
+     * @param name Nombre de la función
+     */
+    public synchronized void redefined(LispEnvironment env, String name) {
+        Map<String, MutableCallSite> globalSites = sites.get(env.getGlobal());
+        if (globalSites == null) {
+            return;
+        }
+        List<MutableCallSite> changed = new ArrayList<>();
+        for (Map.Entry<String, MutableCallSite> entry : globalSites.entrySet()) {
+            if (entry.getKey().startsWith(name + "/")) {
+                MutableCallSite site = entry.getValue();
+                site.setTarget(trampoline(env.getGlobal(), name, site.type()));
+                changed.add(site);
+            }
+        }
+        // Que los demás hilos dejen de usar el destino anterior
+        if (!changed.isEmpty()) {
+            MutableCallSite.syncAll(changed.toArray(new MutableCallSite[0]));
+        }
+    }
+
+    /**
+     * Verifica que todas las funciones alcanzables desde el cuerpo también
+     * se puedan traducir: así ninguna depende de variables del entorno de
+     * quien la llama (alcance dinámico) y el trampolín puede ejecutarlas en
+     * el entorno global. Cada función alcanzada queda como dependencia.
+     */
+    private void collectDependencies(String name, Map<String, Integer> calls, LispEnvironment global,
+                                     Map<String, FunctionDefinition> dependencies) {
+        Deque<Map.Entry<String, Integer>> pending = new ArrayDeque<>(calls.entrySet());
+        MethodVisitor discard = new MethodVisitor(ASM9) {
+        };
+
+        while (!pending.isEmpty()) {
+            Map.Entry<String, Integer> call = pending.pop();
+            String callee = call.getKey();
+            if (callee.equals(name) || dependencies.containsKey(callee)) {
+                continue;
+            }
+
+            FunctionDefinition definition = global.findFunction(callee);
+            if (definition == null || global.getMacro(callee) != null
+                    || definition.getParameters().size() != call.getValue()) {
+                throw new UnsupportedForm();
+            }
+            dependencies.put(callee, definition);
+
+            // El cuerpo original y el expandido en línea (puede volverse al original)
+            Map<String, Integer> calleeCalls = new HashMap<>();
+            List<String> params = definition.getParameters();
+            String descriptor = descriptor(params.size());
+            new BodyWriter(discard, "", descriptor, callee, params, calleeCalls, new ArrayList<>())
+                .value(definition.getBody());
+            Object executable = definition.getExecutableBody(global);
+            if (executable != definition.getBody()) {
+                new BodyWriter(discard, "", descriptor, callee, params, calleeCalls, new ArrayList<>())
+                    .value(executable);
+            }
+            pending.addAll(calleeCalls.entrySet());
+        }
+    }
+
+    private Map<String, MutableCallSite> sites(LispEnvironment global) {
+        return sites.computeIfAbsent(global, g -> new HashMap<>());
+    }
+
+    private static String key(String name, int arity) {
+        return name + "/" + arity;
+    }
+
+    /**
+     * Obtiene (o crea) el sitio de llamada compartido para una función.
+     */
+    private MutableCallSite site(LispEnvironment global, String name, int arity) {
+        return sites(global).computeIfAbsent(key(name, arity), k -> {
+            MethodType type = MethodType.genericMethodType(arity);
+            FunctionDefinition function = global.findFunction(name);
+            Object compiled = function != null ? function.getCompiled() : null;
+
+            if (compiled instanceof LispCompiler.CompiledFunction) {
+                LispBytecodeFunction code = ((LispCompiler.CompiledFunction) compiled).getBytecode();
+                if (code != null && code.isValidFor(global)) {
+                    try {
+                        return new MutableCallSite(direct(code, type));
+                    } catch (ReflectiveOperationException e) {
+                        // Se usa el trampolín
+                    }
+                }
+            }
+            return new MutableCallSite(trampoline(global, name, type));
+        });
+    }
+
+    private static MethodHandle direct(LispBytecodeFunction code, MethodType type)
+            throws ReflectiveOperationException {
+        return MethodHandles.publicLookup().findStatic(code.getClass(), "call", type);
+    }
+
+    private MethodHandle trampoline(LispEnvironment global, String name, MethodType type) {
+        return MethodHandles.insertArguments(INTERPRET, 0, evaluator, global, name)
+            .asCollector(Object[].class, type.parameterCount())
+            .asType(type);
+    }
+
+    /**
+     * Destino de los sitios de llamada mientras la función se interpreta.
+     */
+    private static Object interpret(LispEvaluator evaluator, LispEnvironment global, String name, Object[] args) {
+        FunctionDefinition function = evaluator.lookupFunction(name, global);
+        return evaluator.invokeUserFunction(name, function, Arrays.asList(args), global);
+    }
+
+    private byte[] generate(String className, String name, List<String> params, Object body,
+                            Map<String, Integer> calls, List<List<?>> callForms) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                return OBJECT;
+            }
+        };
+        writer.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, BASE, null);
+
+        MethodVisitor init = writer.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(ALOAD, 0);
+        init.visitMethodInsn(INVOKESPECIAL, BASE, "<init>", "()V", false);
+        init.visitInsn(RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        String descriptor = descriptor(params.size());
+
+        // Método estático con el cuerpo de la función
+        MethodVisitor call = writer.visitMethod(ACC_PUBLIC | ACC_STATIC, "call", descriptor, null, null);
+        call.visitCode();
+        new BodyWriter(call, className, descriptor, name, params, calls, callForms).value(body);
+        call.visitInsn(ARETURN);
+        call.visitMaxs(0, 0);
+        call.visitEnd();
+
+        // Un campo static final por sitio de llamada, para que el JIT lo trate como constante
+        MethodVisitor clinit = null;
+        if (!calls.isEmpty()) {
+            clinit = writer.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+            clinit.visitCode();
+            clinit.visitLdcInsn(className.replace('/', '.'));
+            clinit.visitMethodInsn(INVOKESTATIC, RUNTIME, "linkSites",
+                                   "(Ljava/lang/String;)[Ljava/lang/invoke/MethodHandle;", false);
+            for (int i = 0; i < calls.size(); i++) {
+                writer.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "site" + i,
+                                  "L" + HANDLE + ";", null, null).visitEnd();
+                clinit.visitInsn(DUP);
+                clinit.visitLdcInsn(i);
+                clinit.visitInsn(AALOAD);
+                clinit.visitFieldInsn(PUTSTATIC, className, "site" + i, "L" + HANDLE + ";");
+            }
+            clinit.visitInsn(POP);
+        }
+
+        // Las llamadas de la traza LISP, en el orden de sus manejadores de excepción
+        if (!callForms.isEmpty()) {
+            if (clinit == null) {
+                clinit = writer.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+                clinit.visitCode();
+            }
+            writer.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "frames",
+                              "[L" + OBJECT + ";", null, null).visitEnd();
+            clinit.visitLdcInsn(className.replace('/', '.'));
+            clinit.visitMethodInsn(INVOKESTATIC, RUNTIME, "linkFrames",
+                                   "(Ljava/lang/String;)[Ljava/lang/Object;", false);
+            clinit.visitFieldInsn(PUTSTATIC, className, "frames", "[L" + OBJECT + ";");
+        }
+        if (clinit != null) {
+            clinit.visitInsn(RETURN);
+            clinit.visitMaxs(0, 0);
+            clinit.visitEnd();
+        }
+
+        // invoke(Object[]) desempaqueta los argumentos y llama al método estático
+        MethodVisitor invoke = writer.visitMethod(ACC_PUBLIC, "invoke", NARY, null, null);
+        invoke.visitCode();
+        for (int i = 0; i < params.size(); i++) {
+            invoke.visitVarInsn(ALOAD, 1);
+            invoke.visitLdcInsn(i);
+            invoke.visitInsn(AALOAD);
+        }
+        invoke.visitMethodInsn(INVOKESTATIC, className, "call", descriptor, false);
+        invoke.visitInsn(ARETURN);
+        invoke.visitMaxs(0, 0);
+        invoke.visitEnd();
+
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static String descriptor(int arity) {
+        StringBuilder builder = new StringBuilder("(");
+        for (int i = 0; i < arity; i++) {
+            builder.append("Ljava/lang/Object;");
+        }
+        return builder.append(")Ljava/lang/Object;").toString();
+    }
+
+    /**
+     * Genera las instrucciones del cuerpo de una función.
+     */
+    private final class BodyWriter {
+        private final MethodVisitor method;
+        private final String className;
+        private final String descriptor;
+        private final String name;
+        private final List<String> params;
+
+        /** Variables locales de la JVM: parámetros y variables de let visibles (null si aún no) */
+        private final List<String> locals;
+
+        /** Funciones llamadas a través de sitios (nombre -> aridad), en orden de campo */
+        private final Map<String, Integer> calls;
+
+        /** Formas de las llamadas a funciones de usuario, en orden de su entrada en el campo frames */
+        private final List<List<?>> callForms;
+
+        BodyWriter(MethodVisitor method, String className, String descriptor, String name,
+                   List<String> params, Map<String, Integer> calls, List<List<?>> callForms) {
+            this.method = method;
+            this.className = className;
+            this.descriptor = descriptor;
+            this.name = name;
+            this.params = params;
+            this.locals = new ArrayList<>(params);
+            this.calls = calls;
+            this.callForms = callForms;
+        }
+
+        /**
+         * Genera código que deja en la pila el valor de la expresión.
+         */
+        void value(Object expr) {
+            if (expr instanceof Integer) {
+                method.visitLdcInsn(expr);
+                method.visitMethodInsn(INVOKESTATIC, "java/lang/Integer", "valueOf", "(I)Ljava/lang/Integer;", false);
+                return;
+            }
+            if (expr instanceof Double) {
+                method.visitLdcInsn(expr);
+                method.visitMethodInsn(INVOKESTATIC, "java/lang/Double", "valueOf", "(D)Ljava/lang/Double;", false);
+                return;
+            }
+            if (expr instanceof String) {
+                // Parámetros y variables de let se resuelven en el marco de la propia función
+                int index = locals.lastIndexOf(expr);
+                if (index < 0) {
+                    throw new UnsupportedForm();
+                }
+                method.visitVarInsn(ALOAD, index);
+                return;
+            }
+
+            List<?> list = form(expr);
+            String operator = (String) list.get(0);
+            int args = list.size() - 1;
+
+            switch (operator) {
+                case "cond":
+                case "COND":
+                    cond(list);
+                    return;
+                case "let":
+                case "LET":
+                    let(list, false);
+                    return;
+                case "let*":
+                case "LET*":
+                    let(list, true);
+                    return;
+                case "+":
+                case "-":
+                case "*":
+                case "/":
+                    arithmetic(operator.charAt(0), list);
+                    return;
+                case "<":
+                case ">":
+                case "=":
+                case "equal":
+                    test(list);
+                    method.visitMethodInsn(INVOKESTATIC, RUNTIME, "truth", "(Z)Ljava/lang/Object;", false);
+                    return;
+                default:
+                    break;
+            }
+
+            if (operator.equals(name)) {
+                if (args != params.size()) {
+                    throw new UnsupportedForm();
+                }
+                for (int i = 1; i < list.size(); i++) {
+                    value(list.get(i));
+                }
+                traced(list, () -> method.visitMethodInsn(INVOKESTATIC, className, "call", descriptor, false));
+                return;
+            }
+
+            // Llamada a otra función de usuario a través de su sitio de llamada
+            if (evaluator.isOperator(operator)) {
+                throw new UnsupportedForm();
+            }
+            Integer arity = calls.get(operator);
+            if (arity != null && arity != args) {
+                throw new UnsupportedForm();
+            }
+            if (arity == null) {
+                calls.put(operator, args);
+            }
+            int site = indexOf(operator);
+
+            method.visitFieldInsn(GETSTATIC, className, "site" + site, "L" + HANDLE + ";");
+            for (int i = 1; i < list.size(); i++) {
+                value(list.get(i));
+            }
+            traced(list, () -> method.visitMethodInsn(INVOKEVIRTUAL, HANDLE, "invokeExact", descriptor(args), false));
+        }
+
+        /**
+         * Escribe una instrucción de llamada (con los argumentos ya en la
+         * pila) protegida por un manejador: si un LispException la atraviesa,
+         * el manejador agrega la llamada a la traza LISP y lo vuelve a lanzar,
+         * igual que callUserFunction en el intérprete.
+         */
+        private void traced(List<?> call, Runnable invoke) {
+            Label start = new Label();
+            Label end = new Label();
+            Label handler = new Label();
+            Label done = new Label();
+            int index = callForms.size();
+            callForms.add(call);
+
+            method.visitTryCatchBlock(start, end, handler, EXCEPTION);
+            method.visitLabel(start);
+            invoke.run();
+            method.visitLabel(end);
+            method.visitJumpInsn(GOTO, done);
+
+            method.visitLabel(handler);
+            method.visitFieldInsn(GETSTATIC, className, "frames", "[L" + OBJECT + ";");
+            method.visitLdcInsn(index);
+            method.visitInsn(AALOAD);
+            method.visitMethodInsn(INVOKESTATIC, RUNTIME, "callFailed", FAILED, false);
+            method.visitInsn(ATHROW);
+            method.visitLabel(done);
+        }
+
+        /**
+         * Las variables de let ocupan variables locales de la JVM a partir de
+         * los parámetros; al terminar el let se liberan para el siguiente.
+         */
+        private void let(List<?> list, boolean sequential) {
+            if (list.size() < 2 || !(list.get(1) instanceof List)) {
+                throw new UnsupportedForm();
+            }
+            List<?> bindings = (List<?>) list.get(1);
+            int base = locals.size();
+
+            for (Object binding : bindings) {
+                String variable = LispEvaluator.letName(binding);
+                if (variable == null) {
+                    throw new UnsupportedForm();
+                }
+                Object init = LispEvaluator.letInit(binding);
+                if ("nil".equals(init)) {
+                    method.visitLdcInsn("nil");
+                } else {
+                    value(init);
+                }
+                method.visitVarInsn(ASTORE, locals.size());
+                // En let los valores no ven las variables nuevas: se nombran al final
+                locals.add(sequential ? variable : null);
+            }
+            if (!sequential) {
+                for (int i = 0; i < bindings.size(); i++) {
+                    locals.set(base + i, LispEvaluator.letName(bindings.get(i)));
+                }
+            }
+
+            if (list.size() == 2) {
+                method.visitLdcInsn("nil");
+            }
+            for (int i = 2; i < list.size(); i++) {
+                value(list.get(i));
+                if (i < list.size() - 1) {
+                    method.visitInsn(POP);
+                }
+            }
+
+            while (locals.size() > base) {
+                locals.remove(locals.size() - 1);
+            }
+        }
+
+        private int indexOf(String callee) {
+            int index = 0;
+            for (String called : calls.keySet()) {
+                if (called.equals(callee)) {
+                    return index;
+                }
+                index++;
+            }
+            return -1;
+        }
+
+        /**
+         * Genera código que deja en la pila un boolean con la veracidad de la expresión.
+         */
+        private void test(Object expr) {
+            if (expr instanceof List && !((List<?>) expr).isEmpty() && ((List<?>) expr).size() == 3) {
+                List<?> list = (List<?>) expr;
+                String helper = null;
+                if ("<".equals(list.get(0))) {
+                    helper = "less";
+                } else if (">".equals(list.get(0))) {
+                    helper = "greater";
+                } else if ("=".equals(list.get(0)) || "equal".equals(list.get(0))) {
+                    helper = "equal";
+                }
+
+                if (helper != null) {
+                    value(list.get(1));
+                    value(list.get(2));
+                    method.visitMethodInsn(INVOKESTATIC, RUNTIME, helper, TEST, false);
+                    return;
+                }
+            }
+
+            if (expr instanceof List && ((List<?>) expr).size() != 3 && isComparison(((List<?>) expr).get(0))) {
+                throw new UnsupportedForm();
+            }
+            value(expr);
+            method.visitMethodInsn(INVOKESTATIC, RUNTIME, "isTrue", "(Ljava/lang/Object;)Z", false);
+        }
+
+        private void cond(List<?> list) {
+            Label end = new Label();
+
+            for (int i = 1; i < list.size(); i++) {
+                if (!(list.get(i) instanceof List) || ((List<?>) list.get(i)).size() != 2) {
+                    throw new UnsupportedForm();
+                }
+                List<?> clause = (List<?>) list.get(i);
+
+                // Igual que el intérprete: una condición t no se evalúa
+                if ("t".equals(clause.get(0))) {
+                    value(clause.get(1));
+                    method.visitJumpInsn(GOTO, end);
+                    method.visitLabel(end);
+                    return;
+                }
+
+                Label next = new Label();
+                test(clause.get(0));
+                method.visitJumpInsn(IFEQ, next);
+                value(clause.get(1));
+                method.visitJumpInsn(GOTO, end);
+                method.visitLabel(next);
+            }
+
+            method.visitLdcInsn("nil");
+            method.visitLabel(end);
+        }
+
+        private void arithmetic(char op, List<?> list) {
+            String helper = op == '+' ? "add" : op == '-' ? "subtract" : op == '*' ? "multiply" : "divide";
+
+            if (list.size() == 3 && op != '/') {
+                value(list.get(1));
+                value(list.get(2));
+                method.visitMethodInsn(INVOKESTATIC, RUNTIME, helper, BINARY, false);
+                return;
+            }
+
+            method.visitLdcInsn(list.size() - 1);
+            method.visitTypeInsn(ANEWARRAY, OBJECT);
+            for (int i = 1; i < list.size(); i++) {
+                method.visitInsn(DUP);
+                method.visitLdcInsn(i - 1);
+                value(list.get(i));
+                method.visitInsn(AASTORE);
+            }
+            method.visitMethodInsn(INVOKESTATIC, RUNTIME, helper, NARY, false);
+        }
+
+        private boolean isComparison(Object operator) {
+            return "<".equals(operator) || ">".equals(operator) || "=".equals(operator) || "equal".equals(operator);
+        }
+
+        private List<?> form(Object expr) {
+            if (!(expr instanceof List) || ((List<?>) expr).isEmpty() || !(((List<?>) expr).get(0) instanceof String)) {
+                throw new UnsupportedForm();
+            }
+            return (List<?>) expr;
+        }
+    }
+
+    /**
+     * Cargador de clases de una sola función generada.
+     */
+    private static final class FunctionClassLoader extends ClassLoader {
+        FunctionClassLoader() {
+            super(LispBytecodeFunction.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Indica que el cuerpo usa una forma que no se traduce a bytecode.
+     */
+    private static final class UnsupportedForm extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedForm() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package lisp.interpreter;
+
+import java.util.Map;
+
+import lisp.environment.LispEnvironment;
+import lisp.environment.LispEnvironment.FunctionDefinition;
+
+/**
+ * Clase base de las funciones traducidas a bytecode por LispBytecodeCompiler.
+ * La subclase generada implementa invoke llamando a su método estático, en
+ * el que las llamadas recursivas son invocaciones estáticas directas.
+ */
+public abstract class LispBytecodeFunction {
+
+    private String name;
+    private FunctionDefinition definition;
+    private LispEnvironment global;
+
+    /** Funciones llamadas directa o indirectamente (nombre -> definición usada) */
+    private Map<String, FunctionDefinition> dependencies;
+
+    /** Versión de las definiciones con la que se verificó por última vez */
+    private volatile int version;
+
+    protected LispBytecodeFunction() {
+    }
+
+    /**
+     * Asocia el código generado con la función de la que proviene.
+     */
+    void bind(String name, FunctionDefinition definition, LispEnvironment global,
+              Map<String, FunctionDefinition> dependencies) {
+        this.name = name;
+        this.definition = definition;
+        this.global = global;
+        this.dependencies = dependencies;
+        this.version = global.getDefinitionVersion();
+    }
+
+    /**
+     * Indica si el código generado todavía corresponde a lo que haría el
+     * intérprete en este entorno: las llamadas recursivas están enlazadas
+     * directamente, así que el nombre (y el de cada función a la que llama)
+     * debe seguir resolviendo a la misma definición, sin macros ni funciones
+     * locales con ese nombre. En un entorno bifurcado las mismas condiciones
+     * se verifican contra ese entorno en cada llamada.
+     *
+     * @param env Entorno de la llamada
+     * @return true si se puede ejecutar el código generado
+     */
+    public boolean isValidFor(LispEnvironment env) {
+        LispEnvironment target = env.getGlobal();
+        if (target != global) {
+            return resolvesAll(target);
+        }
+
+        int current = global.getDefinitionVersion();
+        if (current == version) {
+            return true;
+        }
+
+        if (!resolvesAll(global)) {
+            return false;
+        }
+        version = current;
+        return true;
+    }
+
+    private boolean resolvesAll(LispEnvironment target) {
+        if (target.hasLocalFunctions() || !resolves(target, name, definition)) {
+            return false;
+        }
+        for (Map.Entry<String, FunctionDefinition> dependency : dependencies.entrySet()) {
+            if (!resolves(target, dependency.getKey(), dependency.getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean resolves(LispEnvironment target, String function, FunctionDefinition expected) {
+        return target.getMacro(function) == null && target.findFunction(function) == expected;
+    }
+
+    /**
+     * Ejecuta la función con argumentos ya evaluados.
+     *
+     * @param args Argumentos (ya verificado su número)
+     * @return Resultado de la función
+     */
+    public abstract Object invoke(Object[] args);
+}
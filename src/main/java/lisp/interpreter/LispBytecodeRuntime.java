@@ -0,0 +1,172 @@
+package lisp.interpreter;
+
+import java.lang.invoke.MethodHandle;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lisp.environment.LispEnvironment.FunctionDefinition;
+
+/**
+ * Operaciones que invoca el bytecode generado por LispBytecodeCompiler.
+ * Cada operación tiene un camino rápido para enteros (y decimales) y, si no
+ * aplica, delega al camino genérico del evaluador, de modo que el código
+ * generado produce exactamente los mismos resultados y errores que el
+ * intérprete. Son públicas porque las clases generadas viven en su propio
+ * cargador de clases.
+ */
+public final class LispBytecodeRuntime {
+
+    /** Sitios de llamada de las clases que se están definiendo (nombre de clase -> sitios) */
+    private static final Map<String, MethodHandle[]> PENDING_SITES = new ConcurrentHashMap<>();
+
+    /** Llamadas de la traza LISP de las clases que se están definiendo (nombre de clase -> llamadas) */
+    private static final Map<String, Object[]> PENDING_FRAMES = new ConcurrentHashMap<>();
+
+    private LispBytecodeRuntime() {
+    }
+
+    /**
+     * Deja disponibles los sitios de llamada y las llamadas de la traza de
+     * una clase antes de definirla, o los retira (null) una vez inicializada.
+     */
+    static void registerSites(String className, MethodHandle[] handles, Object[] frames) {
+        if (handles == null) {
+            PENDING_SITES.remove(className);
+            PENDING_FRAMES.remove(className);
+        } else {
+            PENDING_SITES.put(className, handles);
+            PENDING_FRAMES.put(className, frames);
+        }
+    }
+
+    /** Entrega a la clase generada sus sitios de llamada (desde su inicializador estático). */
+    public static MethodHandle[] linkSites(String className) {
+        return PENDING_SITES.get(className);
+    }
+
+    /** Entrega a la clase generada las llamadas de la traza LISP (desde su inicializador estático). */
+    public static Object[] linkFrames(String className) {
+        return PENDING_FRAMES.get(className);
+    }
+
+    /**
+     * Agrega a la traza LISP una llamada del código generado que atravesó
+     * un error.
+     *
+     * @param error Error que salió de la función llamada
+     * @param frame CallFrame de la llamada
+     * @return El mismo error, para volver a lanzarlo
+     */
+    public static LispException callFailed(LispException error, Object frame) {
+        CallFrame call = (CallFrame) frame;
+        error.addFrame(call.function, call.call, (LispSourceMap) call.definition.getSourcePositions());
+        return error;
+    }
+
+    /**
+     * Llamada a una función de usuario desde el código generado: lo mismo
+     * que callUserFunction pasa a LispException.addFrame.
+     */
+    static final class CallFrame {
+        private final String function;
+        private final Object call;
+        private final FunctionDefinition definition;
+
+        CallFrame(String function, Object call, FunctionDefinition definition) {
+            this.function = function;
+            this.call = call;
+            this.definition = definition;
+        }
+    }
+
+    /** Suma dos valores. */
+    public static Object add(Object a, Object b) {
+        if (a instanceof Integer && b instanceof Integer) {
+            long result = (long) (Integer) a + (Integer) b;
+            if (result == (int) result) {
+                return (int) result;
+            }
+        } else if (a instanceof Double && b instanceof Double) {
+            return (Double) a + (Double) b;
+        }
+        return LispEvaluator.add(Arrays.asList(a, b));
+    }
+
+    /** Resta dos valores. */
+    public static Object subtract(Object a, Object b) {
+        if (a instanceof Integer && b instanceof Integer) {
+            long result = (long) (Integer) a - (Integer) b;
+            if (result == (int) result) {
+                return (int) result;
+            }
+        } else if (a instanceof Double && b instanceof Double) {
+            return (Double) a - (Double) b;
+        }
+        return LispEvaluator.subtract(Arrays.asList(a, b));
+    }
+
+    /** Multiplica dos valores. */
+    public static Object multiply(Object a, Object b) {
+        if (a instanceof Integer && b instanceof Integer) {
+            long result = (long) (Integer) a * (Integer) b;
+            if (result == (int) result) {
+                return (int) result;
+            }
+        } else if (a instanceof Double && b instanceof Double) {
+            return (Double) a * (Double) b;
+        }
+        return LispEvaluator.multiply(Arrays.asList(a, b));
+    }
+
+    /** Suma cualquier número de valores (camino genérico). */
+    public static Object add(Object[] args) {
+        return LispEvaluator.add(Arrays.asList(args));
+    }
+
+    /** Resta cualquier número de valores (camino genérico). */
+    public static Object subtract(Object[] args) {
+        return LispEvaluator.subtract(Arrays.asList(args));
+    }
+
+    /** Multiplica cualquier número de valores (camino genérico). */
+    public static Object multiply(Object[] args) {
+        return LispEvaluator.multiply(Arrays.asList(args));
+    }
+
+    /** Divide valores (camino genérico). */
+    public static Object divide(Object[] args) {
+        return LispEvaluator.divide(Arrays.asList(args));
+    }
+
+    /** Compara con &lt; y devuelve un boolean de la JVM. */
+    public static boolean less(Object a, Object b) {
+        if (a instanceof Integer && b instanceof Integer) {
+            return (Integer) a < (Integer) b;
+        }
+        return "t".equals(LispEvaluator.lessThan(a, b));
+    }
+
+    /** Compara con &gt; y devuelve un boolean de la JVM. */
+    public static boolean greater(Object a, Object b) {
+        if (a instanceof Integer && b instanceof Integer) {
+            return (Integer) a > (Integer) b;
+        }
+        return "t".equals(LispEvaluator.greaterThan(a, b));
+    }
+
+    /** Igualdad de equal y =. */
+    public static boolean equal(Object a, Object b) {
+        return a.equals(b);
+    }
+
+    /** Veracidad de un valor LISP (todo menos nil). */
+    public static boolean isTrue(Object value) {
+        return !"nil".equals(value);
+    }
+
+    /** Convierte un boolean de la JVM en t o nil. */
+    public static Object truth(boolean value) {
+        return value ? "t" : "nil";
+    }
+}
@@ -0,0 +1,333 @@
+package lisp.interpreter;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lisp.environment.LispEnvironment;
+import lisp.environment.LispEnvironment.FunctionDefinition;
+
+/**
+ * Verificador estático de formas LISP.
+ * Comprueba la estructura de las formas especiales, el número de argumentos
+ * de los operadores predefinidos y de las funciones de usuario conocidas en
+ * el momento en que se lee una forma o se instala un defun. Las formas que
+ * pasan la verificación quedan marcadas para que el evaluador no repita
+ * esas comprobaciones en cada ejecución.
+ */
+public class LispChecker {
+
+    /** Número de argumentos de cada operador: {mínimo, máximo} (máximo -1 = sin límite) */
+    private static final Map<String, int[]> ARITIES = new HashMap<>();
+
+    static {
+        arity(0, -1, "+", "*", "list");
+        arity(1, -1, "-", "/");
+        arity(2, 2, "equal", "=", "<", ">");
+        arity(1, 1, "atom", "quote", "QUOTE", "quasiquote", "QUASIQUOTE", "delay", "DELAY", "force");
+        arity(2, 2, "lazy-cons", "LAZY-CONS");
+        arity(1, 1, "stream-car", "stream-cdr");
+        arity(2, 2, "stream-take", "stream-filter", "stream-map");
+        arity(1, 2, "range", "make-vector");
+        arity(2, 2, "vref", "v+", "v*", "vdot");
+        arity(3, 3, "vset");
+        arity(1, 1, "vlength", "vsum");
+        arity(2, 3, "vmap", "gethash");
+        arity(0, 0, "make-hash-table");
+        arity(3, 3, "puthash");
+        arity(2, 2, "remhash", "maphash");
+        arity(1, 1, "hash-count");
+        arity(2, 2, "setq", "SETQ");
+        arity(1, -1, "let", "LET", "let*", "LET*");
+        arity(1, -1, "dotimes", "DOTIMES", "dolist", "DOLIST", "while", "WHILE");
+        arity(2, -1, "do", "DO");
+        arity(1, -1, "catch", "CATCH");
+        arity(2, 2, "throw", "THROW");
+        arity(0, -1, "ignore-errors", "IGNORE-ERRORS");
+        arity(1, 2, "incf-atomic", "INCF-ATOMIC");
+        arity(3, 3, "compare-and-set", "COMPARE-AND-SET");
+        arity(3, 3, "defun", "DEFUN", "defmacro", "DEFMACRO");
+        arity(2, 2, "lambda", "LAMBDA");
+        arity(1, -1, "funcall");
+        arity(2, -1, "apply");
+        arity(2, 2, "mapcar", "filter", "remove-if-not", "some", "every");
+        arity(2, 3, "reduce");
+    }
+
+    private static void arity(int min, int max, String... names) {
+        for (String name : names) {
+            ARITIES.put(name, new int[] {min, max});
+        }
+    }
+
+    /**
+     * Verifica una forma y todas sus subformas.
+     *
+     * @param expr Forma a verificar
+     * @param env Entorno donde se evaluará (para conocer funciones y macros)
+     * @param sourceMap Posiciones de las formas, o null si no se conocen
+     * @throws LispException con línea y columna si la forma no es válida
+     */
+    public void check(Object expr, LispEnvironment env, LispSourceMap sourceMap) {
+        check(expr, env, sourceMap, expr, new HashMap<>());
+    }
+
+    /**
+     * @param located Forma más cercana con posición conocida (para los errores)
+     * @param pending Aridad de las funciones que se están definiendo
+     */
+    private void check(Object expr, LispEnvironment env, LispSourceMap sourceMap,
+                       Object located, Map<String, Integer> pending) {
+        if (!(expr instanceof List) || ((List<?>) expr).isEmpty()) {
+            return;
+        }
+
+        List<?> list = (List<?>) expr;
+        if (sourceMap != null && sourceMap.getLine(list) > 0) {
+            located = list;
+        }
+
+        if (!(list.get(0) instanceof String)) {
+            checkFrom(list, 0, env, sourceMap, located, pending);
+            return;
+        }
+
+        String operator = (String) list.get(0);
+        int args = list.size() - 1;
+        int[] arity = ARITIES.get(operator);
+
+        if (arity != null) {
+            if (args < arity[0] || (arity[1] >= 0 && args > arity[1])) {
+                throw error(operator + " requiere " + describe(arity) + ", pero recibió " + args,
+                            located, sourceMap);
+            }
+        }
+
+        switch (operator) {
+            case "quote":
+            case "QUOTE":
+            case "quasiquote":
+            case "QUASIQUOTE":
+                break;
+            case "setq":
+            case "SETQ":
+                if (!(list.get(1) instanceof String)) {
+                    throw error("el primer argumento de setq debe ser un símbolo", located, sourceMap);
+                }
+                env.markAssigned((String) list.get(1));
+                check(list.get(2), env, sourceMap, located, pending);
+                break;
+            case "incf-atomic":
+            case "INCF-ATOMIC":
+            case "compare-and-set":
+            case "COMPARE-AND-SET":
+                if (!(list.get(1) instanceof String)) {
+                    throw error("el primer argumento de " + operator + " debe ser un símbolo", located, sourceMap);
+                }
+                env.markAssigned((String) list.get(1));
+                checkFrom(list, 2, env, sourceMap, located, pending);
+                break;
+            case "defun":
+            case "DEFUN":
+            case "defmacro":
+            case "DEFMACRO":
+                checkDefinition(operator, list, env, sourceMap, located, pending);
+                break;
+            case "lambda":
+            case "LAMBDA":
+                checkLambda(list, env, sourceMap, located, pending);
+                break;
+            case "cond":
+            case "COND":
+                checkCond(list, env, sourceMap, located, pending);
+                break;
+            case "let":
+            case "LET":
+            case "let*":
+            case "LET*":
+                checkLet(operator, list, env, sourceMap, located, pending);
+                break;
+            case "dotimes":
+            case "DOTIMES":
+            case "dolist":
+            case "DOLIST":
+                checkIteration(operator, list, env, sourceMap, located, pending);
+                break;
+            case "do":
+            case "DO":
+                checkDo(list, env, sourceMap, located, pending);
+                break;
+            default:
+                if (arity == null && !checkCall(operator, list, env, sourceMap, located, pending)) {
+                    return;
+                }
+                checkFrom(list, 1, env, sourceMap, located, pending);
+                break;
+        }
+
+        if (list instanceof LispForm) {
+            ((LispForm) list).markValidated();
+        }
+    }
+
+    private void checkFrom(List<?> list, int start, LispEnvironment env, LispSourceMap sourceMap,
+                           Object located, Map<String, Integer> pending) {
+        for (int i = start; i < list.size(); i++) {
+            check(list.get(i), env, sourceMap, located, pending);
+        }
+    }
+
+    private void checkDefinition(String operator, List<?> list, LispEnvironment env, LispSourceMap sourceMap,
+                                 Object located, Map<String, Integer> pending) {
+        String kind = operator.toLowerCase();
+
+        if (!(list.get(1) instanceof String)) {
+            throw error("el nombre de " + kind + " debe ser un símbolo", located, sourceMap);
+        }
+        if (!(list.get(2) instanceof List)) {
+            throw error("los parámetros de " + kind + " deben ser una lista", located, sourceMap);
+        }
+
+        List<?> params = (List<?>) list.get(2);
+        for (Object param : params) {
+            if (!(param instanceof String)) {
+                throw error("los parámetros de " + kind + " deben ser símbolos", located, sourceMap);
+            }
+        }
+
+        // Las llamadas recursivas ya conocen la aridad de la función que se define
+        Map<String, Integer> inner = pending;
+        if (kind.equals("defun")) {
+            inner = new HashMap<>(pending);
+            inner.put((String) list.get(1), params.size());
+        }
+        check(list.get(3), env, sourceMap, located, inner);
+    }
+
+    private void checkLambda(List<?> list, LispEnvironment env, LispSourceMap sourceMap,
+                             Object located, Map<String, Integer> pending) {
+        if (!(list.get(1) instanceof List)) {
+            throw error("los parámetros de lambda deben ser una lista", located, sourceMap);
+        }
+        for (Object param : (List<?>) list.get(1)) {
+            if (!(param instanceof String)) {
+                throw error("los parámetros de lambda deben ser símbolos", located, sourceMap);
+            }
+        }
+        check(list.get(2), env, sourceMap, located, pending);
+    }
+
+    private void checkLet(String operator, List<?> list, LispEnvironment env, LispSourceMap sourceMap,
+                          Object located, Map<String, Integer> pending) {
+        if (!(list.get(1) instanceof List)) {
+            throw error(operator + " requiere una lista de variables", located, sourceMap);
+        }
+        for (Object binding : (List<?>) list.get(1)) {
+            if (LispEvaluator.letName(binding) == null) {
+                throw error("variable de " + operator + " mal formada: " + binding, located, sourceMap);
+            }
+            check(LispEvaluator.letInit(binding), env, sourceMap, located, pending);
+        }
+        checkFrom(list, 2, env, sourceMap, located, pending);
+    }
+
+    private void checkIteration(String operator, List<?> list, LispEnvironment env, LispSourceMap sourceMap,
+                                Object located, Map<String, Integer> pending) {
+        Object spec = list.get(1);
+        if (!(spec instanceof List) || ((List<?>) spec).size() < 2 || ((List<?>) spec).size() > 3
+                || !(((List<?>) spec).get(0) instanceof String)) {
+            throw error(operator + " requiere (variable valor [resultado])", located, sourceMap);
+        }
+        checkFrom((List<?>) spec, 1, env, sourceMap, located, pending);
+        checkFrom(list, 2, env, sourceMap, located, pending);
+    }
+
+    private void checkDo(List<?> list, LispEnvironment env, LispSourceMap sourceMap,
+                         Object located, Map<String, Integer> pending) {
+        if (!(list.get(1) instanceof List)) {
+            throw error("do requiere una lista de variables", located, sourceMap);
+        }
+        for (Object spec : (List<?>) list.get(1)) {
+            if (LispEvaluator.doVariable(spec) == null) {
+                throw error("variable de do mal formada: " + spec, located, sourceMap);
+            }
+            if (spec instanceof List) {
+                checkFrom((List<?>) spec, 1, env, sourceMap, located, pending);
+            }
+        }
+        if (!(list.get(2) instanceof List) || ((List<?>) list.get(2)).isEmpty()) {
+            throw error("la cláusula de fin de do debe ser (prueba resultado...)", located, sourceMap);
+        }
+        checkFrom((List<?>) list.get(2), 0, env, sourceMap, located, pending);
+        checkFrom(list, 3, env, sourceMap, located, pending);
+    }
+
+    private void checkCond(List<?> list, LispEnvironment env, LispSourceMap sourceMap,
+                           Object located, Map<String, Integer> pending) {
+        for (int i = 1; i < list.size(); i++) {
+            Object clause = list.get(i);
+            Object clauseLocated = sourceMap != null && sourceMap.getLine(clause) > 0 ? clause : located;
+
+            if (!(clause instanceof List)) {
+                throw error("cláusula de cond debe ser una lista", located, sourceMap);
+            }
+            if (((List<?>) clause).size() != 2) {
+                throw error("cláusula de cond debe tener exactamente dos elementos", clauseLocated, sourceMap);
+            }
+
+            checkFrom((List<?>) clause, 0, env, sourceMap, clauseLocated, pending);
+        }
+    }
+
+    /**
+     * Verifica una llamada a macro o función de usuario.
+     *
+     * @return true si los argumentos son código que también debe verificarse
+     */
+    private boolean checkCall(String name, List<?> list, LispEnvironment env, LispSourceMap sourceMap,
+                              Object located, Map<String, Integer> pending) {
+        int args = list.size() - 1;
+
+        // Los argumentos de una macro no se evalúan, solo se cuentan
+        FunctionDefinition macro = env.getMacro(name);
+        if (macro != null) {
+            List<String> params = macro.getParameters();
+            int rest = params.indexOf("&rest");
+            int required = rest >= 0 ? rest : params.size();
+            if (rest >= 0 ? args < required : args != required) {
+                throw error("la macro " + name + " espera " + required + " argumentos, pero recibió " + args,
+                            located, sourceMap);
+            }
+            return false;
+        }
+
+        Integer expected = pending.get(name);
+        if (expected == null && !env.hasLocalFunctions()) {
+            FunctionDefinition function = env.findFunction(name);
+            expected = function != null ? function.getParameters().size() : null;
+        }
+
+        if (expected != null && expected != args) {
+            throw error("la función " + name + " espera " + expected + " argumentos, pero recibió " + args,
+                        located, sourceMap);
+        }
+        return true;
+    }
+
+    private String describe(int[] arity) {
+        if (arity[0] == arity[1]) {
+            return arity[0] == 1 ? "exactamente un argumento" : "exactamente " + arity[0] + " argumentos";
+        }
+        if (arity[1] < 0) {
+            return "al menos " + arity[0] + (arity[0] == 1 ? " argumento" : " argumentos");
+        }
+        return "entre " + arity[0] + " y " + arity[1] + " argumentos";
+    }
+
+    private LispException error(String message, Object located, LispSourceMap sourceMap) {
+        if (sourceMap != null && sourceMap.getLine(located) > 0) {
+            return new LispException(message, sourceMap.getLine(located), sourceMap.getColumn(located));
+        }
+        return new LispException("Error: " + message);
+    }
+}
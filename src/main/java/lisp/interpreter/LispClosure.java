@@ -0,0 +1,97 @@
+package lisp.interpreter;
+
+import java.util.List;
+
+import lisp.environment.LispEnvironment.FunctionDefinition;
+
+/**
+ * Función anónima creada por lambda. Es un valor como cualquier otro: se
+ * puede guardar en variables y listas, pasar a otras funciones y llamar con
+ * funcall o apply.
+ *
+ * <p>La representación es plana: un puntero al código, que comparten todas
+ * las clausuras creadas en la misma forma lambda, y un arreglo con las
+ * variables libres del cuerpo que estaban ligadas en un marco local al
+ * crearla. Las que ninguna forma asigna se copian por valor; las que algún
+ * setq asigna se convierten en una celda compartida con el marco que las
+ * ligó, así que las asignaciones de uno las ve el otro y persisten entre
+ * llamadas. No guarda la cadena de entornos, así que no retiene marcos que
+ * no usa (y esos marcos pueden volver a la reserva de LispFrameArena). Las
+ * variables libres que no estaban ligadas localmente, como las globales,
+ * se buscan al ejecutar el cuerpo.</p>
+ */
+public final class LispClosure {
+
+    private final Code code;
+
+    /** Valores o celdas de code.getCapturedNames() (sin ligar si no había variable local) */
+    private final Object[] captured;
+
+    LispClosure(Code code, Object[] captured) {
+        this.code = code;
+        this.captured = captured;
+    }
+
+    Code getCode() {
+        return code;
+    }
+
+    Object[] getCaptured() {
+        return captured;
+    }
+
+    /**
+     * Obtiene el número de argumentos que espera la función.
+     *
+     * @return Número de parámetros
+     */
+    public int getArity() {
+        return code.arity;
+    }
+
+    @Override
+    public String toString() {
+        return "#<lambda (" + String.join(" ", code.parameters) + ")>";
+    }
+
+    /**
+     * Código de una forma lambda. Es una función de usuario cuyos parámetros
+     * son los de la lambda seguidos de las variables capturadas, así que una
+     * llamada liga los argumentos y los valores capturados en las ranuras del
+     * marco y pasa por el mismo camino (y la misma compilación de funciones
+     * calientes) que una función definida con defun.
+     */
+    static final class Code {
+        private final List<String> parameters;
+        private final int arity;
+        private final String[] capturedNames;
+
+        /** Cuáles de las variables capturadas asigna el propio cuerpo */
+        private final boolean[] assigned;
+        private final FunctionDefinition function;
+
+        Code(List<String> parameters, String[] capturedNames, boolean[] assigned, FunctionDefinition function) {
+            this.parameters = parameters;
+            this.arity = parameters.size();
+            this.capturedNames = capturedNames;
+            this.assigned = assigned;
+            this.function = function;
+        }
+
+        int getArity() {
+            return arity;
+        }
+
+        String[] getCapturedNames() {
+            return capturedNames;
+        }
+
+        boolean[] getAssigned() {
+            return assigned;
+        }
+
+        FunctionDefinition getFunction() {
+            return function;
+        }
+    }
+}
@@ -0,0 +1,524 @@
+package lisp.interpreter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import lisp.environment.LispEnvironment;
+import lisp.environment.LispEnvironment.GlobalCell;
+import lisp.interpreter.LispForm.CallTarget;
+
+/**
+ * Segundo nivel de ejecución para funciones calientes.
+ * Convierte el cuerpo de una función en un árbol de LispNode usando la
+ * retroalimentación de tipos que el intérprete registró en cada sitio
+ * aritmético y de comparación. Los sitios que solo vieron enteros (o solo
+ * decimales) obtienen un camino especializado protegido por una guarda;
+ * si la guarda falla, el nodo calcula el resultado con el camino genérico
+ * del evaluador, así que el resultado siempre es el mismo que el del
+ * intérprete.
+ */
+public class LispCompiler {
+
+    private final LispEvaluator evaluator;
+
+    /**
+     * Constructor del compilador.
+     *
+     * @param evaluator Evaluador al que se delegan las formas no compiladas
+     */
+    public LispCompiler(LispEvaluator evaluator) {
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * Compila el cuerpo de una función.
+     *
+     * @param body Cuerpo a compilar (el que ejecutaría el intérprete)
+     * @param bytecode Versión en bytecode del mismo cuerpo, o null si no hay
+     * @return Función compilada
+     */
+    public CompiledFunction compileFunction(Object body, LispBytecodeFunction bytecode) {
+        return new CompiledFunction(body, compile(body), bytecode);
+    }
+
+    /**
+     * Compila una expresión.
+     *
+     * @param expr Expresión a compilar
+     * @return Nodo que la ejecuta
+     */
+    public LispNode compile(Object expr) {
+        if (expr instanceof String) {
+            return new VariableNode((String) expr);
+        }
+
+        if (!(expr instanceof List) || ((List<?>) expr).isEmpty()) {
+            return env -> expr;
+        }
+
+        List<?> list = (List<?>) expr;
+        if (!(list.get(0) instanceof String)) {
+            return generic(list);
+        }
+
+        String operator = (String) list.get(0);
+        switch (operator) {
+            case "quote":
+            case "QUOTE":
+                if (list.size() == 2) {
+                    Object quoted = LispEvaluator.quoted(list);
+                    return env -> quoted;
+                }
+                return generic(list);
+            case "cond":
+            case "COND":
+                return compileCond(list);
+            case "let":
+            case "LET":
+                return compileLet(list, false);
+            case "let*":
+            case "LET*":
+                return compileLet(list, true);
+            case "dotimes":
+            case "DOTIMES":
+                return compileDotimes(list);
+            case "while":
+            case "WHILE":
+                return list.size() >= 2 ? compileWhile(list) : generic(list);
+            case "+":
+            case "-":
+            case "*":
+                return compileArithmetic(operator.charAt(0), list);
+            case "<":
+            case ">":
+                return list.size() == 3 ? compileComparison(operator.charAt(0), list) : generic(list);
+            case "=":
+            case "equal":
+                return list.size() == 3 ? compileEqual(list) : generic(list);
+            default:
+                break;
+        }
+
+        if (evaluator.isOperator(operator)) {
+            return generic(list);
+        }
+        return compileCall(operator, list);
+    }
+
+    /**
+     * Delega la forma completa al intérprete.
+     */
+    private LispNode generic(List<?> list) {
+        return env -> evaluator.evaluate(list, env);
+    }
+
+    private LispNode[] compileArguments(List<?> list) {
+        LispNode[] args = new LispNode[list.size() - 1];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = compile(list.get(i + 1));
+        }
+        return args;
+    }
+
+    private static Object[] execute(LispNode[] nodes, LispEnvironment env) {
+        Object[] values = new Object[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            values[i] = nodes[i].execute(env);
+        }
+        return values;
+    }
+
+    private LispNode compileCond(List<?> list) {
+        int count = list.size() - 1;
+        boolean[] always = new boolean[count];
+        LispNode[] tests = new LispNode[count];
+        LispNode[] results = new LispNode[count];
+
+        for (int i = 0; i < count; i++) {
+            Object clause = list.get(i + 1);
+            if (!(clause instanceof List) || ((List<?>) clause).size() != 2) {
+                return generic(list);
+            }
+            List<?> pair = (List<?>) clause;
+            always[i] = "t".equals(pair.get(0));
+            tests[i] = compile(pair.get(0));
+            results[i] = compile(pair.get(1));
+        }
+
+        return env -> {
+            for (int i = 0; i < count; i++) {
+                if (always[i] || !"nil".equals(tests[i].execute(env))) {
+                    return results[i].execute(env);
+                }
+            }
+            return "nil";
+        };
+    }
+
+    /**
+     * Compila let y let* con la misma semántica que el intérprete: ranuras
+     * del marco de la función si las tiene o un marco solo para el let, y
+     * restauración de los valores anteriores al salir.
+     */
+    private LispNode compileLet(List<?> list, boolean sequential) {
+        if (list.size() < 2 || !(list.get(1) instanceof List)) {
+            return generic(list);
+        }
+        List<?> bindings = (List<?>) list.get(1);
+        for (Object binding : bindings) {
+            if (LispEvaluator.letName(binding) == null) {
+                return generic(list);
+            }
+        }
+
+        String[] names = LispEvaluator.letNames(bindings);
+        LispNode[] inits = new LispNode[names.length];
+        for (int i = 0; i < inits.length; i++) {
+            inits[i] = compile(LispEvaluator.letInit(bindings.get(i)));
+        }
+        LispNode[] body = compileFrom(list, 2);
+
+        return env -> {
+            LispBindings locals = LispBindings.open(env, names);
+            LispEnvironment frame = locals.frame();
+            try {
+                if (sequential) {
+                    for (LispNode init : inits) {
+                        locals.bind(init.execute(frame));
+                    }
+                } else {
+                    for (Object value : execute(inits, env)) {
+                        locals.bind(value);
+                    }
+                }
+                return executeBody(body, frame);
+            } finally {
+                locals.close();
+            }
+        };
+    }
+
+    /**
+     * Compila dotimes a un bucle de Java sobre un contador int.
+     */
+    private LispNode compileDotimes(List<?> list) {
+        if (list.size() < 2 || !(list.get(1) instanceof List)) {
+            return generic(list);
+        }
+        List<?> spec = (List<?>) list.get(1);
+        if (spec.size() < 2 || spec.size() > 3 || !(spec.get(0) instanceof String)) {
+            return generic(list);
+        }
+
+        String[] names = {(String) spec.get(0)};
+        LispNode count = compile(spec.get(1));
+        LispNode result = spec.size() == 3 ? compile(spec.get(2)) : null;
+        LispNode[] body = compileFrom(list, 2);
+
+        return env -> {
+            Object times = count.execute(env);
+            if (!(times instanceof Integer)) {
+                throw new LispException("Error: dotimes requiere un número entero de repeticiones");
+            }
+            int n = (Integer) times;
+
+            LispBindings locals = LispBindings.open(env, names);
+            LispEnvironment frame = locals.frame();
+            long[] counter = evaluator.stepCounter();
+            try {
+                locals.bind(0);
+                for (int i = 0; i < n; i++) {
+                    evaluator.step(counter);
+                    locals.set(0, i);
+                    executeBody(body, frame);
+                }
+                locals.set(0, Math.max(n, 0));
+                return result != null ? result.execute(frame) : "nil";
+            } finally {
+                locals.close();
+            }
+        };
+    }
+
+    private LispNode compileWhile(List<?> list) {
+        LispNode test = compile(list.get(1));
+        LispNode[] body = compileFrom(list, 2);
+
+        return env -> {
+            long[] counter = evaluator.stepCounter();
+            while (!"nil".equals(test.execute(env))) {
+                evaluator.step(counter);
+                executeBody(body, env);
+            }
+            return "nil";
+        };
+    }
+
+    private LispNode[] compileFrom(List<?> list, int start) {
+        LispNode[] nodes = new LispNode[list.size() - start];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(list.get(i + start));
+        }
+        return nodes;
+    }
+
+    private static Object executeBody(LispNode[] body, LispEnvironment env) {
+        Object result = "nil";
+        for (LispNode node : body) {
+            result = node.execute(env);
+        }
+        return result;
+    }
+
+    /**
+     * Compila +, - o * según los tipos observados en el sitio. Los sitios
+     * con tipos mezclados (o sin perfil) usan directamente el camino genérico.
+     */
+    private LispNode compileArithmetic(char op, List<?> list) {
+        LispNode[] args = compileArguments(list);
+        int profile = profileOf(list);
+
+        if (args.length > 0 && profile == LispForm.TYPE_INT) {
+            return env -> {
+                Object[] values = execute(args, env);
+                Object result = intArithmetic(op, values);
+                return result != null ? result : genericArithmetic(op, values);
+            };
+        }
+
+        if (args.length > 0 && profile == LispForm.TYPE_DOUBLE) {
+            return env -> {
+                Object[] values = execute(args, env);
+                Object result = doubleArithmetic(op, values);
+                return result != null ? result : genericArithmetic(op, values);
+            };
+        }
+
+        return env -> genericArithmetic(op, execute(args, env));
+    }
+
+    /**
+     * Camino especializado para enteros: acumula en long y devuelve null si
+     * algún operando no es entero o el resultado no cabe en un int (en ese
+     * caso decide el camino genérico).
+     */
+    private static Object intArithmetic(char op, Object[] values) {
+        for (Object value : values) {
+            if (!(value instanceof Integer)) {
+                return null;
+            }
+        }
+
+        long result = (Integer) values[0];
+        if (op == '-' && values.length == 1) {
+            result = -result;
+        }
+        try {
+            for (int i = 1; i < values.length; i++) {
+                int value = (Integer) values[i];
+                switch (op) {
+                    case '+': result += value; break;
+                    case '-': result -= value; break;
+                    default: result = Math.multiplyExact(result, value); break;
+                }
+            }
+        } catch (ArithmeticException e) {
+            return null;
+        }
+
+        return result == (int) result ? (Object) (int) result : null;
+    }
+
+    /**
+     * Camino especializado para decimales: solo aplica si todos los
+     * operandos son Double.
+     */
+    private static Object doubleArithmetic(char op, Object[] values) {
+        for (Object value : values) {
+            if (!(value instanceof Double)) {
+                return null;
+            }
+        }
+
+        double result = (Double) values[0];
+        if (op == '-' && values.length == 1) {
+            return -result;
+        }
+        for (int i = 1; i < values.length; i++) {
+            double value = (Double) values[i];
+            switch (op) {
+                case '+': result += value; break;
+                case '-': result -= value; break;
+                default: result *= value; break;
+            }
+        }
+        return result;
+    }
+
+    private Object genericArithmetic(char op, Object[] values) {
+        List<Object> args = Arrays.asList(values);
+        switch (op) {
+            case '+': return LispEvaluator.add(args);
+            case '-': return LispEvaluator.subtract(args);
+            default: return LispEvaluator.multiply(args);
+        }
+    }
+
+    private LispNode compileComparison(char op, List<?> list) {
+        LispNode left = compile(list.get(1));
+        LispNode right = compile(list.get(2));
+
+        if (profileOf(list) == LispForm.TYPE_INT) {
+            return env -> {
+                Object a = left.execute(env);
+                Object b = right.execute(env);
+                if (a instanceof Integer && b instanceof Integer) {
+                    int x = (Integer) a;
+                    int y = (Integer) b;
+                    return (op == '<' ? x < y : x > y) ? "t" : "nil";
+                }
+                return op == '<' ? LispEvaluator.lessThan(a, b) : LispEvaluator.greaterThan(a, b);
+            };
+        }
+
+        return env -> {
+            Object a = left.execute(env);
+            Object b = right.execute(env);
+            return op == '<' ? LispEvaluator.lessThan(a, b) : LispEvaluator.greaterThan(a, b);
+        };
+    }
+
+    private LispNode compileEqual(List<?> list) {
+        LispNode left = compile(list.get(1));
+        LispNode right = compile(list.get(2));
+
+        if (profileOf(list) == LispForm.TYPE_INT) {
+            return env -> {
+                Object a = left.execute(env);
+                Object b = right.execute(env);
+                if (a instanceof Integer && b instanceof Integer) {
+                    return ((Integer) a).intValue() == ((Integer) b).intValue() ? "t" : "nil";
+                }
+                return a.equals(b) ? "t" : "nil";
+            };
+        }
+
+        return env -> left.execute(env).equals(right.execute(env)) ? "t" : "nil";
+    }
+
+    /**
+     * Compila una llamada a función de usuario. Se resuelve con el mismo
+     * caché de sitio de llamada que el intérprete, de modo que una macro
+     * definida después (o una redefinición) se respeta igual que allí.
+     */
+    private LispNode compileCall(String name, List<?> list) {
+        LispNode[] args = compileArguments(list);
+
+        return env -> {
+            CallTarget target = evaluator.resolveCall(name, list, env);
+            if (target.getExpansion() != null) {
+                return evaluator.evaluate(target.getExpansion(), env);
+            }
+
+            return evaluator.callUserFunction(name, list, target.getFunction(), toList(args, env), env);
+        };
+    }
+
+    private static List<Object> toList(LispNode[] args, LispEnvironment env) {
+        List<Object> values = new ArrayList<>(args.length);
+        for (LispNode arg : args) {
+            values.add(arg.execute(env));
+        }
+        return values;
+    }
+
+    private static int profileOf(List<?> list) {
+        return list instanceof LispForm ? ((LispForm) list).getTypeProfile() : 0;
+    }
+
+    /**
+     * Referencia a una variable. Si el nombre nunca se ligó en un marco
+     * local solo puede ser una variable global: la primera ejecución guarda
+     * su celda y las siguientes leen el valor directamente de ella. La celda
+     * deja de usarse si el nombre pasa a ligarse localmente o si el entorno
+     * global es otro (una copia de fork()).
+     */
+    private static final class VariableNode implements LispNode {
+        private final String name;
+
+        /** Celda de la variable global (null si todavía no se buscó) */
+        private volatile GlobalCell cell;
+
+        /** Versión del registro de nombres locales con la que se guardó la celda */
+        private volatile int version;
+
+        VariableNode(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object execute(LispEnvironment env) {
+            GlobalCell cached = cell;
+            if (cached != null && version == env.getLocalNamesVersion() && env.ownsCell(cached)) {
+                return cached.getValue();
+            }
+
+            int current = env.getLocalNamesVersion();
+            if (!env.isLocalName(name)) {
+                GlobalCell found = env.findGlobalCell(name);
+                if (found != null) {
+                    version = current;
+                    cell = found;
+                    return found.getValue();
+                }
+            }
+            return env.hasVariable(name) ? env.getVariable(name) : name;
+        }
+    }
+
+    /**
+     * Resultado de compilar una función: el nodo raíz, la versión en bytecode
+     * (si la función pudo traducirse) y el cuerpo del que proviene. Si el cuerpo ejecutable de la función cambia (por ejemplo,
+     * al desoptimizar una expansión en línea) el código compilado ya no
+     * corresponde y se descarta.
+     */
+    public static final class CompiledFunction {
+        private final Object source;
+        private final LispNode node;
+        private final LispBytecodeFunction bytecode;
+
+        private CompiledFunction(Object source, LispNode node, LispBytecodeFunction bytecode) {
+            this.source = source;
+            this.node = node;
+            this.bytecode = bytecode;
+        }
+
+        /**
+         * Obtiene el cuerpo a partir del cual se compiló.
+         *
+         * @return Cuerpo de origen
+         */
+        public Object getSource() {
+            return source;
+        }
+
+        /**
+         * Obtiene el nodo raíz del código compilado.
+         *
+         * @return Nodo raíz
+         */
+        public LispNode getNode() {
+            return node;
+        }
+
+        /**
+         * Obtiene la versión en bytecode de la función.
+         *
+         * @return Código generado, o null si la función no pudo traducirse
+         */
+        public LispBytecodeFunction getBytecode() {
+            return bytecode;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package lisp.interpreter;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Lista inmutable de un dato constante (citado). Guarda sus elementos en un
+ * arreglo del tamaño exacto y calcula el hash una sola vez al crearse: sus
+ * sublistas también son constantes, así que el hash no cambia nunca. Como
+ * nadie puede modificarla, quote la devuelve sin copiarla y el resultado se
+ * puede compartir entre hilos.
+ *
+ * <p>Las listas que entrega LispHashCons son canónicas: hay una sola
+ * instancia por contenido, y equals entre dos de ellas se resuelve por
+ * identidad sin recorrerlas.</p>
+ */
+public final class LispConstantList extends AbstractList<Object> implements RandomAccess {
+
+    /** Lista vacía constante */
+    private static final LispConstantList EMPTY = new LispConstantList(new Object[0]);
+
+    private final Object[] elements;
+    private final int hash;
+
+    /** Si es la instancia compartida por todas las listas iguales (ver LispHashCons) */
+    private boolean interned;
+
+    /**
+     * Crea una lista constante con los elementos dados (que deben ser
+     * átomos o listas inmutables).
+     */
+    LispConstantList(Object[] elements) {
+        this.elements = elements;
+        this.hash = hashOf(elements);
+    }
+
+    /**
+     * Obtiene una versión inmutable de un dato: cada lista (también las
+     * anidadas) se copia una vez a una LispConstantList, o a una
+     * LispNumberList si es numérica. Los átomos y las partes que ya son
+     * inmutables se comparten.
+     *
+     * @param datum Dato a congelar
+     * @return Dato inmutable
+     */
+    public static Object freeze(Object datum) {
+        if (!(datum instanceof List) || isFrozen(datum)) {
+            return datum;
+        }
+
+        List<?> list = (List<?>) datum;
+        if (list.isEmpty()) {
+            return EMPTY;
+        }
+
+        Object[] elements = new Object[list.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = freeze(list.get(i));
+        }
+        LispNumberList numbers = LispNumberList.of(Arrays.asList(elements));
+        return numbers != null ? numbers : new LispConstantList(elements);
+    }
+
+    /**
+     * Indica si un valor es una lista inmutable de un dato constante.
+     *
+     * @param value Valor a consultar
+     * @return true si es LispConstantList o LispNumberList
+     */
+    public static boolean isFrozen(Object value) {
+        return value instanceof LispConstantList || value instanceof LispNumberList;
+    }
+
+    private static int hashOf(Object[] elements) {
+        // Mismo hash que cualquier List con estos elementos
+        int h = 1;
+        for (Object element : elements) {
+            h = 31 * h + (element == null ? 0 : element.hashCode());
+        }
+        return h;
+    }
+
+    /**
+     * Marca la lista como la instancia canónica de la tabla de LispHashCons.
+     */
+    void markInterned() {
+        interned = true;
+    }
+
+    /**
+     * Indica si la lista es la instancia canónica de su contenido.
+     */
+    boolean isInterned() {
+        return interned;
+    }
+
+    @Override
+    public Object get(int index) {
+        return elements[index];
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        if (interned && LispHashCons.isInterned(other)) {
+            // Dos instancias canónicas distintas nunca son iguales
+            return false;
+        }
+        if (other instanceof LispConstantList && ((LispConstantList) other).hash != hash) {
+            return false;
+        }
+        return super.equals(other);
+    }
+}
@@ -1,17 +1,25 @@
 package lisp.interpreter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import lisp.environment.LispEnvironment;
 import lisp.environment.LispEnvironment.FunctionDefinition;
+import lisp.environment.LispEnvironment.GlobalCell;
+import lisp.environment.LispFrameArena;
+import lisp.interpreter.LispCompiler.CompiledFunction;
+import lisp.interpreter.LispForm.CallTarget;
 
 /**
  * Evaluador de expresiones LISP.
  * Evalúa expresiones aritméticas, operaciones lógicas y funciones definidas por el usuario.
- * También maneja formas especiales como quote, setq, defun y cond.
+ * También maneja formas especiales como quote, setq, defun, defmacro, cond y delay.
  * @author Fatima Navarro 24044
  */
 public class LispEvaluator {
@@ -23,6 +31,36 @@ public class LispEvaluator {
     
     private final Map<String, LispOperator> operators = new HashMap<>();
     
+    /** Pase de optimización que se aplica a los cuerpos de funciones y macros expandidas */
+    private final LispOptimizer optimizer = new LispOptimizer(this);
+    private final LispChecker checker = new LispChecker();
+    
+    /** Segundo nivel de ejecución para funciones calientes */
+    private final LispCompiler compiler = new LispCompiler(this);
+    
+    /** Invocaciones tras las que una función se compila (0 desactiva la compilación) */
+    private int hotThreshold = Integer.getInteger("lisp.tier.threshold", 1000);
+    
+    /** Traducción a bytecode de las funciones calientes numéricas */
+    private final LispBytecodeCompiler bytecodeCompiler = new LispBytecodeCompiler(this);
+    private boolean bytecodeEnabled = !"false".equals(System.getProperty("lisp.bytecode"));
+    
+    /** Iteraciones de bucle permitidas por evaluación (0 sin límite) */
+    private long stepBudget = Long.getLong("lisp.step.budget", 0);
+    
+    /** Conteo de ejecuciones por línea (null si no se perfila) */
+    private volatile LispLineProfile lineProfile;
+    
+    /** Posiciones de la expresión de nivel superior que se evalúa en cada hilo */
+    private final ThreadLocal<LispSourceMap> currentSource = new ThreadLocal<>();
+    
+    /** Marcos de llamada reutilizables de cada hilo (null si está desactivado) */
+    private final ThreadLocal<LispFrameArena> frames = "false".equals(System.getProperty("lisp.frame.arena"))
+        ? null : ThreadLocal.withInitial(LispFrameArena::new);
+    
+    /** Iteraciones usadas en cada hilo desde el último resetSteps */
+    private final ThreadLocal<long[]> steps = ThreadLocal.withInitial(() -> new long[1]);
+    
     /**
      * Constructor que inicializa el mapa de operadores usando hashmaps.
      */
@@ -32,10 +70,36 @@ public class LispEvaluator {
         operators.put("QUOTE", this::handleQuote); 
         operators.put("setq", this::handleSetq);
         operators.put("SETQ", this::handleSetq);
+        operators.put("incf-atomic", this::handleIncfAtomic);
+        operators.put("INCF-ATOMIC", this::handleIncfAtomic);
+        operators.put("compare-and-set", this::handleCompareAndSet);
+        operators.put("COMPARE-AND-SET", this::handleCompareAndSet);
         operators.put("defun", this::handleDefun);
         operators.put("DEFUN", this::handleDefun);  
         operators.put("cond", this::handleCond);
         operators.put("COND", this::handleCond);
+        operators.put("let", (list, env) -> handleLet(list, env, false));
+        operators.put("LET", (list, env) -> handleLet(list, env, false));
+        operators.put("let*", (list, env) -> handleLet(list, env, true));
+        operators.put("LET*", (list, env) -> handleLet(list, env, true));
+        operators.put("dotimes", this::handleDotimes);
+        operators.put("DOTIMES", this::handleDotimes);
+        operators.put("dolist", this::handleDolist);
+        operators.put("DOLIST", this::handleDolist);
+        operators.put("do", this::handleDo);
+        operators.put("DO", this::handleDo);
+        operators.put("while", this::handleWhile);
+        operators.put("WHILE", this::handleWhile);
+        operators.put("catch", this::handleCatch);
+        operators.put("CATCH", this::handleCatch);
+        operators.put("throw", this::handleThrow);
+        operators.put("THROW", this::handleThrow);
+        operators.put("ignore-errors", this::handleIgnoreErrors);
+        operators.put("IGNORE-ERRORS", this::handleIgnoreErrors);
+        operators.put("defmacro", this::handleDefmacro);
+        operators.put("DEFMACRO", this::handleDefmacro);
+        operators.put("quasiquote", this::handleQuasiquote);
+        operators.put("QUASIQUOTE", this::handleQuasiquote);
         // para la t y nil
         operators.put("t", (list, env) -> "t");
         operators.put("nil", (list, env) -> "nil");
@@ -55,7 +119,185 @@ public class LispEvaluator {
         operators.put(">", this::evaluateGreaterThan);
         operators.put("atom", this::evaluateAtom);
         operators.put("list", this::evaluateList);
+        
+        // Evaluación perezosa: promesas y flujos
+        operators.put("delay", this::handleDelay);
+        operators.put("DELAY", this::handleDelay);
+        operators.put("lazy-cons", this::handleLazyCons);
+        operators.put("LAZY-CONS", this::handleLazyCons);
+        operators.put("force", this::evaluateForce);
+        operators.put("stream-car", this::evaluateStreamCar);
+        operators.put("stream-cdr", this::evaluateStreamCdr);
+        operators.put("stream-take", this::evaluateStreamTake);
+        operators.put("stream-filter", this::evaluateStreamFilter);
+        operators.put("stream-map", this::evaluateStreamMap);
+        operators.put("range", this::evaluateRange);
+        
+        // Vectores numéricos nativos
+        operators.put("make-vector", this::evaluateMakeVector);
+        operators.put("vref", this::evaluateVref);
+        operators.put("vset", this::evaluateVset);
+        operators.put("vlength", this::evaluateVlength);
+        operators.put("v+", (list, env) -> evaluateVectorCombine(list, env, '+'));
+        operators.put("v*", (list, env) -> evaluateVectorCombine(list, env, '*'));
+        operators.put("vsum", this::evaluateVsum);
+        operators.put("vdot", this::evaluateVdot);
+        operators.put("vmap", this::evaluateVmap);
+        
+        // Tablas hash
+        operators.put("make-hash-table", this::evaluateMakeHashTable);
+        operators.put("gethash", this::evaluateGethash);
+        operators.put("puthash", this::evaluatePuthash);
+        operators.put("remhash", this::evaluateRemhash);
+        operators.put("hash-count", this::evaluateHashCount);
+        operators.put("maphash", this::evaluateMaphash);
+        
+        // Funciones como valores
+        operators.put("lambda", this::handleLambda);
+        operators.put("LAMBDA", this::handleLambda);
+        operators.put("funcall", this::evaluateFuncall);
+        operators.put("apply", this::evaluateApply);
+        
+        // Secuencias (las cadenas anidadas se ejecutan en una sola pasada)
+        for (String name : new String[] {"mapcar", "filter", "remove-if-not", "reduce", "some", "every"}) {
+            operators.put(name, (list, env) -> evaluateSequence(name, list, env));
+        }
+    }
+    /**
+     * Obtiene el optimizador usado por este evaluador.
+     * 
+     * @return El optimizador
+     */
+    public LispOptimizer getOptimizer() {
+        return optimizer;
+    }
+    
+    /**
+     * Cambia el número de invocaciones tras el cual una función se compila.
+     * 
+     * @param threshold Umbral de invocaciones; 0 mantiene todo en el intérprete
+     */
+    public void setHotThreshold(int threshold) {
+        this.hotThreshold = threshold;
+    }
+    
+    /**
+     * Activa o desactiva la traducción a bytecode de las funciones calientes.
+     * Desactivada, las funciones calientes solo usan el árbol de LispCompiler.
+     * 
+     * @param enabled true para generar bytecode
+     */
+    public void setBytecodeEnabled(boolean enabled) {
+        this.bytecodeEnabled = enabled;
+    }
+    
+    /**
+     * Limita el número de iteraciones de bucle (dotimes, dolist, do, while)
+     * que puede ejecutar una evaluación. Se verifica una vez por iteración.
+     * 
+     * @param budget Iteraciones permitidas; 0 quita el límite
+     */
+    public void setStepBudget(long budget) {
+        this.stepBudget = budget;
+    }
+    
+    /**
+     * Activa el conteo de ejecuciones por línea para las expresiones que se
+     * evalúen con sus posiciones. Mientras está activo las funciones
+     * calientes no se compilan.
+     * 
+     * @param profile Perfil donde contar, o null para desactivarlo
+     */
+    public void setLineProfile(LispLineProfile profile) {
+        this.lineProfile = profile;
+    }
+    
+    /**
+     * Obtiene el perfil de líneas activo.
+     * 
+     * @return Perfil activo o null
+     */
+    public LispLineProfile getLineProfile() {
+        return lineProfile;
+    }
+    
+    /**
+     * Reinicia las iteraciones usadas por el hilo actual. LispInterpreter lo
+     * llama antes de cada evaluación.
+     */
+    public void resetSteps() {
+        steps.get()[0] = 0;
+    }
+    
+    /**
+     * Contador de iteraciones del hilo actual, o null si no hay límite.
+     */
+    long[] stepCounter() {
+        return stepBudget > 0 ? steps.get() : null;
+    }
+    
+    /**
+     * Cuenta una iteración y falla si se agotó el límite.
+     */
+    void step(long[] counter) {
+        if (counter != null && ++counter[0] > stepBudget) {
+            throw new LispException("Error: se excedió el límite de " + stepBudget + " iteraciones");
+        }
+    }
+    
+    /**
+     * Indica si un nombre corresponde a un operador predefinido o forma
+     * especial (que tiene prioridad sobre las funciones de usuario).
+     * 
+     * @param name Nombre a verificar
+     * @return true si es un operador predefinido
+     */
+    boolean isOperator(String name) {
+        return operators.containsKey(name);
+    }
+    
+    /**
+     * Evalúa una expresión de nivel superior conociendo las posiciones de
+     * sus formas en el código fuente. Las funciones que defina las conservan
+     * para ubicar las llamadas de la traza LISP de los errores.
+     * 
+     * @param expr Expresión leída por el parser
+     * @param env Entorno de evaluación
+     * @param sourceMap Posiciones de las formas de la expresión
+     * @return Resultado de la evaluación
+     */
+    public Object evaluate(Object expr, LispEnvironment env, LispSourceMap sourceMap) {
+        LispSourceMap previous = currentSource.get();
+        currentSource.set(sourceMap);
+        LispLineProfile profile = lineProfile;
+        if (profile != null) {
+            profile.include(sourceMap);
+        }
+        try {
+            return evaluate(expr, env);
+        } catch (LispException e) {
+            e.locate(sourceMap);
+            throw e;
+        } finally {
+            currentSource.set(previous);
+            if (profile != null) {
+                // Formas que el optimizador reescribió durante la evaluación
+                profile.include(sourceMap);
+            }
+        }
+    }
+    
+    /**
+     * Registra para una forma reescrita (por el optimizador) la posición de
+     * la forma original, si se conoce.
+     */
+    void relocate(Object original, Object replacement) {
+        LispSourceMap sourceMap = currentSource.get();
+        if (sourceMap != null && sourceMap.getLine(original) > 0) {
+            sourceMap.record(replacement, sourceMap.getLine(original), sourceMap.getColumn(original));
+        }
     }
+    
     /**
      * Evalúa una expresión LISP en el entorno proporcionado.
      */
@@ -69,6 +311,12 @@ public class LispEvaluator {
         if (expr instanceof String) {
             String symbol = (String) expr;
             
+            // Un nombre que ningún marco ligó solo puede ser una variable global
+            if (!env.isLocalName(symbol)) {
+                GlobalCell cell = env.findGlobalCell(symbol);
+                return cell != null ? cell.getValue() : symbol;
+            }
+            
             // Verificar si es una variable
             if (env.hasVariable(symbol)) {
                 return env.getVariable(symbol);
@@ -91,6 +339,16 @@ public class LispEvaluator {
             return list;
         }
         
+        LispLineProfile profile = lineProfile;
+        if (profile != null) {
+            profile.hit(list);
+        }
+        
+        // ((lambda (x) ...) argumentos): llamada directa a la función anónima
+        if (list.get(0) instanceof List) {
+            return applyFunction(evaluate(list.get(0), env), evaluateArguments(list, env), env);
+        }
+        
         // Obtener el operador o nombre de función
         String operator = list.get(0).toString();
         
@@ -100,24 +358,42 @@ public class LispEvaluator {
             return op.apply(list, env);
         }
         
-        // Si no es un operador conocido, intentar como función de usuario
-        return applyUserFunction(operator, list, env);
+        // Si no es un operador conocido, es una llamada a macro o a función de usuario
+        return applyCall(operator, list, env);
     }
     
     private Object handleQuote(List<?> list, LispEnvironment env) {
-        if (list.size() != 2) {
+        if (!isValidated(list) && list.size() != 2) {
             throw new LispException("Error: quote requiere exactamente un argumento");
         }
-        return list.get(1);
+        return quoted(list);
     }
     
-    private Object handleSetq(List<?> list, LispEnvironment env) {
-        if (list.size() != 3) {
-            throw new LispException("Error: setq requiere exactamente dos argumentos");
+    /**
+     * Valor de una forma (quote dato). Los datos del programa son constantes
+     * inmutables: el parser ya los congela, y los que aparecen en formas
+     * creadas después (expansiones de macros) se congelan una vez y se
+     * guardan en la forma. Las listas internas que no son formas del
+     * programa (argumentos citados por applyFunction) devuelven el valor tal
+     * cual.
+     */
+    static Object quoted(List<?> list) {
+        Object datum = list.get(1);
+        if (datum instanceof List && list instanceof LispForm && !LispConstantList.isFrozen(datum)) {
+            return ((LispForm) list).getConstant();
         }
-        
-        if (!(list.get(1) instanceof String)) {
-            throw new LispException("Error: el primer argumento de setq debe ser un símbolo");
+        return datum;
+    }
+    
+    private Object handleSetq(List<?> list, LispEnvironment env) {
+        if (!isValidated(list)) {
+            if (list.size() != 3) {
+                throw new LispException("Error: setq requiere exactamente dos argumentos");
+            }
+            
+            if (!(list.get(1) instanceof String)) {
+                throw new LispException("Error: el primer argumento de setq debe ser un símbolo");
+            }
         }
         
         String variable = list.get(1).toString();
@@ -126,11 +402,65 @@ public class LispEvaluator {
         return env.setVariable(variable, value);
     }
     
+    /**
+     * (incf-atomic var [n]): suma n (1 por defecto) a una variable existente
+     * como una sola operación atómica, aunque otros hilos la modifiquen.
+     */
+    private Object handleIncfAtomic(List<?> list, LispEnvironment env) {
+        if (!isValidated(list)) {
+            if (list.size() != 2 && list.size() != 3) {
+                throw new LispException("Error: incf-atomic requiere una variable y un incremento opcional");
+            }
+            
+            if (!(list.get(1) instanceof String)) {
+                throw new LispException("Error: el primer argumento de incf-atomic debe ser un símbolo");
+            }
+        }
+        
+        String variable = (String) list.get(1);
+        Object delta = list.size() == 3 ? evaluate(list.get(2), env) : 1;
+        
+        if (!env.hasVariable(variable)) {
+            throw new LispException("Error: incf-atomic requiere una variable definida: " + variable);
+        }
+        return env.updateVariable(variable, value -> add(Arrays.asList(value, delta)));
+    }
+    
+    /**
+     * (compare-and-set var old new): asigna new a la variable solo si su
+     * valor actual es equal a old. Devuelve t si se asignó.
+     */
+    private Object handleCompareAndSet(List<?> list, LispEnvironment env) {
+        if (!isValidated(list)) {
+            if (list.size() != 4) {
+                throw new LispException("Error: compare-and-set requiere exactamente tres argumentos");
+            }
+            
+            if (!(list.get(1) instanceof String)) {
+                throw new LispException("Error: el primer argumento de compare-and-set debe ser un símbolo");
+            }
+        }
+        
+        String variable = (String) list.get(1);
+        Object expected = evaluate(list.get(2), env);
+        Object value = evaluate(list.get(3), env);
+        
+        if (!env.hasVariable(variable)) {
+            throw new LispException("Error: compare-and-set requiere una variable definida: " + variable);
+        }
+        return env.compareAndSetVariable(variable, expected, value) ? "t" : "nil";
+    }
+    
     private Object handleDefun(List<?> list, LispEnvironment env) {
         if (list.size() != 4) {
             throw new LispException("Error: defun requiere exactamente tres argumentos");
         }
         
+        // Las formas que no pasaron por el intérprete se verifican al definirse
+        if (!isValidated(list)) {
+            checker.check(list, env, null);
+        }
+        
         String functionName = list.get(1).toString();
         
         // Parámetros
@@ -145,13 +475,211 @@ public class LispEvaluator {
             params.add(param.toString());
         }
         
-        // Cuerpo de la función
-        Object body = list.get(3);
+        // Cuerpo de la función, optimizado una sola vez al definirla
+        Object body = optimizer.optimize(list.get(3), env);
+        
+        String result = env.defineFunction(functionName, params, body);
+        env.findFunction(functionName).setSourcePositions(currentSource.get());
+        bytecodeCompiler.redefined(env, functionName);
+        
+        // Versión del cuerpo con las funciones auxiliares expandidas en línea
+        Map<String, FunctionDefinition> dependencies = new HashMap<>();
+        Object inlinedBody = optimizer.inline(functionName, body, env, dependencies);
+        if (!dependencies.isEmpty()) {
+            env.findFunction(functionName).setInlinedBody(inlinedBody, dependencies, env.getGlobal());
+        }
+        
+        return result;
+    }
+    
+    private Object handleDefmacro(List<?> list, LispEnvironment env) {
+        if (list.size() != 4) {
+            throw new LispException("Error: defmacro requiere exactamente tres argumentos");
+        }
+        
+        String macroName = list.get(1).toString();
+        
+        if (!(list.get(2) instanceof List)) {
+            throw new LispException("Error: los parámetros de defmacro deben ser una lista");
+        }
+        
+        List<String> params = new ArrayList<>();
+        for (Object param : (List<?>) list.get(2)) {
+            params.add(param.toString());
+        }
+        
+        // Redefinir la macro cambia la versión e invalida las expansiones guardadas
+        return env.defineMacro(macroName, params, list.get(3));
+    }
+    
+    private Object handleQuasiquote(List<?> list, LispEnvironment env) {
+        if (list.size() != 2) {
+            throw new LispException("Error: quasiquote requiere exactamente un argumento");
+        }
+        return expandQuasiquote(list.get(1), env, 1);
+    }
+    
+    private Object expandQuasiquote(Object template, LispEnvironment env, int depth) {
+        if (!(template instanceof List) || ((List<?>) template).isEmpty()) {
+            return template;
+        }
+        
+        List<?> list = (List<?>) template;
+        Object head = list.get(0);
+        
+        if (list.size() == 2 && ("unquote".equals(head) || "unquote-splicing".equals(head))) {
+            if (depth == 1) {
+                if ("unquote-splicing".equals(head)) {
+                    throw new LispException("Error: ,@ solo puede usarse dentro de una lista");
+                }
+                return evaluate(list.get(1), env);
+            }
+            // Unquote de un quasiquote anidado: se conserva y se baja un nivel
+            return new ArrayList<>(List.of(head, expandQuasiquote(list.get(1), env, depth - 1)));
+        }
+        
+        if (list.size() == 2 && "quasiquote".equals(head)) {
+            return new ArrayList<>(List.of(head, expandQuasiquote(list.get(1), env, depth + 1)));
+        }
+        
+        List<Object> result = new ArrayList<>();
+        for (Object element : list) {
+            if (depth == 1 && element instanceof List && ((List<?>) element).size() == 2
+                    && "unquote-splicing".equals(((List<?>) element).get(0))) {
+                // ,@ inserta los elementos de la lista evaluada
+                Object spliced = evaluate(((List<?>) element).get(1), env);
+                if (spliced instanceof List) {
+                    result.addAll((List<?>) spliced);
+                } else if (!"nil".equals(spliced)) {
+                    throw new LispException("Error: ,@ requiere una lista");
+                }
+            } else {
+                result.add(expandQuasiquote(element, env, depth));
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Aplica una macro o función de usuario. El destino de la llamada se
+     * guarda en la forma del sitio de llamada, así que mientras no cambien
+     * las definiciones una llamada solo compara la versión e invoca
+     * directamente la función (o evalúa la expansión de la macro).
+     */
+    private Object applyCall(String name, List<?> list, LispEnvironment env) {
+        CallTarget target = resolveCall(name, list, env);
+        
+        if (target.getExpansion() != null) {
+            return evaluate(target.getExpansion(), env);
+        }
+        
+        return callUserFunction(name, list, target.getFunction(), evaluateArguments(list, env), env);
+    }
+    
+    /**
+     * Llama a una función de usuario desde una forma de llamada. Si el error
+     * ocurre dentro de la función, la llamada se agrega a la traza LISP.
+     * 
+     * @param function Función ya resuelta por el sitio de llamada, o null para buscarla
+     */
+    Object callUserFunction(String name, List<?> call, FunctionDefinition function,
+                            List<Object> args, LispEnvironment env) {
+        if (function == null) {
+            function = lookupFunction(name, env);
+            checkArity(name, function, args);
+        }
+        
+        try {
+            return bindAndEvaluate(name, function, args, env);
+        } catch (LispException e) {
+            e.addFrame(name, call, (LispSourceMap) function.getSourcePositions());
+            throw e;
+        }
+    }
+    
+    /**
+     * Obtiene el destino de un sitio de llamada, usando el guardado en la
+     * forma mientras siga vigente.
+     */
+    CallTarget resolveCall(String name, List<?> list, LispEnvironment env) {
+        LispEnvironment global = env.getGlobal();
+        int version = global.getDefinitionVersion();
+        LispForm form = list instanceof LispForm ? (LispForm) list : null;
+        
+        CallTarget target = form != null ? form.getCallTarget(global, version) : null;
+        if (target == null) {
+            target = resolveCallTarget(name, list, env, global, version);
+            if (form != null) {
+                form.setCallTarget(target);
+            }
+        }
+        return target;
+    }
+    
+    private CallTarget resolveCallTarget(String name, List<?> list, LispEnvironment env,
+                                         LispEnvironment global, int version) {
+        FunctionDefinition macro = env.getMacro(name);
+        if (macro != null) {
+            Object expansion = LispForm.copyOf(expandMacro(name, macro, list, env));
+            checker.check(expansion, env, null);
+            expansion = optimizer.optimize(expansion, env);
+            return CallTarget.forMacro(expansion, global, version);
+        }
+        
+        // Con funciones locales el destino depende del entorno: se busca en cada llamada.
+        // Solo se guarda una función cuyo número de parámetros coincide con el
+        // sitio, así las llamadas desde el destino guardado no revisan la aridad.
+        FunctionDefinition function = global.hasLocalFunctions() ? null : lookupFunction(name, env);
+        if (function != null && function.getParameters().size() != list.size() - 1) {
+            function = null;
+        }
+        return CallTarget.forFunction(function, global, version);
+    }
+    
+    FunctionDefinition lookupFunction(String name, LispEnvironment env) {
+        FunctionDefinition function = env.findFunction(name);
+        if (function == null) {
+            throw new LispException("Error: función no definida: " + name);
+        }
+        return function;
+    }
+    
+    private Object expandMacro(String name, FunctionDefinition macro, List<?> list, LispEnvironment env) {
+        List<String> params = macro.getParameters();
+        LispEnvironment macroEnv = new LispEnvironment(env);
+        
+        // Los argumentos de una macro no se evalúan; &rest agrupa los sobrantes
+        int restIndex = params.indexOf("&rest");
+        int required = restIndex >= 0 ? restIndex : params.size();
+        int given = list.size() - 1;
+        
+        if (restIndex >= 0 ? given < required : given != required) {
+            throw new LispException("Error: la macro " + name + 
+                                   " espera " + required + " argumentos, pero recibió " + given);
+        }
+        
+        for (int i = 0; i < required; i++) {
+            macroEnv.setVariable(params.get(i), list.get(i + 1));
+        }
+        if (restIndex >= 0 && restIndex + 1 < params.size()) {
+            macroEnv.setVariable(params.get(restIndex + 1), new ArrayList<Object>(list.subList(required + 1, list.size())));
+        }
         
-        return env.defineFunction(functionName, params, body);
+        return evaluate(macro.getBody(), macroEnv);
     }
     
     private Object handleCond(List<?> list, LispEnvironment env) {
+        if (isValidated(list)) {
+            for (int i = 1; i < list.size(); i++) {
+                List<?> clause = (List<?>) list.get(i);
+                Object condition = clause.get(0);
+                if (condition.equals("t") || isTrue(evaluate(condition, env))) {
+                    return evaluate(clause.get(1), env);
+                }
+            }
+            return "nil";
+        }
+        
         for (int i = 1; i < list.size(); i++) {
             if (!(list.get(i) instanceof List)) {
                 throw new LispException("Error: cláusula de cond debe ser una lista");
@@ -176,57 +704,463 @@ public class LispEvaluator {
         return "nil";
     }
     
-    private Object evaluateAdd(List<?> list, LispEnvironment env) {
-        List<Object> args = evaluateArguments(list, env);
-        
-        if (args.isEmpty()) return 0;
+    /**
+     * (let ((var valor) ...) cuerpo...) y let*. Las variables se guardan en
+     * ranuras del marco de la función cuando este las reservó; si no (por
+     * ejemplo en el nivel superior) se crea un marco que solo tiene esas
+     * ranuras. Como el alcance es dinámico, las funciones llamadas desde el
+     * cuerpo ven las variables, y al salir del let (también por un error)
+     * cada ranura recupera su valor anterior.
+     * 
+     * @param sequential true para let*, donde cada valor ve las variables anteriores
+     */
+    private Object handleLet(List<?> list, LispEnvironment env, boolean sequential) {
+        String operator = sequential ? "let*" : "let";
+        if (!isValidated(list)) {
+            if (list.size() < 2 || !(list.get(1) instanceof List)) {
+                throw new LispException("Error: " + operator + " requiere una lista de variables");
+            }
+            for (Object binding : (List<?>) list.get(1)) {
+                if (letName(binding) == null) {
+                    throw new LispException("Error: variable de " + operator + " mal formada: " + binding);
+                }
+            }
+        }
         
-        double result = 0;
-        boolean allIntegers = true;
+        List<?> bindings = (List<?>) list.get(1);
+        String[] names = letNames(bindings);
+        LispBindings locals = LispBindings.open(env, names);
+        LispEnvironment frame = locals.frame();
         
-        for (Object arg : args) {
-            if (!(arg instanceof Number)) {
-                throw new LispException("Error: + requiere argumentos numéricos");
+        try {
+            if (sequential) {
+                for (Object binding : bindings) {
+                    locals.bind(evaluate(letInit(binding), frame));
+                }
+            } else {
+                Object[] values = new Object[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    values[i] = evaluate(letInit(bindings.get(i)), env);
+                }
+                for (Object value : values) {
+                    locals.bind(value);
+                }
             }
             
-            Number num = (Number) arg;
-            result += num.doubleValue();
-            
-            // Si algún operando es double, el resultado también lo será
-            if (num instanceof Double || num instanceof Float) {
-                allIntegers = false;
-            }
+            return evaluateBody(list, 2, frame);
+        } finally {
+            locals.close();
+        }
+    }
+    
+    /**
+     * (dotimes (var n [resultado]) cuerpo...): repite el cuerpo con var de 0
+     * a n-1 en un bucle de Java, sin llamadas ni marcos por iteración.
+     */
+    private Object handleDotimes(List<?> list, LispEnvironment env) {
+        if (!isValidated(list)) {
+            checkIterationSpec(list, "dotimes");
         }
         
-        // Retorna int o double según corresponda
-        if (allIntegers && result == Math.floor(result) && !Double.isInfinite(result)) {
-            return (int) result;
-        } else {
-            return result;
+        List<?> spec = (List<?>) list.get(1);
+        Object count = evaluate(spec.get(1), env);
+        if (!(count instanceof Integer)) {
+            throw new LispException("Error: dotimes requiere un número entero de repeticiones");
+        }
+        int times = (Integer) count;
+        
+        LispBindings locals = LispBindings.open(env, new String[] {(String) spec.get(0)});
+        LispEnvironment frame = locals.frame();
+        long[] counter = stepCounter();
+        try {
+            locals.bind(0);
+            for (int i = 0; i < times; i++) {
+                step(counter);
+                locals.set(0, i);
+                evaluateBody(list, 2, frame);
+            }
+            locals.set(0, Math.max(times, 0));
+            return spec.size() == 3 ? evaluate(spec.get(2), frame) : "nil";
+        } finally {
+            locals.close();
         }
     }
     
-    private Object evaluateSubtract(List<?> list, LispEnvironment env) {
-        List<Object> args = evaluateArguments(list, env);
+    /**
+     * (dolist (var lista [resultado]) cuerpo...): ejecuta el cuerpo con var
+     * ligada a cada elemento de la lista.
+     */
+    private Object handleDolist(List<?> list, LispEnvironment env) {
+        if (!isValidated(list)) {
+            checkIterationSpec(list, "dolist");
+        }
         
-        if (args.isEmpty()) {
-            throw new LispException("Error: - requiere al menos un argumento");
+        List<?> spec = (List<?>) list.get(1);
+        Object elements = evaluate(spec.get(1), env);
+        if ("nil".equals(elements)) {
+            elements = List.of();
+        } else if (!(elements instanceof List)) {
+            throw new LispException("Error: dolist requiere una lista");
         }
         
-        if (!(args.get(0) instanceof Number)) {
-            throw new LispException("Error: - requiere argumentos numéricos");
+        LispBindings locals = LispBindings.open(env, new String[] {(String) spec.get(0)});
+        LispEnvironment frame = locals.frame();
+        long[] counter = stepCounter();
+        try {
+            locals.bind("nil");
+            for (Object element : (List<?>) elements) {
+                step(counter);
+                locals.set(0, element);
+                evaluateBody(list, 2, frame);
+            }
+            locals.set(0, "nil");
+            return spec.size() == 3 ? evaluate(spec.get(2), frame) : "nil";
+        } finally {
+            locals.close();
+        }
+    }
+    
+    private void checkIterationSpec(List<?> list, String operator) {
+        if (list.size() < 2 || !(list.get(1) instanceof List)) {
+            throw new LispException("Error: " + operator + " requiere (variable valor [resultado])");
+        }
+        List<?> spec = (List<?>) list.get(1);
+        if (spec.size() < 2 || spec.size() > 3 || !(spec.get(0) instanceof String)) {
+            throw new LispException("Error: " + operator + " requiere (variable valor [resultado])");
+        }
+    }
+    
+    /**
+     * (do ((var inicio [paso]) ...) (prueba resultado...) cuerpo...): las
+     * variables se ligan y avanzan en paralelo; el bucle termina cuando la
+     * prueba es verdadera y devuelve el último resultado.
+     */
+    private Object handleDo(List<?> list, LispEnvironment env) {
+        if (!isValidated(list)) {
+            if (list.size() < 3 || !(list.get(1) instanceof List)) {
+                throw new LispException("Error: do requiere una lista de variables y una cláusula de fin");
+            }
+            for (Object spec : (List<?>) list.get(1)) {
+                if (doVariable(spec) == null) {
+                    throw new LispException("Error: variable de do mal formada: " + spec);
+                }
+            }
+            if (!(list.get(2) instanceof List) || ((List<?>) list.get(2)).isEmpty()) {
+                throw new LispException("Error: la cláusula de fin de do debe ser (prueba resultado...)");
+            }
         }
         
-        Number firstArg = (Number) args.get(0);
-        double result = firstArg.doubleValue();
-        boolean isInteger = firstArg instanceof Integer || firstArg instanceof Long;
+        List<?> specs = (List<?>) list.get(1);
+        List<?> end = (List<?>) list.get(2);
+        String[] names = new String[specs.size()];
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = doVariable(specs.get(i));
+            values[i] = evaluate(doInit(specs.get(i)), env);
+        }
         
-        // Si solo hay un argumento, negar
-        if (args.size() == 1) {
-            if (isInteger) {
-                return -firstArg.intValue();
-            } else {
-                return -result;
+        LispBindings locals = LispBindings.open(env, names);
+        LispEnvironment frame = locals.frame();
+        long[] counter = stepCounter();
+        try {
+            for (Object value : values) {
+                locals.bind(value);
+            }
+            
+            while (!isTrue(evaluate(end.get(0), frame))) {
+                step(counter);
+                evaluateBody(list, 3, frame);
+                
+                for (int i = 0; i < names.length; i++) {
+                    Object next = doStep(specs.get(i));
+                    values[i] = next != null ? evaluate(next, frame) : null;
+                }
+                for (int i = 0; i < names.length; i++) {
+                    if (doStep(specs.get(i)) != null) {
+                        locals.set(i, values[i]);
+                    }
+                }
+            }
+            return evaluateBody(end, 1, frame);
+        } finally {
+            locals.close();
+        }
+    }
+    
+    /**
+     * Nombre de la variable de un elemento de do: símbolo o (símbolo [inicio [paso]]).
+     */
+    static String doVariable(Object spec) {
+        if (spec instanceof String) {
+            return (String) spec;
+        }
+        if (spec instanceof List) {
+            List<?> parts = (List<?>) spec;
+            if (!parts.isEmpty() && parts.size() <= 3 && parts.get(0) instanceof String) {
+                return (String) parts.get(0);
+            }
+        }
+        return null;
+    }
+    
+    private static Object doInit(Object spec) {
+        return spec instanceof List && ((List<?>) spec).size() >= 2 ? ((List<?>) spec).get(1) : "nil";
+    }
+    
+    private static Object doStep(Object spec) {
+        return spec instanceof List && ((List<?>) spec).size() == 3 ? ((List<?>) spec).get(2) : null;
+    }
+    
+    /**
+     * (while prueba cuerpo...): repite el cuerpo mientras la prueba sea
+     * verdadera. Devuelve nil.
+     */
+    private Object handleWhile(List<?> list, LispEnvironment env) {
+        if (!isValidated(list) && list.size() < 2) {
+            throw new LispException("Error: while requiere una condición");
+        }
+        
+        long[] counter = stepCounter();
+        while (isTrue(evaluate(list.get(1), env))) {
+            step(counter);
+            evaluateBody(list, 2, env);
+        }
+        return "nil";
+    }
+    
+    /**
+     * (catch etiqueta cuerpo...): evalúa el cuerpo; si dentro se ejecuta un
+     * throw con una etiqueta igual, devuelve su valor.
+     */
+    private Object handleCatch(List<?> list, LispEnvironment env) {
+        if (!isValidated(list) && list.size() < 2) {
+            throw new LispException("Error: catch requiere una etiqueta");
+        }
+        
+        Object tag = evaluate(list.get(1), env);
+        try {
+            return evaluateBody(list, 2, env);
+        } catch (LispThrow signal) {
+            if (!tag.equals(signal.getTag())) {
+                throw signal;
+            }
+            return signal.getValue();
+        }
+    }
+    
+    /**
+     * (throw etiqueta valor): sale hasta el catch más cercano con esa etiqueta.
+     */
+    private Object handleThrow(List<?> list, LispEnvironment env) {
+        if (!isValidated(list) && list.size() != 3) {
+            throw new LispException("Error: throw requiere exactamente dos argumentos");
+        }
+        
+        Object tag = evaluate(list.get(1), env);
+        Object value = evaluate(list.get(2), env);
+        throw LispThrow.of(tag, value);
+    }
+    
+    /**
+     * (ignore-errors cuerpo...): devuelve el valor del cuerpo, o nil si
+     * ocurre un error. No intercepta throw.
+     */
+    private Object handleIgnoreErrors(List<?> list, LispEnvironment env) {
+        try {
+            return evaluateBody(list, 1, env);
+        } catch (LispThrow signal) {
+            throw signal;
+        } catch (RuntimeException e) {
+            return "nil";
+        }
+    }
+    
+    /**
+     * Evalúa las formas desde start y devuelve el valor de la última (nil si no hay).
+     */
+    private Object evaluateBody(List<?> list, int start, LispEnvironment env) {
+        Object result = "nil";
+        for (int i = start; i < list.size(); i++) {
+            result = evaluate(list.get(i), env);
+        }
+        return result;
+    }
+    
+    /**
+     * Nombre de la variable de un elemento de let: símbolo, (símbolo) o
+     * (símbolo valor). Devuelve null si el elemento está mal formado.
+     */
+    static String letName(Object binding) {
+        if (binding instanceof String) {
+            return (String) binding;
+        }
+        if (binding instanceof List) {
+            List<?> pair = (List<?>) binding;
+            if ((pair.size() == 1 || pair.size() == 2) && pair.get(0) instanceof String) {
+                return (String) pair.get(0);
+            }
+        }
+        return null;
+    }
+    
+    /** Expresión inicial de un elemento de let (nil si no tiene). */
+    static Object letInit(Object binding) {
+        if (binding instanceof List && ((List<?>) binding).size() == 2) {
+            return ((List<?>) binding).get(1);
+        }
+        return "nil";
+    }
+    
+    /** Nombres de las variables de una lista de let ya verificada. */
+    static String[] letNames(List<?> bindings) {
+        String[] names = new String[bindings.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = letName(bindings.get(i));
+        }
+        return names;
+    }
+    
+    /**
+     * Calcula las ranuras del marco de llamada de una función: sus
+     * parámetros y las variables de los let y bucles de su cuerpo.
+     */
+    private static String[] frameLayout(FunctionDefinition function) {
+        List<String> names = new ArrayList<>(function.getParameters());
+        collectLocalNames(function.getBody(), names);
+        return names.toArray(new String[0]);
+    }
+    
+    private static void collectLocalNames(Object expr, List<String> names) {
+        if (!(expr instanceof List) || ((List<?>) expr).isEmpty()) {
+            return;
+        }
+        
+        List<?> list = (List<?>) expr;
+        Object head = list.get(0);
+        switch (String.valueOf(head)) {
+            // Datos sin evaluar o cuerpos con su propio marco
+            case "quote":
+            case "QUOTE":
+            case "quasiquote":
+            case "QUASIQUOTE":
+            case "defun":
+            case "DEFUN":
+            case "defmacro":
+            case "DEFMACRO":
+            case "lambda":
+            case "LAMBDA":
+                return;
+            case "let":
+            case "LET":
+            case "let*":
+            case "LET*":
+                if (list.size() >= 2 && list.get(1) instanceof List) {
+                    for (Object binding : (List<?>) list.get(1)) {
+                        addLocalName(letName(binding), names);
+                    }
+                }
+                break;
+            case "do":
+            case "DO":
+                if (list.size() >= 2 && list.get(1) instanceof List) {
+                    for (Object spec : (List<?>) list.get(1)) {
+                        addLocalName(doVariable(spec), names);
+                    }
+                }
+                break;
+            case "dotimes":
+            case "DOTIMES":
+            case "dolist":
+            case "DOLIST":
+                if (list.size() >= 2 && list.get(1) instanceof List && !((List<?>) list.get(1)).isEmpty()) {
+                    Object variable = ((List<?>) list.get(1)).get(0);
+                    addLocalName(variable instanceof String ? (String) variable : null, names);
+                }
+                break;
+            default:
+                break;
+        }
+        
+        for (Object element : list) {
+            collectLocalNames(element, names);
+        }
+    }
+    
+    private static void addLocalName(String name, List<String> names) {
+        if (name != null && !names.contains(name)) {
+            names.add(name);
+        }
+    }
+    
+    private Object evaluateAdd(List<?> list, LispEnvironment env) {
+        List<Object> args = evaluateArguments(list, env);
+        recordTypes(list, args);
+        return add(args);
+    }
+    
+    /**
+     * Suma valores ya evaluados. Es el camino genérico que también usa el
+     * código especializado cuando falla una de sus guardas.
+     */
+    static Object add(List<Object> args) {
+        
+        if (args.isEmpty()) return 0;
+        
+        double result = 0;
+        boolean allIntegers = true;
+        
+        for (Object arg : args) {
+            if (!(arg instanceof Number)) {
+                throw new LispException("Error: + requiere argumentos numéricos");
+            }
+            
+            Number num = (Number) arg;
+            result += num.doubleValue();
+            
+            // Si algún operando es double, el resultado también lo será
+            if (num instanceof Double || num instanceof Float) {
+                allIntegers = false;
+            }
+        }
+        
+        // Retorna int o double según corresponda
+        if (allIntegers && result == Math.floor(result) && !Double.isInfinite(result)) {
+            return (int) result;
+        } else {
+            return result;
+        }
+    }
+    
+    private Object evaluateSubtract(List<?> list, LispEnvironment env) {
+        List<Object> args = evaluateArguments(list, env);
+        recordTypes(list, args);
+        return subtract(args);
+    }
+    
+    /**
+     * Resta valores ya evaluados. Es el camino genérico que también usa el
+     * código especializado cuando falla una de sus guardas.
+     */
+    static Object subtract(List<Object> args) {
+        
+        if (args.isEmpty()) {
+            throw new LispException("Error: - requiere al menos un argumento");
+        }
+        
+        if (!(args.get(0) instanceof Number)) {
+            throw new LispException("Error: - requiere argumentos numéricos");
+        }
+        
+        Number firstArg = (Number) args.get(0);
+        double result = firstArg.doubleValue();
+        boolean isInteger = firstArg instanceof Integer || firstArg instanceof Long;
+        
+        // Si solo hay un argumento, negar
+        if (args.size() == 1) {
+            if (isInteger) {
+                return -firstArg.intValue();
+            } else {
+                return -result;
             }
         }
         
@@ -255,6 +1189,15 @@ public class LispEvaluator {
     
     private Object evaluateMultiply(List<?> list, LispEnvironment env) {
         List<Object> args = evaluateArguments(list, env);
+        recordTypes(list, args);
+        return multiply(args);
+    }
+    
+    /**
+     * Multiplica valores ya evaluados. Es el camino genérico que también usa el
+     * código especializado cuando falla una de sus guardas.
+     */
+    static Object multiply(List<Object> args) {
         
         if (args.isEmpty()) return 1;
         
@@ -285,6 +1228,15 @@ public class LispEvaluator {
     
     private Object evaluateDivide(List<?> list, LispEnvironment env) {
         List<Object> args = evaluateArguments(list, env);
+        recordTypes(list, args);
+        return divide(args);
+    }
+    
+    /**
+     * Divide valores ya evaluados. Es el camino genérico que también usa el
+     * código especializado cuando falla una de sus guardas.
+     */
+    static Object divide(List<Object> args) {
         
         if (args.isEmpty()) {
             throw new LispException("Error: / requiere al menos un argumento");
@@ -299,6 +1251,9 @@ public class LispEvaluator {
         
         // Si solo hay un argumento, invertir
         if (args.size() == 1) {
+            if (result == 0) {
+                throw new LispException("Error: división por cero");
+            }
             return 1.0 / result;
         }
         
@@ -327,24 +1282,32 @@ public class LispEvaluator {
     }
     
     private Object evaluateEqual(List<?> list, LispEnvironment env) {
-        if (list.size() != 3) {
+        if (!isValidated(list) && list.size() != 3) {
             throw new LispException("Error: equal requiere exactamente dos argumentos");
         }
         
         Object arg1 = evaluate(list.get(1), env);
         Object arg2 = evaluate(list.get(2), env);
+        recordTypes(list, arg1, arg2);
         
         return arg1.equals(arg2) ? "t" : "nil";
     }
     
     private Object evaluateLessThan(List<?> list, LispEnvironment env) {
-        if (list.size() != 3) {
+        if (!isValidated(list) && list.size() != 3) {
             throw new LispException("Error: < requiere exactamente dos argumentos");
         }
         
         Object arg1 = evaluate(list.get(1), env);
         Object arg2 = evaluate(list.get(2), env);
-        
+        recordTypes(list, arg1, arg2);
+        return lessThan(arg1, arg2);
+    }
+    
+    /**
+     * Compara dos valores ya evaluados con < (camino genérico).
+     */
+    static Object lessThan(Object arg1, Object arg2) {
         if (!(arg1 instanceof Number) || !(arg2 instanceof Number)) {
             throw new LispException("Error: < requiere argumentos numéricos");
         }
@@ -356,13 +1319,20 @@ public class LispEvaluator {
     }
     
     private Object evaluateGreaterThan(List<?> list, LispEnvironment env) {
-        if (list.size() != 3) {
+        if (!isValidated(list) && list.size() != 3) {
             throw new LispException("Error: > requiere exactamente dos argumentos");
         }
         
         Object arg1 = evaluate(list.get(1), env);
         Object arg2 = evaluate(list.get(2), env);
-        
+        recordTypes(list, arg1, arg2);
+        return greaterThan(arg1, arg2);
+    }
+    
+    /**
+     * Compara dos valores ya evaluados con > (camino genérico).
+     */
+    static Object greaterThan(Object arg1, Object arg2) {
         if (!(arg1 instanceof Number) || !(arg2 instanceof Number)) {
             throw new LispException("Error: > requiere argumentos numéricos");
         }
@@ -374,7 +1344,7 @@ public class LispEvaluator {
     }
     
     private Object evaluateAtom(List<?> list, LispEnvironment env) {
-        if (list.size() != 2) {
+        if (!isValidated(list) && list.size() != 2) {
             throw new LispException("Error: atom requiere exactamente un argumento");
         }
         
@@ -393,33 +1363,826 @@ public class LispEvaluator {
         return result;
     }
     
-    private Object applyUserFunction(String functionName, List<?> list, LispEnvironment env) {
-        if (!env.hasFunction(functionName)) {
-            throw new LispException("Error: función no definida: " + functionName);
+    private Object handleDelay(List<?> list, LispEnvironment env) {
+        if (list.size() != 2) {
+            throw new LispException("Error: delay requiere exactamente un argumento");
         }
         
-        // Obtener la definición de la función
-        FunctionDefinition function = env.getFunction(functionName);
-        List<String> params = function.getParameters();
+        Object expr = list.get(1);
+        LispEnvironment captured = env.capture();
+        return new LispPromise(() -> evaluate(expr, captured));
+    }
+    
+    private Object handleLazyCons(List<?> list, LispEnvironment env) {
+        if (list.size() != 3) {
+            throw new LispException("Error: lazy-cons requiere exactamente dos argumentos");
+        }
+        
+        // La cabeza se evalúa de inmediato, la cola solo cuando se necesite
+        Object head = evaluate(list.get(1), env);
+        Object tailExpr = list.get(2);
+        LispEnvironment captured = env.capture();
+        return new LispStream(head, new LispPromise(() -> evaluate(tailExpr, captured)));
+    }
+    
+    private Object evaluateForce(List<?> list, LispEnvironment env) {
+        if (list.size() != 2) {
+            throw new LispException("Error: force requiere exactamente un argumento");
+        }
+        
+        Object arg = evaluate(list.get(1), env);
+        
+        // Forzar un valor que no es promesa devuelve el mismo valor
+        return arg instanceof LispPromise ? ((LispPromise) arg).force() : arg;
+    }
+    
+    private Object evaluateStreamCar(List<?> list, LispEnvironment env) {
+        if (list.size() != 2) {
+            throw new LispException("Error: stream-car requiere exactamente un argumento");
+        }
+        
+        return toStream(evaluate(list.get(1), env), "stream-car").getHead();
+    }
+    
+    private Object evaluateStreamCdr(List<?> list, LispEnvironment env) {
+        if (list.size() != 2) {
+            throw new LispException("Error: stream-cdr requiere exactamente un argumento");
+        }
+        
+        return toStream(evaluate(list.get(1), env), "stream-cdr").getTail();
+    }
+    
+    private Object evaluateStreamTake(List<?> list, LispEnvironment env) {
+        if (list.size() != 3) {
+            throw new LispException("Error: stream-take requiere exactamente dos argumentos");
+        }
+        
+        Object count = evaluate(list.get(1), env);
+        if (!(count instanceof Number)) {
+            throw new LispException("Error: stream-take requiere un número como primer argumento");
+        }
+        
+        int n = ((Number) count).intValue();
+        Object current = evaluate(list.get(2), env);
+        List<Object> result = new ArrayList<>();
+        
+        // Solo se fuerzan las celdas que realmente se consumen
+        while (result.size() < n && !isStreamEnd(current)) {
+            LispStream stream = toStream(current, "stream-take");
+            result.add(stream.getHead());
+            if (result.size() < n) {
+                current = stream.getTail();
+            }
+        }
+        
+        return result;
+    }
+    
+    private Object evaluateStreamFilter(List<?> list, LispEnvironment env) {
+        if (list.size() != 3) {
+            throw new LispException("Error: stream-filter requiere exactamente dos argumentos");
+        }
+        
+        Object predicate = evaluate(list.get(1), env);
+        return filterStream(predicate, evaluate(list.get(2), env), env);
+    }
+    
+    private Object filterStream(Object predicate, Object current, LispEnvironment env) {
+        // Avanzar iterativamente hasta el siguiente elemento que cumple el predicado
+        while (!isStreamEnd(current)) {
+            LispStream stream = toStream(current, "stream-filter");
+            Object head = stream.getHead();
+            
+            if (isTrue(applyFunction(predicate, List.of(head), env))) {
+                LispEnvironment captured = env.capture();
+                return new LispStream(head, new LispPromise(
+                    () -> filterStream(predicate, stream.getTail(), captured)));
+            }
+            
+            current = stream.getTail();
+        }
+        
+        return "nil";
+    }
+    
+    private Object evaluateStreamMap(List<?> list, LispEnvironment env) {
+        if (list.size() != 3) {
+            throw new LispException("Error: stream-map requiere exactamente dos argumentos");
+        }
+        
+        Object function = evaluate(list.get(1), env);
+        return mapStream(function, evaluate(list.get(2), env), env);
+    }
+    
+    private Object mapStream(Object function, Object current, LispEnvironment env) {
+        if (isStreamEnd(current)) {
+            return "nil";
+        }
+        
+        LispStream stream = toStream(current, "stream-map");
+        Object head = applyFunction(function, List.of(stream.getHead()), env);
+        LispEnvironment captured = env.capture();
+        return new LispStream(head, new LispPromise(
+            () -> mapStream(function, stream.getTail(), captured)));
+    }
+    
+    private Object evaluateRange(List<?> list, LispEnvironment env) {
+        if (list.size() != 2 && list.size() != 3) {
+            throw new LispException("Error: range requiere uno o dos argumentos");
+        }
         
-        // Evaluar argumentos
         List<Object> args = evaluateArguments(list, env);
+        for (Object arg : args) {
+            if (!(arg instanceof Number)) {
+                throw new LispException("Error: range requiere argumentos numéricos");
+            }
+        }
+        
+        long start = ((Number) args.get(0)).longValue();
+        
+        // Sin límite superior el flujo es infinito
+        long end = args.size() == 2 ? ((Number) args.get(1)).longValue() : Long.MAX_VALUE;
+        return rangeStream(start, end);
+    }
+    
+    private Object rangeStream(long start, long end) {
+        if (start >= end) {
+            return "nil";
+        }
+        
+        return new LispStream(boxInteger(start), new LispPromise(() -> rangeStream(start + 1, end)));
+    }
+    
+    private Object evaluateMakeVector(List<?> list, LispEnvironment env) {
+        if (list.size() != 2 && list.size() != 3) {
+            throw new LispException("Error: make-vector requiere uno o dos argumentos");
+        }
+        
+        Object length = evaluate(list.get(1), env);
+        if (!(length instanceof Integer) || (Integer) length < 0) {
+            throw new LispException("Error: make-vector requiere una longitud entera no negativa");
+        }
+        
+        Object initial = list.size() == 3 ? evaluate(list.get(2), env) : 0;
+        if (!(initial instanceof Number)) {
+            throw new LispException("Error: make-vector requiere un valor inicial numérico");
+        }
+        
+        // El tipo del valor inicial decide si el vector es entero o de punto flotante
+        int n = (Integer) length;
+        if (initial instanceof Double || initial instanceof Float) {
+            return LispVector.ofDoubles(n, ((Number) initial).doubleValue());
+        }
+        return LispVector.ofLongs(n, ((Number) initial).longValue());
+    }
+    
+    private Object evaluateVref(List<?> list, LispEnvironment env) {
+        if (list.size() != 3) {
+            throw new LispException("Error: vref requiere exactamente dos argumentos");
+        }
+        
+        LispVector vector = toVector(evaluate(list.get(1), env), "vref");
+        return vector.get(toIndex(evaluate(list.get(2), env), "vref"));
+    }
+    
+    private Object evaluateVset(List<?> list, LispEnvironment env) {
+        if (list.size() != 4) {
+            throw new LispException("Error: vset requiere exactamente tres argumentos");
+        }
+        
+        LispVector vector = toVector(evaluate(list.get(1), env), "vset");
+        int index = toIndex(evaluate(list.get(2), env), "vset");
+        Object value = evaluate(list.get(3), env);
+        
+        if (!(value instanceof Number)) {
+            throw new LispException("Error: vset requiere un valor numérico");
+        }
+        
+        vector.set(index, (Number) value);
+        return value;
+    }
+    
+    private Object evaluateVlength(List<?> list, LispEnvironment env) {
+        if (list.size() != 2) {
+            throw new LispException("Error: vlength requiere exactamente un argumento");
+        }
+        
+        return toVector(evaluate(list.get(1), env), "vlength").length();
+    }
+    
+    private Object evaluateVectorCombine(List<?> list, LispEnvironment env, char op) {
+        if (list.size() != 3) {
+            throw new LispException("Error: v" + op + " requiere exactamente dos argumentos");
+        }
+        
+        Object arg1 = evaluate(list.get(1), env);
+        Object arg2 = evaluate(list.get(2), env);
+        
+        // Se admite vector con vector o vector con escalar (en cualquier orden)
+        if (arg1 instanceof LispVector && arg2 instanceof LispVector) {
+            return ((LispVector) arg1).combine((LispVector) arg2, op);
+        }
+        if (arg1 instanceof LispVector && arg2 instanceof Number) {
+            return ((LispVector) arg1).combine((Number) arg2, op);
+        }
+        if (arg1 instanceof Number && arg2 instanceof LispVector) {
+            return ((LispVector) arg2).combine((Number) arg1, op);
+        }
+        
+        throw new LispException("Error: v" + op + " requiere vectores o escalares numéricos");
+    }
+    
+    private Object evaluateVsum(List<?> list, LispEnvironment env) {
+        if (list.size() != 2) {
+            throw new LispException("Error: vsum requiere exactamente un argumento");
+        }
+        
+        return toVector(evaluate(list.get(1), env), "vsum").sum();
+    }
+    
+    private Object evaluateVdot(List<?> list, LispEnvironment env) {
+        if (list.size() != 3) {
+            throw new LispException("Error: vdot requiere exactamente dos argumentos");
+        }
+        
+        LispVector a = toVector(evaluate(list.get(1), env), "vdot");
+        LispVector b = toVector(evaluate(list.get(2), env), "vdot");
+        return a.dot(b);
+    }
+    
+    private Object evaluateVmap(List<?> list, LispEnvironment env) {
+        if (list.size() != 3 && list.size() != 4) {
+            throw new LispException("Error: vmap requiere dos o tres argumentos");
+        }
+        
+        Object function = evaluate(list.get(1), env);
+        LispVector vector = toVector(evaluate(list.get(2), env), "vmap");
+        Object scalar = list.size() == 4 ? evaluate(list.get(3), env) : null;
+        String name = function.toString();
+        
+        // Los operadores aritméticos se aplican con ciclos primitivos
+        if (name.length() == 1 && "+-*/".indexOf(name.charAt(0)) >= 0) {
+            if (scalar instanceof Number) {
+                return vector.combine((Number) scalar, name.charAt(0));
+            }
+            if (scalar == null && name.equals("-")) {
+                return vector.negate();
+            }
+        }
+        
+        // Cualquier otra función se aplica elemento por elemento
+        Number[] results = new Number[vector.length()];
+        for (int i = 0; i < results.length; i++) {
+            List<Object> args = scalar == null ? List.of(vector.get(i)) : List.of(vector.get(i), scalar);
+            Object result = applyFunction(function, args, env);
+            
+            if (!(result instanceof Number)) {
+                throw new LispException("Error: vmap requiere que la función devuelva números");
+            }
+            results[i] = (Number) result;
+        }
+        
+        return LispVector.fromNumbers(results);
+    }
+    
+    private Object evaluateMakeHashTable(List<?> list, LispEnvironment env) {
+        if (list.size() != 1) {
+            throw new LispException("Error: make-hash-table no recibe argumentos");
+        }
+        
+        return new LispHashTable();
+    }
+    
+    private Object evaluateGethash(List<?> list, LispEnvironment env) {
+        if (list.size() != 3 && list.size() != 4) {
+            throw new LispException("Error: gethash requiere dos o tres argumentos");
+        }
+        
+        Object key = evaluate(list.get(1), env);
+        LispHashTable table = toHashTable(evaluate(list.get(2), env), "gethash");
+        Object value = table.get(key);
+        
+        if (value != null) {
+            return value;
+        }
+        
+        // Si la llave no existe se devuelve el valor por defecto o nil
+        return list.size() == 4 ? evaluate(list.get(3), env) : "nil";
+    }
+    
+    private Object evaluatePuthash(List<?> list, LispEnvironment env) {
+        if (list.size() != 4) {
+            throw new LispException("Error: puthash requiere exactamente tres argumentos");
+        }
+        
+        Object key = evaluate(list.get(1), env);
+        Object value = evaluate(list.get(2), env);
+        LispHashTable table = toHashTable(evaluate(list.get(3), env), "puthash");
+        
+        return table.put(key, value);
+    }
+    
+    private Object evaluateRemhash(List<?> list, LispEnvironment env) {
+        if (list.size() != 3) {
+            throw new LispException("Error: remhash requiere exactamente dos argumentos");
+        }
+        
+        Object key = evaluate(list.get(1), env);
+        LispHashTable table = toHashTable(evaluate(list.get(2), env), "remhash");
+        
+        return table.remove(key) ? "t" : "nil";
+    }
+    
+    private Object evaluateHashCount(List<?> list, LispEnvironment env) {
+        if (list.size() != 2) {
+            throw new LispException("Error: hash-count requiere exactamente un argumento");
+        }
+        
+        return toHashTable(evaluate(list.get(1), env), "hash-count").size();
+    }
+    
+    private Object evaluateMaphash(List<?> list, LispEnvironment env) {
+        if (list.size() != 3) {
+            throw new LispException("Error: maphash requiere exactamente dos argumentos");
+        }
+        
+        Object function = evaluate(list.get(1), env);
+        LispHashTable table = toHashTable(evaluate(list.get(2), env), "maphash");
+        
+        table.forEach((key, value) -> applyFunction(function, List.of(key, value), env));
+        return "nil";
+    }
+    
+    private LispHashTable toHashTable(Object value, String operation) {
+        if (!(value instanceof LispHashTable)) {
+            throw new LispException("Error: " + operation + " requiere una tabla hash");
+        }
+        return (LispHashTable) value;
+    }
+    
+    private LispVector toVector(Object value, String operation) {
+        if (!(value instanceof LispVector)) {
+            throw new LispException("Error: " + operation + " requiere un vector");
+        }
+        return (LispVector) value;
+    }
+    
+    private int toIndex(Object value, String operation) {
+        if (!(value instanceof Integer) && !(value instanceof Long)) {
+            throw new LispException("Error: " + operation + " requiere un índice entero");
+        }
+        return ((Number) value).intValue();
+    }
+    
+    private LispStream toStream(Object value, String operation) {
+        if (!(value instanceof LispStream)) {
+            throw new LispException("Error: " + operation + " requiere un flujo");
+        }
+        return (LispStream) value;
+    }
+    
+    private boolean isStreamEnd(Object value) {
+        return "nil".equals(value) || (value instanceof List && ((List<?>) value).isEmpty());
+    }
+    
+    private Object boxInteger(long value) {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return value;
+    }
+    
+    /**
+     * Aplica una función (operador predefinido o función de usuario) a
+     * argumentos ya evaluados.
+     */
+    private Object applyFunction(Object function, List<Object> args, LispEnvironment env) {
+        if (function instanceof LispClosure) {
+            return callClosure((LispClosure) function, args, env);
+        }
+        
+        String functionName = function.toString();
+        
+        LispOperator op = operators.get(functionName);
+        if (op != null) {
+            // Los operadores reciben expresiones, así que se citan los argumentos
+            List<Object> call = new ArrayList<>(args.size() + 1);
+            call.add(functionName);
+            for (Object arg : args) {
+                call.add(List.of("quote", arg));
+            }
+            return op.apply(call, env);
+        }
+        
+        return invokeUserFunction(functionName, lookupFunction(functionName, env), args, env);
+    }
+    
+    /**
+     * (lambda (parámetros) cuerpo): crea una función anónima. El código se
+     * prepara una sola vez por forma; cada evaluación solo captura las
+     * variables libres: copia las que nunca se asignan y comparte en una
+     * celda las demás.
+     */
+    private Object handleLambda(List<?> list, LispEnvironment env) {
+        LispClosure.Code code = list instanceof LispForm
+            ? ((LispForm) list).getLambda(this::lambdaCode) : lambdaCode(list);
+        return new LispClosure(code, env.captureLocals(code.getCapturedNames(), code.getAssigned()));
+    }
+    
+    private LispClosure.Code lambdaCode(List<?> list) {
+        if (list.size() != 3) {
+            throw new LispException("Error: lambda requiere una lista de parámetros y un cuerpo");
+        }
+        if (!(list.get(1) instanceof List)) {
+            throw new LispException("Error: los parámetros de lambda deben ser una lista");
+        }
+        
+        List<String> params = new ArrayList<>();
+        for (Object param : (List<?>) list.get(1)) {
+            if (!(param instanceof String)) {
+                throw new LispException("Error: los parámetros de lambda deben ser símbolos");
+            }
+            params.add((String) param);
+        }
+        
+        // Variables libres del cuerpo: pueden ser locales del marco donde se crea la lambda
+        Set<String> free = new LinkedHashSet<>();
+        Set<String> assignedNames = new HashSet<>();
+        collectFreeNames(list.get(2), free, assignedNames);
+        free.removeAll(params);
+        String[] captured = free.toArray(new String[0]);
+        
+        // Las que el propio cuerpo asigna se comparten aunque la forma no pasara por LispChecker
+        boolean[] assigned = new boolean[captured.length];
+        for (int i = 0; i < captured.length; i++) {
+            assigned[i] = assignedNames.contains(captured[i]);
+        }
+        
+        // La función recibe los argumentos y a continuación los valores capturados
+        List<String> slots = new ArrayList<>(params);
+        slots.addAll(free);
+        return new LispClosure.Code(params, captured, assigned, new FunctionDefinition(slots, list.get(2)));
+    }
+    
+    /**
+     * Reúne los símbolos que pueden ser referencias a variables: todos los
+     * del cuerpo salvo los datos citados y los nombres de operadores. De
+     * paso reúne las variables que el cuerpo asigna con setq.
+     */
+    private void collectFreeNames(Object expr, Set<String> names, Set<String> assigned) {
+        if (expr instanceof String) {
+            if (!operators.containsKey(expr)) {
+                names.add((String) expr);
+            }
+            return;
+        }
+        if (!(expr instanceof List) || ((List<?>) expr).isEmpty()) {
+            return;
+        }
+        
+        List<?> list = (List<?>) expr;
+        if ("quote".equals(list.get(0)) || "QUOTE".equals(list.get(0))) {
+            return;
+        }
+        if (("setq".equals(list.get(0)) || "SETQ".equals(list.get(0)))
+                && list.size() > 1 && list.get(1) instanceof String) {
+            assigned.add((String) list.get(1));
+        }
+        for (Object element : list) {
+            collectFreeNames(element, names, assigned);
+        }
+    }
+    
+    /**
+     * Llama a una clausura: los argumentos y los valores capturados se ligan
+     * en las ranuras del marco de su código. Las variables compartidas se
+     * ligan a su celda, así que un setq dentro del cuerpo sobrevive a la
+     * llamada.
+     */
+    private Object callClosure(LispClosure closure, List<Object> args, LispEnvironment env) {
+        LispClosure.Code code = closure.getCode();
+        if (args.size() != code.getArity()) {
+            throw new LispException("Error: la función lambda espera " + code.getArity()
+                                   + " argumentos, pero recibió " + args.size());
+        }
+        
+        Object[] captured = closure.getCaptured();
+        List<Object> values = args;
+        if (captured.length > 0) {
+            values = new ArrayList<>(args.size() + captured.length);
+            values.addAll(args);
+            values.addAll(Arrays.asList(captured));
+        }
+        
+        try {
+            return bindAndEvaluate("lambda", code.getFunction(), values, env);
+        } catch (LispException e) {
+            e.addFrame("lambda", null, null);
+            throw e;
+        }
+    }
+    
+    /**
+     * (funcall función argumentos...): llama a una clausura o a la función
+     * (predefinida o de usuario) con ese nombre.
+     */
+    private Object evaluateFuncall(List<?> list, LispEnvironment env) {
+        if (list.size() < 2) {
+            throw new LispException("Error: funcall requiere una función");
+        }
+        
+        Object function = evaluate(list.get(1), env);
+        List<Object> args = new ArrayList<>(list.size() - 2);
+        for (int i = 2; i < list.size(); i++) {
+            args.add(evaluate(list.get(i), env));
+        }
+        return applyFunction(function, args, env);
+    }
+    
+    /**
+     * (apply función argumentos... lista): como funcall, pero el último
+     * argumento es una lista con el resto de los argumentos.
+     */
+    private Object evaluateApply(List<?> list, LispEnvironment env) {
+        if (list.size() < 3) {
+            throw new LispException("Error: apply requiere una función y una lista de argumentos");
+        }
+        
+        Object function = evaluate(list.get(1), env);
+        List<Object> args = new ArrayList<>();
+        for (int i = 2; i < list.size() - 1; i++) {
+            args.add(evaluate(list.get(i), env));
+        }
+        
+        Object rest = evaluate(list.get(list.size() - 1), env);
+        if (rest instanceof List) {
+            args.addAll((List<?>) rest);
+        } else if (!"nil".equals(rest)) {
+            throw new LispException("Error: el último argumento de apply debe ser una lista");
+        }
+        return applyFunction(function, args, env);
+    }
+    
+    /**
+     * Evalúa mapcar, filter (o remove-if-not), reduce, some y every. Si la
+     * lista de entrada es a su vez un mapcar o un filter, y así
+     * sucesivamente, la cadena completa se ejecuta en una sola pasada: cada
+     * elemento atraviesa todas las etapas antes de pasar al siguiente y solo
+     * se construye el resultado final, sin listas intermedias. Por eso las
+     * funciones de las etapas se llaman intercaladas (y some o every dejan de
+     * llamarlas en cuanto conocen el resultado).
+     */
+    private Object evaluateSequence(String operator, List<?> list, LispEnvironment env) {
+        boolean reduce = operator.equals("reduce");
+        if (!isValidated(list) && (reduce ? list.size() != 3 && list.size() != 4 : list.size() != 3)) {
+            throw new LispException("Error: " + operator + (reduce
+                ? " requiere una función, una lista y un valor inicial opcional"
+                : " requiere exactamente dos argumentos"));
+        }
+        
+        Object function = evaluate(list.get(1), env);
+        
+        // Etapas anidadas, de la exterior a la interior, en el orden en que se evaluarían
+        List<Object> stages = new ArrayList<>();
+        List<Boolean> filters = new ArrayList<>();
+        String innermost = operator;
+        Object source = list.get(2);
+        while (isSequenceStage(source)) {
+            List<?> stage = (List<?>) source;
+            LispLineProfile profile = lineProfile;
+            if (profile != null) {
+                profile.hit(stage);
+            }
+            innermost = (String) stage.get(0);
+            stages.add(evaluate(stage.get(1), env));
+            filters.add(!innermost.equals("mapcar"));
+            source = stage.get(2);
+        }
+        
+        Object elements = evaluate(source, env);
+        if ("nil".equals(elements)) {
+            elements = List.of();
+        } else if (!(elements instanceof List)) {
+            throw new LispException("Error: " + innermost + " requiere una lista");
+        }
+        
+        Object accumulator = reduce && list.size() == 4 ? evaluate(list.get(3), env) : null;
+        boolean started = accumulator != null;
+        List<Object> results = operator.equals("mapcar") || operator.equals("filter")
+            || operator.equals("remove-if-not") ? new ArrayList<>() : null;
+        
+        // Un solo arreglo para los argumentos de todas las llamadas: la
+        // función los liga al empezar y no guarda la lista
+        Object[] argument = new Object[1];
+        List<Object> args = Arrays.asList(argument);
+        Object[] pair = new Object[2];
+        List<Object> pairArgs = Arrays.asList(pair);
+        
+        // reduce con + o * sobre enteros: el acumulador se lleva sin caja
+        // mientras el resultado quepa en un int
+        char arithmetic = reduce && ("+".equals(function) || "*".equals(function))
+            ? ((String) function).charAt(0) : 0;
+        int intAccumulator = 0;
+        boolean unboxed = false;
+        
+        for (Object element : (List<?>) elements) {
+            // Etapas de la interior a la exterior; un filtro que falla descarta el elemento
+            Object value = element;
+            boolean kept = true;
+            for (int i = stages.size() - 1; i >= 0 && kept; i--) {
+                argument[0] = value;
+                Object result = applyFunction(stages.get(i), args, env);
+                if (filters.get(i)) {
+                    kept = isTrue(result);
+                } else {
+                    value = result;
+                }
+            }
+            if (!kept) {
+                continue;
+            }
+            
+            argument[0] = value;
+            switch (operator) {
+                case "mapcar":
+                    results.add(applyFunction(function, args, env));
+                    break;
+                case "reduce":
+                    if (unboxed && value instanceof Integer) {
+                        int operand = (Integer) value;
+                        long result = arithmetic == '+'
+                            ? (long) intAccumulator + operand : (long) intAccumulator * operand;
+                        if (result == (int) result) {
+                            intAccumulator = (int) result;
+                            break;
+                        }
+                    }
+                    if (unboxed) {
+                        accumulator = intAccumulator;
+                        unboxed = false;
+                    }
+                    if (started) {
+                        pair[0] = accumulator;
+                        pair[1] = value;
+                        accumulator = combine(function, pairArgs, env);
+                    } else {
+                        accumulator = value;
+                    }
+                    started = true;
+                    if (arithmetic != 0 && accumulator instanceof Integer) {
+                        intAccumulator = (Integer) accumulator;
+                        unboxed = true;
+                    }
+                    break;
+                case "some": {
+                    Object result = applyFunction(function, args, env);
+                    if (isTrue(result)) {
+                        return result;
+                    }
+                    break;
+                }
+                case "every":
+                    if (!isTrue(applyFunction(function, args, env))) {
+                        return "nil";
+                    }
+                    break;
+                default:
+                    if (isTrue(applyFunction(function, args, env))) {
+                        results.add(value);
+                    }
+                    break;
+            }
+        }
+        
+        switch (operator) {
+            case "reduce":
+                if (unboxed) {
+                    return intAccumulator;
+                }
+                // Sin elementos ni valor inicial, el resultado es la función sin argumentos
+                return started ? accumulator : applyFunction(function, List.of(), env);
+            case "some":
+                return "nil";
+            case "every":
+                return "t";
+            default:
+                return results;
+        }
+    }
+    
+    /**
+     * Indica si una expresión es un mapcar o un filter que puede fusionarse
+     * con la forma que consume su resultado.
+     */
+    private static boolean isSequenceStage(Object expr) {
+        if (!(expr instanceof List) || ((List<?>) expr).size() != 3) {
+            return false;
+        }
+        Object head = ((List<?>) expr).get(0);
+        return "mapcar".equals(head) || "filter".equals(head) || "remove-if-not".equals(head);
+    }
+    
+    /**
+     * Aplica la función de reduce a dos valores; la aritmética predefinida
+     * se calcula directamente.
+     */
+    private Object combine(Object function, List<Object> pair, LispEnvironment env) {
+        if ("+".equals(function)) {
+            return LispBytecodeRuntime.add(pair.get(0), pair.get(1));
+        }
+        if ("*".equals(function)) {
+            return LispBytecodeRuntime.multiply(pair.get(0), pair.get(1));
+        }
+        return applyFunction(function, pair, env);
+    }
+    
+    Object invokeUserFunction(String functionName, FunctionDefinition function,
+                                      List<Object> args, LispEnvironment env) {
+        checkArity(functionName, function, args);
+        return bindAndEvaluate(functionName, function, args, env);
+    }
+    
+    private void checkArity(String functionName, FunctionDefinition function, List<Object> args) {
+        List<String> params = function.getParameters();
         
         if (params.size() != args.size()) {
             throw new LispException("Error: la función " + functionName + 
                                    " espera " + params.size() + " argumentos, pero recibió " + args.size());
         }
+    }
+    
+    /**
+     * Ejecuta una función de usuario cuyo número de argumentos ya fue verificado.
+     * Las funciones que superan el umbral de invocaciones se compilan con
+     * LispCompiler (y, si es posible, a bytecode con LispBytecodeCompiler) y a
+     * partir de entonces se ejecuta el código compilado. El código compilado
+     * pertenece al entorno global donde se definió la función: desde un
+     * entorno bifurcado se usa solo si sigue siendo válido allí, y si no lo
+     * es se interpreta sin descartarlo.
+     */
+    Object bindAndEvaluate(String name, FunctionDefinition function, List<Object> args, LispEnvironment env) {
+        LispEnvironment global = env.getGlobal();
+        LispEnvironment owner = function.getOwner() != null ? function.getOwner() : global;
+        Object body = function.getExecutableBody(global);
+        CompiledFunction compiled = (CompiledFunction) function.getCompiled();
         
-        // Crear entorno para la función
-        LispEnvironment functionEnv = new LispEnvironment(env);
+        if (compiled != null && compiled.getSource() != body) {
+            // El cuerpo cambió (desoptimización): volver a interpretar y perfilar
+            if (owner == global) {
+                function.setCompiled(null);
+            }
+            compiled = null;
+        } else if (compiled == null && hotThreshold > 0 && lineProfile == null
+                && function.recordInvocation() >= hotThreshold
+                && body == function.getExecutableBody(owner)) {
+            LispBytecodeFunction bytecode = bytecodeEnabled
+                ? bytecodeCompiler.compile(name, function, body, owner) : null;
+            compiled = compiler.compileFunction(body, bytecode);
+            function.setCompiled(compiled);
+        } else if (lineProfile != null) {
+            // Perfilando líneas: el código ya compilado no pasaría por evaluate
+            compiled = null;
+        }
         
-        // Asignar argumentos a parámetros
-        for (int i = 0; i < params.size(); i++) {
-            functionEnv.setVariable(params.get(i), args.get(i));
+        // El bytecode no necesita entorno: los parámetros son variables locales de la JVM
+        if (compiled != null && compiled.getBytecode() != null) {
+            if (compiled.getBytecode().isValidFor(env)) {
+                return compiled.getBytecode().invoke(args.toArray());
+            }
+            // Cambió alguna función de la que depende: se volverá a compilar cuando esté caliente
+            if (owner == global) {
+                function.setCompiled(null);
+            }
+            compiled = null;
         }
         
-        // Evaluar el cuerpo
-        return evaluate(function.getBody(), functionEnv);
+        // Crear el marco de la función: parámetros y variables de let en ranuras
+        String[] layout = function.getFrameLayout(env);
+        if (layout == null) {
+            layout = frameLayout(function);
+            function.setFrameLayout(layout, env);
+        }
+        // El marco sale de la reserva del hilo y vuelve a ella al terminar,
+        // salvo que una promesa lo haya retenido
+        LispFrameArena arena = frames != null ? frames.get() : null;
+        LispEnvironment functionEnv = arena != null
+            ? arena.acquire(env, layout) : new LispEnvironment(env, layout);
+        try {
+            // Asignar argumentos a parámetros
+            for (int i = 0; i < args.size(); i++) {
+                functionEnv.swapSlot(i, args.get(i));
+            }
+            
+            // Evaluar el cuerpo, o ejecutar su versión compilada si la función está caliente
+            if (compiled != null) {
+                return compiled.getNode().execute(functionEnv);
+            }
+            return evaluate(body, functionEnv);
+        } finally {
+            if (arena != null) {
+                arena.release(functionEnv);
+            }
+        }
     }
     
     private List<Object> evaluateArguments(List<?> list, LispEnvironment env) {
@@ -432,6 +2195,34 @@ public class LispEvaluator {
         return evaluatedArgs;
     }
     
+    /**
+     * Registra en el sitio los tipos de los operandos observados (retroalimentación
+     * de tipos que usa LispCompiler al especializar funciones calientes).
+     */
+    private void recordTypes(List<?> list, List<Object> args) {
+        if (list instanceof LispForm) {
+            LispForm form = (LispForm) list;
+            for (Object arg : args) {
+                form.recordType(arg);
+            }
+        }
+    }
+    
+    private void recordTypes(List<?> list, Object arg1, Object arg2) {
+        if (list instanceof LispForm) {
+            ((LispForm) list).recordType(arg1);
+            ((LispForm) list).recordType(arg2);
+        }
+    }
+    
+    /**
+     * Indica si LispChecker ya verificó la forma y el número de argumentos de
+     * una lista, en cuyo caso no hace falta repetir esas comprobaciones.
+     */
+    private boolean isValidated(List<?> list) {
+        return list instanceof LispForm && ((LispForm) list).isValidated();
+    }
+    
     private boolean isTrue(Object value) {
         return !"nil".equals(value);
     }
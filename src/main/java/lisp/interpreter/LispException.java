@@ -1,24 +1,46 @@
 package lisp.interpreter;
 
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Excepción específica para errores en el intérprete LISP.
  * Proporciona información contextual como línea y columna.
  * 
+ * No captura la traza de Java (que no dice nada del programa LISP y es la
+ * parte cara de lanzar una excepción); en su lugar lleva la traza LISP: las
+ * funciones que se estaban ejecutando y dónde se llamó a cada una. Para
+ * depurar el intérprete se puede recuperar la traza de Java con
+ * {@code -Dlisp.java.stacktrace=true}.
+ * 
  * @author Equipo LISP
  */
 public class LispException extends RuntimeException {
     
+    private static final long serialVersionUID = 1L;
+    
+    /** Captura la traza de Java (solo para depurar el intérprete) */
+    private static final boolean JAVA_STACK_TRACE = Boolean.getBoolean("lisp.java.stacktrace");
+    
     private final int line;
     private final int column;
     
+    /** Funciones de la traza LISP, de la más interna a la más externa (null si no hay) */
+    private List<String> functions;
+    
+    /** Forma de cada llamada, hasta ubicarla en el código fuente */
+    private List<Object> calls;
+    
+    /** Línea y columna de cada llamada (-1 si no se conoce) */
+    private List<int[]> positions;
+    
     /**
      * Constructor simple con solo mensaje.
      * 
      * @param message Mensaje de error
      */
     public LispException(String message) {
-        super(message);
+        super(message, null, false, JAVA_STACK_TRACE);
         this.line = -1;
         this.column = -1;
     }
@@ -31,7 +53,7 @@ public class LispException extends RuntimeException {
      * @param column Columna donde se produjo el error
      */
     public LispException(String message, int line, int column) {
-        super(String.format("Error en línea %d, columna %d: %s", line, column, message));
+        super(String.format("Error en línea %d, columna %d: %s", line, column, message), null, false, JAVA_STACK_TRACE);
         this.line = line;
         this.column = column;
     }
@@ -43,7 +65,7 @@ public class LispException extends RuntimeException {
      * @param cause Causa del error
      */
     public LispException(String message, Throwable cause) {
-        super(message, cause);
+        super(message, cause, false, JAVA_STACK_TRACE);
         this.line = -1;
         this.column = -1;
     }
@@ -65,4 +87,63 @@ public class LispException extends RuntimeException {
     public int getColumn() {
         return column;
     }
-}
\ No newline at end of file
+    
+    /**
+     * Agrega a la traza LISP una llamada por la que pasó el error. Las
+     * llamadas agregadas antes ocurrieron dentro del cuerpo de esta función,
+     * así que se ubican con las posiciones de ese cuerpo.
+     * 
+     * @param function Nombre de la función llamada
+     * @param call Forma de la llamada
+     * @param body Posiciones del cuerpo de la función llamada (puede ser null)
+     */
+    void addFrame(String function, Object call, LispSourceMap body) {
+        if (functions == null) {
+            functions = new ArrayList<>();
+            calls = new ArrayList<>();
+            positions = new ArrayList<>();
+        }
+        locate(body);
+        functions.add(function);
+        calls.add(call);
+        positions.add(null);
+    }
+    
+    /**
+     * Ubica en el código fuente las llamadas de la traza que aparecen en
+     * el mapa de posiciones.
+     * 
+     * @param sourceMap Posiciones de las formas de un análisis (puede ser null)
+     */
+    void locate(LispSourceMap sourceMap) {
+        if (functions == null || sourceMap == null) {
+            return;
+        }
+        for (int i = 0; i < calls.size(); i++) {
+            Object call = calls.get(i);
+            if (call != null && sourceMap.getLine(call) > 0) {
+                positions.set(i, new int[] {sourceMap.getLine(call), sourceMap.getColumn(call)});
+                calls.set(i, null);
+            }
+        }
+    }
+    
+    /**
+     * Obtiene la traza LISP: una línea por función activa, de la más interna
+     * a la más externa, con la posición de la llamada si se conoce.
+     * 
+     * @return Traza del error (vacía si ocurrió fuera de toda función)
+     */
+    public List<String> getBacktrace() {
+        List<String> backtrace = new ArrayList<>();
+        if (functions == null) {
+            return backtrace;
+        }
+        for (int i = 0; i < functions.size(); i++) {
+            int[] position = positions.get(i);
+            backtrace.add(position == null ? functions.get(i)
+                : String.format("%s (línea %d, columna %d)", functions.get(i), position[0], position[1]));
+        }
+        return backtrace;
+    }
+}
@@ -0,0 +1,240 @@
+package lisp.interpreter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Function;
+
+import lisp.environment.LispEnvironment;
+import lisp.environment.LispEnvironment.FunctionDefinition;
+
+/**
+ * Lista producida por el parser para representar una forma del programa.
+ * Se comporta como cualquier otra lista, pero además guarda información que
+ * el evaluador reutiliza entre ejecuciones del mismo sitio de llamada, como
+ * la expansión de una macro o la función a la que llama.
+ */
+public class LispForm extends ArrayList<Object> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final AtomicReferenceFieldUpdater<LispForm, Object> CONSTANT =
+        AtomicReferenceFieldUpdater.newUpdater(LispForm.class, Object.class, "constant");
+
+    /** Dato citado ya congelado si la forma es un quote (ver getConstant), o código de una lambda */
+    private transient volatile Object constant;
+
+    /** Destino resuelto de este sitio de llamada */
+    private transient volatile CallTarget callTarget;
+
+    /** Tipo de operando observado: entero */
+    public static final int TYPE_INT = 1;
+    
+    /** Tipo de operando observado: decimal */
+    public static final int TYPE_DOUBLE = 2;
+    
+    /** Tipo de operando observado: cualquier otro valor */
+    public static final int TYPE_OTHER = 4;
+
+    /** Indica si el verificador ya comprobó la forma y el número de argumentos */
+    private transient boolean validated;
+
+    /** Tipos de operandos vistos en este sitio (combinación de TYPE_*) */
+    private transient int typeProfile;
+
+    /**
+     * Constructor para una forma vacía.
+     */
+    public LispForm() {
+        super();
+    }
+
+    /**
+     * Constructor con capacidad inicial.
+     *
+     * @param capacity Capacidad inicial de la lista
+     */
+    public LispForm(int capacity) {
+        super(capacity);
+    }
+
+    /**
+     * Convierte una expresión en un árbol de formas, copiando todas las
+     * listas anidadas. Los átomos se comparten.
+     *
+     * @param expr Expresión a convertir
+     * @return Copia de la expresión con LispForm en lugar de cada lista
+     *         (los datos constantes, que son inmutables, se comparten)
+     */
+    public static Object copyOf(Object expr) {
+        if (!(expr instanceof List) || LispConstantList.isFrozen(expr)) {
+            return expr;
+        }
+
+        List<?> list = (List<?>) expr;
+        LispForm form = new LispForm(list.size());
+        for (Object element : list) {
+            form.add(copyOf(element));
+        }
+        return form;
+    }
+
+    /**
+     * Indica si la forma ya fue verificada por LispChecker, en cuyo caso el
+     * evaluador puede omitir sus propias comprobaciones de forma.
+     *
+     * @return true si la forma fue verificada
+     */
+    public boolean isValidated() {
+        return validated;
+    }
+
+    /**
+     * Marca la forma como verificada.
+     */
+    public void markValidated() {
+        validated = true;
+    }
+
+    /**
+     * Registra el tipo de un operando observado en este sitio.
+     *
+     * @param value Valor del operando
+     */
+    public void recordType(Object value) {
+        int type = value instanceof Integer ? TYPE_INT : value instanceof Double ? TYPE_DOUBLE : TYPE_OTHER;
+        if ((typeProfile & type) == 0) {
+            typeProfile |= type;
+        }
+    }
+
+    /**
+     * Obtiene los tipos de operandos observados en este sitio.
+     *
+     * @return Combinación de TYPE_INT, TYPE_DOUBLE y TYPE_OTHER (0 si nunca se ejecutó)
+     */
+    public int getTypeProfile() {
+        return typeProfile;
+    }
+
+    /**
+     * Obtiene el dato de esta forma (quote dato) como constante inmutable.
+     * Se congela una sola vez, la primera vez que se pide; a partir de ahí
+     * todas las evaluaciones, en cualquier hilo, devuelven la misma
+     * instancia sin copiarla.
+     *
+     * @return Dato congelado
+     */
+    public Object getConstant() {
+        Object value = constant;
+        if (value == null) {
+            Object frozen = LispConstantList.freeze(get(1));
+            value = CONSTANT.compareAndSet(this, null, frozen) ? frozen : constant;
+        }
+        return value;
+    }
+
+    /**
+     * Obtiene el código de esta forma (lambda parámetros cuerpo). Se crea
+     * una sola vez y lo comparten todas las clausuras creadas en la forma.
+     *
+     * @param create Crea el código a partir de la forma
+     * @return Código de la lambda
+     */
+    @SuppressWarnings("unchecked")
+    <T> T getLambda(Function<LispForm, T> create) {
+        Object value = constant;
+        if (value == null) {
+            T code = create.apply(this);
+            value = CONSTANT.compareAndSet(this, null, code) ? code : constant;
+        }
+        return (T) value;
+    }
+
+    /**
+     * Obtiene el destino guardado de este sitio de llamada si sigue vigente.
+     *
+     * @param global Entorno global en el que se evalúa la forma
+     * @param version Versión actual de las definiciones del entorno global
+     * @return El destino, o null si no hay uno válido para esa versión
+     */
+    public CallTarget getCallTarget(LispEnvironment global, int version) {
+        CallTarget cached = callTarget;
+        if (cached != null && cached.version == version && cached.global == global) {
+            return cached;
+        }
+        return null;
+    }
+
+    /**
+     * Guarda el destino resuelto de este sitio de llamada.
+     *
+     * @param target Destino resuelto
+     */
+    public void setCallTarget(CallTarget target) {
+        callTarget = target;
+    }
+
+    /**
+     * Destino de un sitio de llamada: la expansión de una macro o la
+     * definición de la función llamada, junto con la versión de las
+     * definiciones con la que se resolvió. Cualquier defun o defmacro cambia
+     * la versión y obliga a resolver de nuevo.
+     */
+    public static final class CallTarget {
+        private final Object expansion;
+        private final FunctionDefinition function;
+        private final LispEnvironment global;
+        private final int version;
+
+        private CallTarget(Object expansion, FunctionDefinition function,
+                           LispEnvironment global, int version) {
+            this.expansion = expansion;
+            this.function = function;
+            this.global = global;
+            this.version = version;
+        }
+
+        /**
+         * Crea el destino de una llamada a macro.
+         *
+         * @param expansion Forma expandida
+         * @param global Entorno global
+         * @param version Versión de las definiciones
+         * @return Nuevo destino
+         */
+        public static CallTarget forMacro(Object expansion, LispEnvironment global, int version) {
+            return new CallTarget(expansion, null, global, version);
+        }
+
+        /**
+         * Crea el destino de una llamada a función de usuario.
+         *
+         * @param function Función llamada, o null si debe buscarse en cada llamada
+         * @param global Entorno global
+         * @param version Versión de las definiciones
+         * @return Nuevo destino
+         */
+        public static CallTarget forFunction(FunctionDefinition function, LispEnvironment global, int version) {
+            return new CallTarget(null, function, global, version);
+        }
+
+        /**
+         * Obtiene la expansión de macro.
+         *
+         * @return Expansión, o null si el sitio no llama a una macro
+         */
+        public Object getExpansion() {
+            return expansion;
+        }
+
+        /**
+         * Obtiene la función llamada.
+         *
+         * @return Definición de la función, o null si no se pudo guardar
+         */
+        public FunctionDefinition getFunction() {
+            return function;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package lisp.interpreter;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Tabla de consolidación (hash-consing) de datos constantes. Convierte un
+ * dato citado en listas inmutables y devuelve, para cada contenido, siempre
+ * la misma instancia: los patrones literales repetidos de un archivo de
+ * reglas ocupan memoria una sola vez, y equal entre dos datos consolidados
+ * se decide por identidad.
+ *
+ * <p>La tabla es global y guarda referencias débiles: una lista sale de la
+ * tabla cuando ninguna forma la usa.</p>
+ */
+public final class LispHashCons {
+
+    private static final Map<Object, WeakReference<Object>> TABLE = new WeakHashMap<>();
+
+    private LispHashCons() {
+    }
+
+    /**
+     * Obtiene la versión consolidada de un dato: las listas (y sublistas)
+     * pasan a ser LispConstantList o LispNumberList compartidas; los átomos
+     * se devuelven sin cambios.
+     *
+     * @param datum Dato leído por el parser
+     * @return Instancia canónica del dato
+     */
+    public static Object intern(Object datum) {
+        if (!(datum instanceof List) || isInterned(datum)) {
+            return datum;
+        }
+
+        List<?> list = (List<?>) datum;
+        if (list.isEmpty()) {
+            return list;
+        }
+
+        Object[] elements = new Object[list.size()];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = intern(list.get(i));
+        }
+
+        LispNumberList numbers = LispNumberList.of(Arrays.asList(elements));
+        return canonical(numbers != null ? numbers : new LispConstantList(elements));
+    }
+
+    private static Object canonical(Object candidate) {
+        synchronized (TABLE) {
+            WeakReference<Object> ref = TABLE.get(candidate);
+            Object existing = ref != null ? ref.get() : null;
+            if (existing != null) {
+                return existing;
+            }
+
+            if (candidate instanceof LispNumberList) {
+                ((LispNumberList) candidate).markInterned();
+            } else {
+                ((LispConstantList) candidate).markInterned();
+            }
+            TABLE.put(candidate, new WeakReference<>(candidate));
+            return candidate;
+        }
+    }
+
+    /**
+     * Indica si un valor es una lista canónica de la tabla.
+     *
+     * @param value Valor a consultar
+     * @return true si es una lista consolidada
+     */
+    public static boolean isInterned(Object value) {
+        if (value instanceof LispConstantList) {
+            return ((LispConstantList) value).isInterned();
+        }
+        return value instanceof LispNumberList && ((LispNumberList) value).isInterned();
+    }
+
+    /**
+     * Obtiene el número de listas distintas en la tabla.
+     *
+     * @return Número de listas vivas
+     */
+    public static int size() {
+        synchronized (TABLE) {
+            return TABLE.size();
+        }
+    }
+}
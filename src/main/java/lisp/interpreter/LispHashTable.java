@@ -0,0 +1,261 @@
+package lisp.interpreter;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Tabla hash del lenguaje LISP con direccionamiento abierto.
+ * Las llaves enteras se guardan en un arreglo int[] separado para no crear
+ * objetos en caja. Las demás llaves se comparan primero por identidad
+ * (los símbolos del lector ya están internados) y luego con la misma
+ * igualdad que el predicado equal del evaluador.
+ */
+public final class LispHashTable {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Llaves enteras; una ranura está libre si su valor es null */
+    private int[] intKeys = new int[INITIAL_CAPACITY];
+    private Object[] intValues = new Object[INITIAL_CAPACITY];
+    private int intCount;
+
+    /** Llaves generales (símbolos, listas, decimales...) */
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int count;
+
+    /**
+     * Obtiene el valor asociado a una llave.
+     *
+     * @param key Llave a buscar
+     * @return Valor asociado o null si la llave no existe
+     */
+    public Object get(Object key) {
+        if (key instanceof Integer) {
+            int k = (Integer) key;
+            int mask = intKeys.length - 1;
+            for (int i = mix(k) & mask; intValues[i] != null; i = (i + 1) & mask) {
+                if (intKeys[i] == k) {
+                    return intValues[i];
+                }
+            }
+            return null;
+        }
+
+        int mask = keys.length - 1;
+        for (int i = mix(key.hashCode()) & mask; keys[i] != null; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == key || k.equals(key)) {
+                return values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Asocia un valor a una llave, reemplazando el anterior si existía.
+     *
+     * @param key Llave
+     * @param value Valor (no puede ser null)
+     * @return El valor asignado
+     */
+    public Object put(Object key, Object value) {
+        if (key instanceof Integer) {
+            if ((intCount + 1) * 2 > intKeys.length) {
+                resizeInts();
+            }
+
+            int k = (Integer) key;
+            int mask = intKeys.length - 1;
+            int i = mix(k) & mask;
+            while (intValues[i] != null) {
+                if (intKeys[i] == k) {
+                    intValues[i] = value;
+                    return value;
+                }
+                i = (i + 1) & mask;
+            }
+
+            intKeys[i] = k;
+            intValues[i] = value;
+            intCount++;
+            return value;
+        }
+
+        if ((count + 1) * 2 > keys.length) {
+            resizeObjects();
+        }
+
+        // La llave se guarda tal cual: los símbolos del lector ya llegan
+        // internados y coinciden por identidad, las demás cadenas por equals
+        int mask = keys.length - 1;
+        int i = mix(key.hashCode()) & mask;
+        while (keys[i] != null) {
+            Object k = keys[i];
+            if (k == key || k.equals(key)) {
+                values[i] = value;
+                return value;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+        count++;
+        return value;
+    }
+
+    /**
+     * Elimina una llave de la tabla.
+     *
+     * @param key Llave a eliminar
+     * @return true si la llave existía
+     */
+    public boolean remove(Object key) {
+        if (key instanceof Integer) {
+            int k = (Integer) key;
+            int mask = intKeys.length - 1;
+            for (int i = mix(k) & mask; intValues[i] != null; i = (i + 1) & mask) {
+                if (intKeys[i] == k) {
+                    removeIntSlot(i);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        int mask = keys.length - 1;
+        for (int i = mix(key.hashCode()) & mask; keys[i] != null; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == key || k.equals(key)) {
+                removeObjectSlot(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Obtiene el número de entradas de la tabla.
+     *
+     * @return Número de llaves
+     */
+    public int size() {
+        return intCount + count;
+    }
+
+    /**
+     * Recorre todas las entradas de la tabla.
+     * Se recorre una copia de las ranuras, así que la acción puede modificar
+     * la tabla sin afectar el recorrido.
+     *
+     * @param action Acción a ejecutar con cada llave y valor
+     */
+    public void forEach(BiConsumer<Object, Object> action) {
+        int[] ik = intKeys.clone();
+        Object[] iv = intValues.clone();
+        for (int i = 0; i < iv.length; i++) {
+            if (iv[i] != null) {
+                action.accept(ik[i], iv[i]);
+            }
+        }
+
+        Object[] k = keys.clone();
+        Object[] v = values.clone();
+        for (int i = 0; i < k.length; i++) {
+            if (k[i] != null) {
+                action.accept(k[i], v[i]);
+            }
+        }
+    }
+
+    /**
+     * Elimina una ranura entera desplazando hacia atrás las llaves siguientes
+     * de su secuencia de sondeo, para no necesitar marcas de borrado.
+     */
+    private void removeIntSlot(int slot) {
+        int mask = intKeys.length - 1;
+        int hole = slot;
+        int i = (slot + 1) & mask;
+
+        while (intValues[i] != null) {
+            int home = mix(intKeys[i]) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                intKeys[hole] = intKeys[i];
+                intValues[hole] = intValues[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+
+        intValues[hole] = null;
+        intCount--;
+    }
+
+    private void removeObjectSlot(int slot) {
+        int mask = keys.length - 1;
+        int hole = slot;
+        int i = (slot + 1) & mask;
+
+        while (keys[i] != null) {
+            int home = mix(keys[i].hashCode()) & mask;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[hole] = null;
+        values[hole] = null;
+        count--;
+    }
+
+    private void resizeInts() {
+        int[] oldKeys = intKeys;
+        Object[] oldValues = intValues;
+        intKeys = new int[oldKeys.length * 2];
+        intValues = new Object[oldKeys.length * 2];
+
+        int mask = intKeys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = mix(oldKeys[j]) & mask;
+                while (intValues[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                intKeys[i] = oldKeys[j];
+                intValues[i] = oldValues[j];
+            }
+        }
+    }
+
+    private void resizeObjects() {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new Object[oldKeys.length * 2];
+        values = new Object[oldKeys.length * 2];
+
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != null) {
+                int i = mix(oldKeys[j].hashCode()) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private static int mix(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return "#<hash-table " + size() + ">";
+    }
+}
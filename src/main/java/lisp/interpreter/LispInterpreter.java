@@ -1,5 +1,6 @@
 package lisp.interpreter;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import lisp.environment.LispEnvironment;
@@ -13,24 +14,48 @@ import lisp.environment.LispEnvironment;
  */
 public class LispInterpreter {
     
-    private final LispTokenizer tokenizer;
-    private final LispParser parser;
     private final LispEvaluator evaluator;
+    private final LispChecker checker;
     private final LispEnvironment globalEnv;
     
+    /** Si el parser consolida los datos citados (ver LispHashCons) */
+    private volatile boolean hashConsing = Boolean.getBoolean("lisp.hashcons");
+    
     /**
      * Constructor que inicializa todos los componentes del intérprete.
      */
     public LispInterpreter() {
-        this.tokenizer = new LispTokenizer();
-        this.parser = new LispParser();
         this.evaluator = new LispEvaluator();
+        this.checker = new LispChecker();
         this.globalEnv = new LispEnvironment();
         
         // Inicializar el entorno global con valores predefinidos
         initializeEnvironment();
     }
     
+    /**
+     * Constructor para una copia: comparte el evaluador (y con él el código
+     * compilado) pero tiene su propio entorno global.
+     */
+    private LispInterpreter(LispEvaluator evaluator, LispEnvironment globalEnv) {
+        this.evaluator = evaluator;
+        this.checker = new LispChecker();
+        this.globalEnv = globalEnv;
+    }
+    
+    /**
+     * Crea un intérprete con una copia del entorno global en O(1). Las
+     * definiciones hechas en la copia no afectan a este intérprete ni al
+     * revés, así que sirve como entorno aislado para cada solicitud.
+     * 
+     * @return Nuevo intérprete con el estado actual
+     */
+    public LispInterpreter fork() {
+        LispInterpreter copy = new LispInterpreter(evaluator, globalEnv.fork());
+        copy.hashConsing = hashConsing;
+        return copy;
+    }
+    
     /**
      * Inicializa el entorno global con valores predefinidos.
      */
@@ -39,6 +64,64 @@ public class LispInterpreter {
         globalEnv.setVariable("nil", "nil");
     }
     
+    /**
+     * Activa o desactiva el conteo de ejecuciones por línea (compartido con
+     * las copias creadas con fork).
+     * 
+     * @param profile Perfil donde contar, o null para desactivarlo
+     */
+    public void setLineProfile(LispLineProfile profile) {
+        evaluator.setLineProfile(profile);
+    }
+    
+    /**
+     * Activa la consolidación (hash-consing) de los datos citados en las
+     * expresiones que se lean a partir de ahora.
+     * 
+     * @param enabled true para consolidar los datos citados
+     */
+    public void setHashConsing(boolean enabled) {
+        this.hashConsing = enabled;
+    }
+    
+    /**
+     * Carga un programa completo (el contenido de un archivo): evalúa en
+     * orden cada expresión de nivel superior. A diferencia de eval, las
+     * posiciones de los errores y del perfil de líneas son líneas del
+     * programa. Se detiene en el primer error.
+     * 
+     * @param source Código fuente del programa
+     * @return Resultados de cada expresión
+     * @throws LispException si ocurre un error en alguna expresión
+     */
+    public List<Object> load(CharSequence source) {
+        List<Object> results = new ArrayList<>();
+        try {
+            LispParser parser = newParser();
+            List<Object> forms = parser.parseProgram(source);
+            LispSourceMap sourceMap = parser.getSourceMap();
+            
+            for (Object form : forms) {
+                checker.check(form, globalEnv, sourceMap);
+                evaluator.resetSteps();
+                results.add(evaluator.evaluate(form, globalEnv, sourceMap));
+            }
+            return results;
+        } catch (LispException e) {
+            throw e;
+        } catch (LispThrow signal) {
+            throw new LispException("Error: throw sin catch para la etiqueta " + signal.getTag());
+        } catch (Exception e) {
+            throw new LispException("Error al evaluar: " + e.getMessage(), e);
+        }
+    }
+    
+    private LispParser newParser() {
+        LispParser parser = new LispParser();
+        parser.setHashConsing(hashConsing);
+        return parser;
+    }
+    
     /**
      * Evalúa una expresión LISP y devuelve el resultado.
      * 
@@ -48,29 +131,26 @@ public class LispInterpreter {
      */
     public Object eval(String input) {
         try {
-            // Tokenizar con información de posición para mejor manejo de errores
-            List<LispTokenizer.Token> tokens = tokenizer.tokenizeWithPosition(input);
+            // Leer la expresión conservando las posiciones de sus formas en el
+            // código fuente (un parser por evaluación: varios hilos pueden
+            // compartir el intérprete)
+            LispParser parser = newParser();
+            Object parsed = parser.parse(input);
             
-            if (tokens.isEmpty()) {
+            if (parsed == null) {
                 return null;
             }
-            
-            // Convertir los tokens a String
-            StringBuilder textoTokens = new StringBuilder();
-            for (LispTokenizer.Token token : tokens) {
-                textoTokens.append(token.getValue()).append(" ");
-            }
-            String expresionTexto = textoTokens.toString().trim();
 
-            // Parsear tokens a una estructura de datos usando el texto reconstruido
-            // CAMBIO: Crear una instancia de LispParser antes de llamar a parse
-            LispParser parser = new LispParser();
-            Object parsed = parser.parse(expresionTexto);
+            // Verificar formas y número de argumentos antes de evaluar
+            checker.check(parsed, globalEnv, parser.getSourceMap());
 
-            // Evaluar la estructura de datos
-            return evaluator.evaluate(parsed, globalEnv);
+            // Evaluar la estructura de datos (con el límite de iteraciones completo)
+            evaluator.resetSteps();
+            return evaluator.evaluate(parsed, globalEnv, parser.getSourceMap());
         } catch (LispException e) {
             throw e; // Propagar excepciones específicas de LISP
+        } catch (LispThrow signal) {
+            throw new LispException("Error: throw sin catch para la etiqueta " + signal.getTag());
         } catch (Exception e) {
             throw new LispException("Error al evaluar: " + e.getMessage(), e);
         }
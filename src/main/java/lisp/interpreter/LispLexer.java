@@ -0,0 +1,378 @@
+package lisp.interpreter;
+
+/**
+ * Analizador léxico sin copias. Recorre el texto como un cursor: cada
+ * llamada a {@link #next()} avanza al siguiente token y solo guarda su tipo
+ * y sus posiciones (inicio y fin en el texto, línea y columna). No crea un
+ * objeto por token ni una lista de tokens; el texto se materializa solo para
+ * los símbolos, que además se internan, así que cada nombre distinto existe
+ * una sola vez. Los enteros se convierten directamente desde los caracteres.
+ *
+ * <p>Reconoce los mismos tokens que {@link LispTokenizer}: paréntesis,
+ * apóstrofe, backquote, coma y ",@" como tokens propios; los espacios
+ * separan tokens y ";" comienza un comentario hasta el final de la
+ * línea.</p>
+ */
+public final class LispLexer {
+
+    /** Fin del texto */
+    public static final int EOF = 0;
+    public static final int OPEN = 1;
+    public static final int CLOSE = 2;
+    public static final int QUOTE = 3;
+    public static final int QUASIQUOTE = 4;
+    public static final int UNQUOTE = 5;
+    public static final int UNQUOTE_SPLICING = 6;
+    /** Número o símbolo */
+    public static final int ATOM = 7;
+
+    // Clases de caracteres
+    private static final byte PART = 0;
+    private static final byte SPACE = 1;
+    private static final byte NEWLINE = 2;
+    private static final byte DELIMITER = 3;
+    private static final byte COMMENT = 4;
+
+    /** Clase de cada carácter ASCII (los demás se clasifican con Character) */
+    private static final byte[] CLASSES = new byte[128];
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            CLASSES[c] = Character.isWhitespace(c) ? SPACE : PART;
+        }
+        CLASSES['\n'] = NEWLINE;
+        CLASSES['('] = DELIMITER;
+        CLASSES[')'] = DELIMITER;
+        CLASSES['\''] = DELIMITER;
+        CLASSES['`'] = DELIMITER;
+        CLASSES[','] = DELIMITER;
+        CLASSES[';'] = COMMENT;
+    }
+
+    private CharSequence input;
+    private int length;
+    private int offset;
+    private int line;
+    private int lineStart;
+
+    private int kind;
+    private int start;
+    private int end;
+    private int tokenLine;
+    private int tokenColumn;
+
+    /** Símbolos ya leídos, buscados por su rango de caracteres sin crear cadenas */
+    private String[] symbols = new String[64];
+    private int symbolCount;
+
+    /**
+     * Crea un analizador sobre un texto.
+     *
+     * @param input Texto a analizar (String, StringBuilder, CharBuffer...)
+     */
+    public LispLexer(CharSequence input) {
+        reset(input);
+    }
+
+    /**
+     * Reinicia el cursor al comienzo de otro texto. Conserva los símbolos
+     * ya internados.
+     *
+     * @param input Texto a analizar
+     */
+    public void reset(CharSequence input) {
+        this.input = input;
+        this.length = input.length();
+        this.offset = 0;
+        this.line = 1;
+        this.lineStart = 0;
+        this.kind = EOF;
+    }
+
+    private static byte classOf(char c) {
+        if (c < 128) {
+            return CLASSES[c];
+        }
+        return Character.isWhitespace(c) ? SPACE : PART;
+    }
+
+    /**
+     * Avanza al siguiente token.
+     *
+     * @return Tipo del token (EOF al terminar el texto)
+     */
+    public int next() {
+        while (offset < length) {
+            char c = input.charAt(offset);
+            switch (classOf(c)) {
+                case NEWLINE:
+                    offset++;
+                    line++;
+                    lineStart = offset;
+                    break;
+                case SPACE:
+                    offset++;
+                    break;
+                case COMMENT:
+                    while (offset < length && input.charAt(offset) != '\n') {
+                        offset++;
+                    }
+                    break;
+                case DELIMITER:
+                    return delimiter(c);
+                default:
+                    return scanAtom();
+            }
+        }
+        start = end = offset;
+        tokenLine = line;
+        tokenColumn = offset - lineStart + 1;
+        return kind = EOF;
+    }
+
+    private int delimiter(char c) {
+        mark();
+        offset++;
+        switch (c) {
+            case '(':
+                kind = OPEN;
+                break;
+            case ')':
+                kind = CLOSE;
+                break;
+            case '\'':
+                kind = QUOTE;
+                break;
+            case '`':
+                kind = QUASIQUOTE;
+                break;
+            default:
+                if (offset < length && input.charAt(offset) == '@') {
+                    offset++;
+                    kind = UNQUOTE_SPLICING;
+                } else {
+                    kind = UNQUOTE;
+                }
+                break;
+        }
+        end = offset;
+        return kind;
+    }
+
+    private int scanAtom() {
+        mark();
+        while (offset < length && classOf(input.charAt(offset)) == PART) {
+            offset++;
+        }
+        end = offset;
+        return kind = ATOM;
+    }
+
+    private void mark() {
+        start = offset;
+        tokenLine = line;
+        tokenColumn = offset - lineStart + 1;
+    }
+
+    /**
+     * Tipo del token actual.
+     */
+    public int kind() {
+        return kind;
+    }
+
+    /**
+     * Posición en el texto donde comienza el token actual.
+     */
+    public int start() {
+        return start;
+    }
+
+    /**
+     * Posición en el texto siguiente al final del token actual.
+     */
+    public int end() {
+        return end;
+    }
+
+    /**
+     * Línea donde comienza el token actual (desde 1).
+     */
+    public int line() {
+        return tokenLine;
+    }
+
+    /**
+     * Columna donde comienza el token actual (desde 1).
+     */
+    public int column() {
+        return tokenColumn;
+    }
+
+    /**
+     * Texto del token actual. Los átomos se devuelven como símbolos
+     * internados (también los números, sin convertirlos).
+     *
+     * @return Texto del token
+     */
+    public String text() {
+        switch (kind) {
+            case OPEN:
+                return "(";
+            case CLOSE:
+                return ")";
+            case QUOTE:
+                return "'";
+            case QUASIQUOTE:
+                return "`";
+            case UNQUOTE:
+                return ",";
+            case UNQUOTE_SPLICING:
+                return ",@";
+            case ATOM:
+                return symbol();
+            default:
+                return "";
+        }
+    }
+
+    /**
+     * Valor del átomo actual: Integer o Double si es un número (con las
+     * mismas reglas que Double.parseDouble), y si no el símbolo internado.
+     *
+     * @return Número o símbolo
+     */
+    public Object atom() {
+        char first = input.charAt(start);
+        int i = start;
+        if ((first == '+' || first == '-') && end - start > 1) {
+            i++;
+        }
+        char c = input.charAt(i);
+
+        if (c >= '0' && c <= '9') {
+            Object integer = parseInteger();
+            if (integer != null) {
+                return integer;
+            }
+            // Decimales, exponentes, sufijos de Java: lo decide parseDouble
+            try {
+                return Double.parseDouble(input.subSequence(start, end).toString());
+            } catch (NumberFormatException e) {
+                return symbol();
+            }
+        }
+        if (c == '.' || matches(i, "NaN") || matches(i, "Infinity")) {
+            try {
+                return Double.parseDouble(input.subSequence(start, end).toString());
+            } catch (NumberFormatException e) {
+                return symbol();
+            }
+        }
+        return symbol();
+    }
+
+    private boolean matches(int from, String word) {
+        if (end - from != word.length()) {
+            return false;
+        }
+        for (int k = 0; k < word.length(); k++) {
+            if (input.charAt(from + k) != word.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convierte el token a Integer si es un entero en el rango de int
+     * (lo mismo que acepta Integer.parseInt), o devuelve null.
+     */
+    private Integer parseInteger() {
+        int i = start;
+        boolean negative = false;
+        char first = input.charAt(i);
+        if (first == '+' || first == '-') {
+            negative = first == '-';
+            i++;
+        }
+        if (i == end) {
+            return null;
+        }
+
+        long value = 0;
+        for (; i < end; i++) {
+            char c = input.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            value = value * 10 + (c - '0');
+            if (value > 1L + Integer.MAX_VALUE) {
+                return null;
+            }
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return null;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Texto del átomo actual como símbolo internado. Si el analizador ya vio
+     * el mismo nombre, lo encuentra sin crear una cadena.
+     *
+     * @return Símbolo
+     */
+    public String symbol() {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + input.charAt(i);
+        }
+
+        int mask = symbols.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        String candidate;
+        while ((candidate = symbols[slot]) != null) {
+            if (candidate.hashCode() == hash && sameText(candidate)) {
+                return candidate;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        String symbol = input.subSequence(start, end).toString().intern();
+        symbols[slot] = symbol;
+        if (2 * ++symbolCount > symbols.length) {
+            growSymbols();
+        }
+        return symbol;
+    }
+
+    private boolean sameText(String candidate) {
+        if (candidate.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < candidate.length(); i++) {
+            if (candidate.charAt(i) != input.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growSymbols() {
+        String[] old = symbols;
+        symbols = new String[2 * old.length];
+        int mask = symbols.length - 1;
+        for (String symbol : old) {
+            if (symbol != null) {
+                int hash = symbol.hashCode();
+                int slot = (hash ^ (hash >>> 16)) & mask;
+                while (symbols[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                symbols[slot] = symbol;
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package lisp.interpreter;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Contador de ejecuciones por línea del código fuente. Cuando el evaluador
+ * tiene un perfil activo, cada forma que evalúa suma uno a la línea donde
+ * comienza, así que al terminar se pueden consultar las líneas más
+ * ejecutadas de un archivo cargado con {@link LispInterpreter#load(CharSequence)}.
+ *
+ * <p>Mientras hay un perfil activo las funciones no se compilan (el código
+ * compilado no pasa por el evaluador y sus líneas no se contarían). Con
+ * varios hilos los conteos son aproximados: se suman sin sincronizar.</p>
+ */
+public class LispLineProfile {
+
+    /** Posiciones de todas las formas que se pueden contar (se reemplaza, no se modifica) */
+    private volatile LispSourceMap lines = new LispSourceMap();
+
+    /** Última tabla agregada y su tamaño, para no volver a copiarla sin cambios */
+    private LispSourceMap lastIncluded;
+    private int lastIncludedSize;
+
+    /** Ejecuciones por número de línea */
+    private volatile long[] counts = new long[64];
+
+    /**
+     * Agrega las posiciones de las formas de un análisis.
+     */
+    synchronized void include(LispSourceMap sourceMap) {
+        if (sourceMap != null && (sourceMap != lastIncluded || sourceMap.size() != lastIncludedSize)) {
+            LispSourceMap merged = new LispSourceMap();
+            merged.addAll(lines);
+            merged.addAll(sourceMap);
+            lines = merged;
+            lastIncluded = sourceMap;
+            lastIncludedSize = sourceMap.size();
+        }
+    }
+
+    /**
+     * Cuenta una ejecución de la forma, si su posición es conocida.
+     */
+    void hit(Object form) {
+        int line = lines.getLine(form);
+        if (line > 0) {
+            long[] current = counts;
+            if (line >= current.length) {
+                current = grow(line);
+            }
+            current[line]++;
+        }
+    }
+
+    private synchronized long[] grow(int line) {
+        if (line >= counts.length) {
+            counts = Arrays.copyOf(counts, Math.max(2 * counts.length, line + 1));
+        }
+        return counts;
+    }
+
+    /**
+     * Obtiene cuántas formas que comienzan en una línea se evaluaron.
+     *
+     * @param line Número de línea (desde 1)
+     * @return Número de ejecuciones
+     */
+    public long getCount(int line) {
+        long[] current = counts;
+        return line > 0 && line < current.length ? current[line] : 0;
+    }
+
+    /**
+     * Obtiene las líneas más ejecutadas, de mayor a menor número de
+     * ejecuciones (las de igual número, en orden de línea).
+     *
+     * @param limit Número máximo de líneas
+     * @return Números de línea
+     */
+    public int[] getHotLines(int limit) {
+        long[] current = counts;
+        return IntStream.range(1, current.length)
+            .filter(line -> current[line] > 0)
+            .boxed()
+            .sorted((a, b) -> current[a] != current[b] ? Long.compare(current[b], current[a]) : a - b)
+            .limit(limit)
+            .mapToInt(Integer::intValue)
+            .toArray();
+    }
+
+    /**
+     * Describe las líneas más ejecutadas, una por renglón, con el texto de
+     * cada una.
+     *
+     * @param source Código fuente que se cargó
+     * @param limit Número máximo de líneas
+     * @return Reporte legible
+     */
+    public String report(String source, int limit) {
+        String[] text = source.split("\n", -1);
+        StringBuilder report = new StringBuilder();
+        for (int line : getHotLines(limit)) {
+            String content = line <= text.length ? text[line - 1].trim() : "";
+            report.append(String.format("%6d  %10d  %s%n", line, getCount(line), content));
+        }
+        return report.toString();
+    }
+}
@@ -0,0 +1,20 @@
+package lisp.interpreter;
+
+import lisp.environment.LispEnvironment;
+
+/**
+ * Nodo de código compilado por LispCompiler.
+ * Cada nodo ejecuta directamente una subexpresión, sin volver a consultar
+ * el mapa de operadores ni a recorrer la lista que la representa.
+ */
+@FunctionalInterface
+public interface LispNode {
+
+    /**
+     * Ejecuta el nodo.
+     *
+     * @param env Entorno de la llamada
+     * @return Valor de la expresión
+     */
+    Object execute(LispEnvironment env);
+}
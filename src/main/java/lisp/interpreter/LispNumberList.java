@@ -0,0 +1,150 @@
+package lisp.interpreter;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Lista inmutable de números leída de un dato citado, como '(1 2 3).
+ * Guarda los elementos en un arreglo primitivo del tamaño exacto (int[] o
+ * double[]) en lugar de una lista de números en caja: un millón de enteros
+ * ocupan 4 MB en vez de unos 20 MB. Para el resto del intérprete es una
+ * lista como cualquier otra; los elementos se ponen en caja al leerlos.
+ */
+public final class LispNumberList extends AbstractList<Object> implements RandomAccess {
+
+    /** Elementos enteros (null si la lista es de punto flotante) */
+    private final int[] ints;
+
+    /** Elementos de punto flotante (null si la lista es entera) */
+    private final double[] doubles;
+
+    /** Hash calculado la primera vez que se pide (0 si todavía no) */
+    private int hash;
+
+    /** Si es la instancia compartida por todas las listas iguales (ver LispHashCons) */
+    private boolean interned;
+
+    private LispNumberList(int[] ints, double[] doubles) {
+        this.ints = ints;
+        this.doubles = doubles;
+    }
+
+    /**
+     * Crea la lista compacta con los elementos dados, si todos son enteros
+     * o todos son decimales.
+     *
+     * @param elements Elementos de la lista
+     * @return Lista compacta, o null si la lista está vacía o es mixta
+     */
+    static LispNumberList of(List<?> elements) {
+        if (elements.isEmpty()) {
+            return null;
+        }
+
+        boolean allInts = true;
+        boolean allDoubles = true;
+        for (Object element : elements) {
+            allInts &= element instanceof Integer;
+            allDoubles &= element instanceof Double;
+        }
+
+        if (allInts) {
+            int[] values = new int[elements.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (Integer) elements.get(i);
+            }
+            return new LispNumberList(values, null);
+        }
+        if (allDoubles) {
+            double[] values = new double[elements.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = (Double) elements.get(i);
+            }
+            return new LispNumberList(null, values);
+        }
+        return null;
+    }
+
+    /**
+     * Marca la lista como la instancia canónica de la tabla de LispHashCons.
+     */
+    void markInterned() {
+        interned = true;
+    }
+
+    /**
+     * Indica si la lista es la instancia canónica de su contenido.
+     */
+    boolean isInterned() {
+        return interned;
+    }
+
+    /**
+     * Indica si la lista guarda valores de punto flotante.
+     *
+     * @return true si los elementos son Double
+     */
+    public boolean isDouble() {
+        return doubles != null;
+    }
+
+    /**
+     * Obtiene un elemento entero sin ponerlo en caja.
+     *
+     * @param index Posición del elemento
+     * @return Valor entero
+     */
+    public int getInt(int index) {
+        return ints[index];
+    }
+
+    /**
+     * Obtiene un elemento como double sin ponerlo en caja.
+     *
+     * @param index Posición del elemento
+     * @return Valor del elemento
+     */
+    public double getDouble(int index) {
+        return doubles != null ? doubles[index] : ints[index];
+    }
+
+    @Override
+    public Object get(int index) {
+        return doubles != null ? (Object) doubles[index] : (Object) ints[index];
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = super.hashCode();
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
+        if (interned && LispHashCons.isInterned(other)) {
+            // Dos instancias canónicas distintas nunca son iguales
+            return false;
+        }
+        if (other instanceof LispNumberList) {
+            LispNumberList numbers = (LispNumberList) other;
+            return doubles != null
+                ? Arrays.equals(doubles, numbers.doubles)
+                : Arrays.equals(ints, numbers.ints);
+        }
+        return super.equals(other);
+    }
+
+    @Override
+    public int size() {
+        return doubles != null ? doubles.length : ints.length;
+    }
+}
@@ -0,0 +1,563 @@
+package lisp.interpreter;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import lisp.environment.LispEnvironment;
+import lisp.environment.LispEnvironment.FunctionDefinition;
+
+/**
+ * Pase de optimización sobre el árbol de una expresión.
+ * Pliega llamadas a operadores puros cuyos argumentos son constantes, como
+ * (* 60 60 24), y simplifica las formas cond cuyas pruebas son constantes.
+ * Se aplica al cuerpo de una función cuando se ejecuta defun, de modo que
+ * ese trabajo no se repite en cada llamada. También puede expandir en línea
+ * las llamadas a funciones auxiliares pequeñas.
+ */
+public class LispOptimizer {
+
+    /** Operadores sin efectos secundarios que se pueden evaluar de antemano */
+    private static final Set<String> PURE_OPERATORS = Set.of("+", "-", "*", "/", "equal", "=", "<", ">", "atom");
+
+    /** Tamaño máximo (en nodos) del cuerpo de una función que se expande en línea */
+    private static final int MAX_INLINE_SIZE = 24;
+
+    private final LispEvaluator evaluator;
+
+    /** Destino de los mensajes de depuración (null si está desactivado) */
+    private Consumer<String> reporter;
+
+    /**
+     * Constructor. La depuración se activa con la propiedad del sistema
+     * lisp.optimizer.debug.
+     *
+     * @param evaluator Evaluador usado para plegar constantes
+     */
+    public LispOptimizer(LispEvaluator evaluator) {
+        this.evaluator = evaluator;
+        if (Boolean.getBoolean("lisp.optimizer.debug")) {
+            this.reporter = message -> System.err.println("[optimizador] " + message);
+        }
+    }
+
+    /**
+     * Activa el modo de depuración, que informa cada cambio realizado.
+     *
+     * @param reporter Destino de los mensajes, o null para desactivarlo
+     */
+    public void setReporter(Consumer<String> reporter) {
+        this.reporter = reporter;
+    }
+
+    /**
+     * Optimiza una expresión. Las partes que no cambian se comparten con la
+     * expresión original.
+     *
+     * @param expr Expresión a optimizar
+     * @param env Entorno donde se definirá el código (para reconocer macros)
+     * @return Expresión optimizada
+     */
+    public Object optimize(Object expr, LispEnvironment env) {
+        return optimize(expr, env, null);
+    }
+
+    /**
+     * Optimiza el cuerpo de una función y además expande en línea las
+     * llamadas a funciones pequeñas, no recursivas y sin efectos
+     * secundarios. Las funciones expandidas se registran en dependencies
+     * para poder desoptimizar si alguna se redefine.
+     *
+     * @param functionName Nombre de la función que se está definiendo
+     * @param body Cuerpo de la función
+     * @param env Entorno donde se define la función
+     * @param dependencies Mapa donde se registran las funciones expandidas
+     * @return Cuerpo optimizado con las llamadas expandidas
+     */
+    public Object inline(String functionName, Object body, LispEnvironment env,
+                         Map<String, FunctionDefinition> dependencies) {
+        // Con funciones locales el destino de una llamada depende del entorno
+        if (env.hasLocalFunctions()) {
+            return optimize(body, env, null);
+        }
+        return optimize(body, env, new Inlining(functionName, dependencies));
+    }
+
+    private Object optimize(Object expr, LispEnvironment env, Inlining inlining) {
+        Object result = rewrite(expr, env, inlining);
+        if (result != expr && result instanceof List) {
+            // La forma nueva ocupa el lugar de la original en el código fuente
+            evaluator.relocate(expr, result);
+        }
+        return result;
+    }
+
+    private Object rewrite(Object expr, LispEnvironment env, Inlining inlining) {
+        if (!(expr instanceof List) || ((List<?>) expr).isEmpty()) {
+            return expr;
+        }
+
+        List<?> list = (List<?>) expr;
+        if (!(list.get(0) instanceof String)) {
+            return optimizeFrom(list, 0, env, inlining);
+        }
+
+        String operator = (String) list.get(0);
+        switch (operator) {
+            // Formas cuyo contenido no es código que se evalúe aquí
+            case "quote":
+            case "QUOTE":
+            case "quasiquote":
+            case "QUASIQUOTE":
+            case "defun":
+            case "DEFUN":
+            case "defmacro":
+            case "DEFMACRO":
+                return expr;
+            case "setq":
+            case "SETQ":
+            case "lambda":
+            case "LAMBDA":
+                return optimizeFrom(list, 2, env, inlining);
+            case "cond":
+            case "COND":
+                return optimizeCond(list, env, inlining);
+            case "let":
+            case "LET":
+            case "let*":
+            case "LET*":
+                return optimizeLet(list, env, inlining);
+            case "dotimes":
+            case "DOTIMES":
+            case "dolist":
+            case "DOLIST":
+            case "do":
+            case "DO":
+                return optimizeLoop(list, env, inlining);
+            default:
+                break;
+        }
+
+        // Los argumentos de una macro son código sin evaluar: no se tocan
+        if (env.getMacro(operator) != null) {
+            return expr;
+        }
+
+        List<?> optimized = optimizeFrom(list, 1, env, inlining);
+        if (PURE_OPERATORS.contains(operator) && allConstant(optimized)) {
+            return fold(optimized);
+        }
+        if (inlining != null && !evaluator.isOperator(operator)) {
+            Object inlined = tryInline(operator, optimized, env, inlining);
+            if (inlined != null) {
+                return inlined;
+            }
+        }
+        return optimized;
+    }
+
+    /**
+     * Intenta expandir en línea una llamada a función de usuario.
+     *
+     * @return El cuerpo sustituido, o null si la llamada no se puede expandir
+     */
+    private Object tryInline(String name, List<?> call, LispEnvironment env, Inlining inlining) {
+        if (name.equals(inlining.functionName)) {
+            return null;
+        }
+
+        FunctionDefinition callee = env.findFunction(name);
+        if (callee == null) {
+            return null;
+        }
+
+        List<String> params = callee.getParameters();
+        Object body = callee.getBody();
+        if (params.size() != call.size() - 1 || params.contains("&rest")
+                || countNodes(body) > MAX_INLINE_SIZE || !isPureCode(body)) {
+            return null;
+        }
+
+        // Cada argumento debe ser puro y, si no es un átomo, usarse exactamente
+        // una vez fuera de un cond para que se evalúe igual que en la llamada
+        for (int i = 0; i < params.size(); i++) {
+            Object arg = call.get(i + 1);
+            if (!isPureCode(arg)) {
+                return null;
+            }
+            if (arg instanceof List && !isQuote(arg) && countUnconditionalUses(body, params.get(i), false) != 1) {
+                return null;
+            }
+        }
+
+        Object substituted = substitute(body, params, call.subList(1, call.size()));
+        inlining.dependencies.put(name, callee);
+        report("llamada a " + name + " expandida en línea: " + show(call) + " => " + show(substituted));
+
+        // Plegar las constantes que aparezcan tras la sustitución
+        return optimize(substituted, env, null);
+    }
+
+    /**
+     * Verifica que una expresión solo use constantes, variables, quote, cond
+     * y operadores puros (sin llamadas a funciones de usuario ni asignaciones).
+     */
+    private boolean isPureCode(Object expr) {
+        if (!(expr instanceof List)) {
+            return true;
+        }
+
+        List<?> list = (List<?>) expr;
+        if (list.isEmpty() || isQuote(list)) {
+            return true;
+        }
+
+        Object head = list.get(0);
+        if ("cond".equals(head) || "COND".equals(head)) {
+            for (int i = 1; i < list.size(); i++) {
+                if (!(list.get(i) instanceof List) || ((List<?>) list.get(i)).size() != 2) {
+                    return false;
+                }
+                for (Object part : (List<?>) list.get(i)) {
+                    if (!isPureCode(part)) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        if (!PURE_OPERATORS.contains(head)) {
+            return false;
+        }
+        for (int i = 1; i < list.size(); i++) {
+            if (!isPureCode(list.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cuenta los usos de un parámetro; los usos dentro de un cond cuentan
+     * como dos porque pueden no evaluarse.
+     */
+    private int countUnconditionalUses(Object expr, String param, boolean conditional) {
+        if (param.equals(expr)) {
+            return conditional ? 2 : 1;
+        }
+        if (!(expr instanceof List) || isQuote(expr)) {
+            return 0;
+        }
+
+        List<?> list = (List<?>) expr;
+        boolean inCond = conditional || (!list.isEmpty() && ("cond".equals(list.get(0)) || "COND".equals(list.get(0))));
+        int uses = 0;
+        for (Object element : list) {
+            uses += countUnconditionalUses(element, param, inCond);
+        }
+        return uses;
+    }
+
+    /**
+     * Reemplaza los parámetros por los argumentos de la llamada.
+     */
+    private Object substitute(Object expr, List<String> params, List<?> args) {
+        if (expr instanceof String) {
+            int index = params.indexOf(expr);
+            return index >= 0 ? args.get(index) : expr;
+        }
+        if (!(expr instanceof List) || isQuote(expr)) {
+            return expr;
+        }
+
+        List<?> list = (List<?>) expr;
+        LispForm result = new LispForm(list.size());
+        for (Object element : list) {
+            result.add(substitute(element, params, args));
+        }
+        return result;
+    }
+
+    private int countNodes(Object expr) {
+        if (!(expr instanceof List)) {
+            return 1;
+        }
+
+        int count = 1;
+        for (Object element : (List<?>) expr) {
+            count += countNodes(element);
+        }
+        return count;
+    }
+
+    /**
+     * Optimiza los elementos de una lista a partir de una posición.
+     * Solo se crea una nueva forma si algún elemento cambió.
+     */
+    private List<?> optimizeFrom(List<?> list, int start, LispEnvironment env, Inlining inlining) {
+        LispForm result = null;
+
+        for (int i = start; i < list.size(); i++) {
+            Object element = list.get(i);
+            Object optimized = optimize(element, env, inlining);
+
+            if (optimized != element && result == null) {
+                result = new LispForm(list.size());
+                result.addAll(list.subList(0, i));
+            }
+            if (result != null) {
+                result.add(optimized);
+            }
+        }
+
+        return result != null ? result : list;
+    }
+
+    /**
+     * Evalúa una llamada pura con argumentos constantes. Si la evaluación
+     * falla (por ejemplo, división por cero) la forma se conserva para que
+     * el error ocurra en tiempo de ejecución.
+     */
+    private Object fold(List<?> form) {
+        Object value;
+        try {
+            value = evaluator.evaluate(form, new LispEnvironment());
+        } catch (LispException e) {
+            return form;
+        }
+
+        Object folded = value instanceof Number ? value : quote(value);
+        report(show(form) + " => " + show(folded));
+        return folded;
+    }
+
+    /**
+     * Optimiza los valores iniciales y el cuerpo de un let sin tocar los
+     * nombres de las variables.
+     */
+    private Object optimizeLet(List<?> list, LispEnvironment env, Inlining inlining) {
+        if (list.size() < 2 || !(list.get(1) instanceof List)) {
+            return list;
+        }
+
+        List<?> bindings = (List<?>) list.get(1);
+        LispForm newBindings = null;
+        for (int i = 0; i < bindings.size(); i++) {
+            Object binding = bindings.get(i);
+            Object optimized = binding;
+            if (binding instanceof List && ((List<?>) binding).size() == 2) {
+                optimized = optimizeFrom((List<?>) binding, 1, env, inlining);
+            }
+
+            if (optimized != binding && newBindings == null) {
+                newBindings = new LispForm(bindings.size());
+                newBindings.addAll(bindings.subList(0, i));
+            }
+            if (newBindings != null) {
+                newBindings.add(optimized);
+            }
+        }
+
+        List<?> body = optimizeFrom(list, 2, env, inlining);
+        if (newBindings == null) {
+            return body;
+        }
+        LispForm result = new LispForm(list.size());
+        result.addAll(body);
+        result.set(1, newBindings);
+        return result;
+    }
+
+    /**
+     * Optimiza un bucle sin tocar los nombres de sus variables: en dotimes y
+     * dolist los valores de la especificación, en do los de cada variable y
+     * la cláusula de fin, y en todos el cuerpo.
+     */
+    private Object optimizeLoop(List<?> list, LispEnvironment env, Inlining inlining) {
+        boolean isDo = "do".equals(list.get(0)) || "DO".equals(list.get(0));
+        if (list.size() < (isDo ? 3 : 2) || !(list.get(1) instanceof List)) {
+            return list;
+        }
+
+        Object header = list.get(1);
+        Object end = isDo ? list.get(2) : null;
+        if (isDo) {
+            List<?> specs = (List<?>) header;
+            LispForm newSpecs = null;
+            for (int i = 0; i < specs.size(); i++) {
+                Object spec = specs.get(i);
+                Object optimized = spec instanceof List && !((List<?>) spec).isEmpty()
+                    ? optimizeFrom((List<?>) spec, 1, env, inlining) : spec;
+                if (optimized != spec && newSpecs == null) {
+                    newSpecs = new LispForm(specs.size());
+                    newSpecs.addAll(specs.subList(0, i));
+                }
+                if (newSpecs != null) {
+                    newSpecs.add(optimized);
+                }
+            }
+            header = newSpecs != null ? newSpecs : header;
+            if (end instanceof List) {
+                end = optimizeFrom((List<?>) end, 0, env, inlining);
+            }
+        } else if (!((List<?>) header).isEmpty()) {
+            header = optimizeFrom((List<?>) header, 1, env, inlining);
+        }
+
+        List<?> body = optimizeFrom(list, isDo ? 3 : 2, env, inlining);
+        if (header == list.get(1) && (!isDo || end == list.get(2))) {
+            return body;
+        }
+        LispForm result = new LispForm(list.size());
+        result.addAll(body);
+        result.set(1, header);
+        if (isDo) {
+            result.set(2, end);
+        }
+        return result;
+    }
+
+    private Object optimizeCond(List<?> list, LispEnvironment env, Inlining inlining) {
+        // Una cond mal formada se deja igual para conservar el error en ejecución
+        for (int i = 1; i < list.size(); i++) {
+            if (!(list.get(i) instanceof List) || ((List<?>) list.get(i)).size() != 2) {
+                return list;
+            }
+        }
+
+        LispForm result = new LispForm(list.size());
+        result.add(list.get(0));
+        boolean changed = false;
+
+        for (int i = 1; i < list.size(); i++) {
+            List<?> clause = (List<?>) list.get(i);
+            Object test = "t".equals(clause.get(0)) ? "t" : optimize(clause.get(0), env, inlining);
+            Object value = optimize(clause.get(1), env, inlining);
+
+            if (isConstantFalse(test)) {
+                report("cláusula que nunca se cumple eliminada de cond: " + show(clause));
+                changed = true;
+                continue;
+            }
+
+            if (test != clause.get(0) || value != clause.get(1)) {
+                LispForm newClause = new LispForm(2);
+                newClause.add(test);
+                newClause.add(value);
+                result.add(newClause);
+                changed = true;
+            } else {
+                result.add(clause);
+            }
+
+            if (isConstantTrue(test)) {
+                if (i < list.size() - 1) {
+                    report("cláusulas inalcanzables eliminadas de cond después de " + show(clause.get(0)));
+                    changed = true;
+                }
+                break;
+            }
+        }
+
+        // Sin cláusulas la cond siempre devuelve nil
+        if (result.size() == 1) {
+            report(show(list) + " => nil");
+            return quote("nil");
+        }
+
+        // Si la primera prueba siempre se cumple, la cond es su resultado
+        List<?> first = (List<?>) result.get(1);
+        if (isConstantTrue(first.get(0))) {
+            report("cond reducida a " + show(first.get(1)));
+            return first.get(1);
+        }
+
+        return changed ? result : list;
+    }
+
+    private boolean allConstant(List<?> form) {
+        for (int i = 1; i < form.size(); i++) {
+            if (!isConstant(form.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isConstant(Object expr) {
+        if (expr instanceof Number) {
+            return true;
+        }
+        if (expr instanceof String) {
+            return ((String) expr).startsWith("\"");
+        }
+        return isQuote(expr);
+    }
+
+    private boolean isConstantTrue(Object test) {
+        return "t".equals(test) || (isConstant(test) && !isConstantFalse(test));
+    }
+
+    private boolean isConstantFalse(Object test) {
+        if ("nil".equals(test)) {
+            return true;
+        }
+        return isQuote(test) && "nil".equals(((List<?>) test).get(1));
+    }
+
+    private boolean isQuote(Object expr) {
+        if (!(expr instanceof List) || ((List<?>) expr).size() != 2) {
+            return false;
+        }
+        Object head = ((List<?>) expr).get(0);
+        return "quote".equals(head) || "QUOTE".equals(head);
+    }
+
+    private Object quote(Object value) {
+        LispForm form = new LispForm(2);
+        form.add("quote");
+        form.add(value);
+        return form;
+    }
+
+    private void report(String message) {
+        if (reporter != null) {
+            reporter.accept(message);
+        }
+    }
+
+    /**
+     * Muestra una expresión con la sintaxis de LISP.
+     */
+    private static String show(Object expr) {
+        if (!(expr instanceof List)) {
+            return String.valueOf(expr);
+        }
+
+        StringBuilder sb = new StringBuilder("(");
+        List<?> list = (List<?>) expr;
+        for (int i = 0; i < list.size(); i++) {
+            if (i > 0) {
+                sb.append(" ");
+            }
+            sb.append(show(list.get(i)));
+        }
+        return sb.append(")").toString();
+    }
+
+    /**
+     * Estado de una expansión en línea: la función que se está definiendo
+     * (que no se expande a sí misma) y las funciones expandidas.
+     */
+    private static final class Inlining {
+        private final String functionName;
+        private final Map<String, FunctionDefinition> dependencies;
+
+        Inlining(String functionName, Map<String, FunctionDefinition> dependencies) {
+            this.functionName = functionName;
+            this.dependencies = dependencies;
+        }
+    }
+}
@@ -13,21 +13,133 @@ public class LispParser {
     
     private int position;
     
+    /** Posiciones en el código fuente de las formas del último análisis */
+    private LispSourceMap sourceMap = new LispSourceMap();
+    
+    /** Si los datos citados se consolidan con LispHashCons */
+    private boolean hashConsing = Boolean.getBoolean("lisp.hashcons");
+    
+    /**
+     * Activa la consolidación de los datos citados: las listas citadas con
+     * el mismo contenido comparten una sola instancia inmutable.
+     * 
+     * @param enabled true para consolidar con LispHashCons
+     */
+    public void setHashConsing(boolean enabled) {
+        this.hashConsing = enabled;
+    }
+    
     /**
      * Analiza una expresión LISP y devuelve una estructura de árbol.
+     * Lee directamente del texto con LispLexer, sin lista de tokens.
      * 
      * @param input La expresión LISP a analizar
      * @return Estructura de árbol que representa la expresión
      */
     public Object parse(String input) {
-        if (input == null || input.trim().isEmpty()) {
+        sourceMap = new LispSourceMap();
+        
+        if (input == null) {
             return null;
         }
+        
+        LispLexer lexer = new LispLexer(input);
+        if (lexer.next() == LispLexer.EOF) {
+            return null; // Entrada vacía o solo comentarios
+        }
+        Object result = readForm(lexer);
+        
+        if (lexer.next() != LispLexer.EOF) {
+            throw new RuntimeException("Error: paréntesis extra detectado");
+        }
+        return result;
+    }
     
-        LispTokenizer tokenizer = new LispTokenizer();
-        List<String> tokens = tokenizer.tokenize(input);
+    /**
+     * Analiza todas las expresiones de nivel superior de un programa (por
+     * ejemplo, un archivo completo). Todas comparten el mismo mapa de
+     * posiciones, con líneas relativas al inicio del programa.
+     * 
+     * @param source Texto del programa
+     * @return Expresiones en el orden en que aparecen
+     */
+    public List<Object> parseProgram(CharSequence source) {
+        sourceMap = new LispSourceMap();
+        
+        List<Object> forms = new ArrayList<>();
+        LispLexer lexer = new LispLexer(source);
+        while (lexer.next() != LispLexer.EOF) {
+            if (lexer.kind() == LispLexer.CLOSE) {
+                throw new RuntimeException("Error: paréntesis extra detectado en la línea " + lexer.line());
+            }
+            forms.add(readForm(lexer));
+        }
+        return forms;
+    }
+    
+    /**
+     * Lee la forma que comienza en el token actual del analizador léxico.
+     */
+    private Object readForm(LispLexer lexer) {
+        switch (lexer.kind()) {
+            case LispLexer.EOF:
+                throw new RuntimeException("Fin inesperado de entrada");
+            case LispLexer.OPEN:
+                return readList(lexer);
+            case LispLexer.QUOTE:
+                return readReaderMacro("quote", lexer);
+            case LispLexer.QUASIQUOTE:
+                return readReaderMacro("quasiquote", lexer);
+            case LispLexer.UNQUOTE:
+                return readReaderMacro("unquote", lexer);
+            case LispLexer.UNQUOTE_SPLICING:
+                return readReaderMacro("unquote-splicing", lexer);
+            case LispLexer.CLOSE:
+                return ")"; // Igual que el análisis por tokens: un ")" suelto es un símbolo
+            default:
+                return lexer.atom();
+        }
+    }
     
-        if (tokens.isEmpty()) {
+    private List<Object> readList(LispLexer lexer) {
+        int line = lexer.line();
+        int column = lexer.column();
+        LispForm elements = new LispForm();
+        
+        while (lexer.next() != LispLexer.CLOSE) {
+            if (lexer.kind() == LispLexer.EOF) {
+                throw new RuntimeException("Se esperaba un paréntesis de cierre");
+            }
+            elements.add(readForm(lexer));
+        }
+        
+        sourceMap.record(elements, line, column);
+        return finish(elements);
+    }
+    
+    private List<Object> readReaderMacro(String symbol, LispLexer lexer) {
+        int line = lexer.line();
+        int column = lexer.column();
+        lexer.next();
+        
+        LispForm form = new LispForm(2);
+        form.add(symbol);
+        form.add(readForm(lexer));
+        sourceMap.record(form, line, column);
+        return finish(form);
+    }
+    
+    /**
+     * Analiza una lista de tokens con posición, registrando la línea y
+     * columna de cada forma en el mapa de posiciones.
+     * 
+     * @param tokens Lista de tokens a analizar
+     * @return Estructura de árbol que representa la expresión
+     */
+    public Object parseTokens(List<LispTokenizer.Token> tokens) {
+        sourceMap = new LispSourceMap();
+        
+        if (tokens == null || tokens.isEmpty()) {
             return null;
         }
     
@@ -50,12 +162,29 @@ public class LispParser {
      * @return Estructura de árbol que representa la expresión
      */
     public Object parse(List<String> tokens) {
+        sourceMap = new LispSourceMap();
+        
         if (tokens == null || tokens.isEmpty()) {
             return null;
         }
         
+        // Sin información de posición
+        List<LispTokenizer.Token> positioned = new ArrayList<>(tokens.size());
+        for (String token : tokens) {
+            positioned.add(new LispTokenizer.Token(token, -1, -1));
+        }
+        
         position = 0;
-        return parseExpression(tokens);
+        return parseExpression(positioned);
+    }
+    
+    /**
+     * Obtiene las posiciones de las formas leídas en el último análisis.
+     * 
+     * @return Mapa de posiciones
+     */
+    public LispSourceMap getSourceMap() {
+        return sourceMap;
     }
     
     /**
@@ -64,25 +193,33 @@ public class LispParser {
      * @param tokens Lista de tokens
      * @return Objeto que representa la expresión (número, símbolo o lista)
      */
-    private Object parseExpression(List<String> tokens) {
+    private Object parseExpression(List<LispTokenizer.Token> tokens) {
         if (position >= tokens.size()) {
             throw new RuntimeException("Fin inesperado de entrada");
         }
         
-        String token = tokens.get(position++);
+        LispTokenizer.Token current = tokens.get(position++);
+        String token = current.getValue();
         
         // Si es un paréntesis de apertura, es una lista
         if (token.equals("(")) {
-            return parseList(tokens);
+            return parseList(tokens, current);
         }
         
         // Si es una comilla simple, es una forma quote abreviada
         if (token.equals("'")) {
-            // Crear una lista que contiene 'quote' y la expresión siguiente
-            List<Object> quoteList = new ArrayList<>();
-            quoteList.add("quote");
-            quoteList.add(parseExpression(tokens));
-            return quoteList;
+            return parseReaderMacro("quote", tokens, current);
+        }
+        
+        // Backquote y comas: plantillas de quasiquote para macros
+        if (token.equals("`")) {
+            return parseReaderMacro("quasiquote", tokens, current);
+        }
+        if (token.equals(",")) {
+            return parseReaderMacro("unquote", tokens, current);
+        }
+        if (token.equals(",@")) {
+            return parseReaderMacro("unquote-splicing", tokens, current);
         }
         
         // Si es un número, convertir a Integer o Double
@@ -94,17 +231,35 @@ public class LispParser {
         return token;
     }
     
+    /**
+     * Analiza una forma abreviada como 'x o `x.
+     * 
+     * @param symbol Símbolo de la forma completa (quote, quasiquote...)
+     * @param tokens Lista de tokens
+     * @param start Token donde comienza la forma
+     * @return Lista que contiene el símbolo y la expresión siguiente
+     */
+    private List<Object> parseReaderMacro(String symbol, List<LispTokenizer.Token> tokens,
+                                          LispTokenizer.Token start) {
+        LispForm form = new LispForm(2);
+        form.add(symbol);
+        form.add(parseExpression(tokens));
+        recordPosition(form, start);
+        return finish(form);
+    }
+    
     /**
      * Analiza una lista de expresiones.
      * 
      * @param tokens Lista de tokens
+     * @param start Token del paréntesis de apertura
      * @return Lista de objetos que representan la lista
      */
-    private List<Object> parseList(List<String> tokens) {
-        List<Object> elements = new ArrayList<>();
+    private List<Object> parseList(List<LispTokenizer.Token> tokens, LispTokenizer.Token start) {
+        LispForm elements = new LispForm();
 
         while (position < tokens.size()) {
-            String currentToken = tokens.get(position);
+            String currentToken = tokens.get(position).getValue();
 
             if (currentToken.equals(")")) {
                 break;  // Cierra correctamente la lista
@@ -114,14 +269,34 @@ public class LispParser {
         }
 
     // Verificar que efectivamente encontramos un paréntesis de cierre
-        if (position >= tokens.size() || !tokens.get(position).equals(")")) {
+        if (position >= tokens.size() || !tokens.get(position).getValue().equals(")")) {
             throw new RuntimeException("Se esperaba un paréntesis de cierre");
         }
 
         // Consumir el paréntesis de cierre
         position++;
 
-        return elements;
+        recordPosition(elements, start);
+        return finish(elements);
+    }
+    
+    /**
+     * Ajusta una forma recién leída a su tamaño exacto y, si es un quote,
+     * guarda el dato citado congelado (inmutable y compacto) o consolidado.
+     */
+    private LispForm finish(LispForm form) {
+        form.trimToSize();
+        if (form.size() == 2 && ("quote".equals(form.get(0)) || "QUOTE".equals(form.get(0)))) {
+            Object datum = form.get(1);
+            form.set(1, hashConsing ? LispHashCons.intern(datum) : LispConstantList.freeze(datum));
+        }
+        return form;
+    }
+    
+    private void recordPosition(Object form, LispTokenizer.Token start) {
+        if (start.getLine() > 0) {
+            sourceMap.record(form, start.getLine(), start.getColumn());
+        }
     }
     
     /**
@@ -0,0 +1,65 @@
+package lisp.interpreter;
+
+import java.util.function.Supplier;
+
+/**
+ * Promesa LISP creada por la forma especial delay.
+ * Guarda un cálculo pendiente que solo se ejecuta la primera vez que se
+ * fuerza; el resultado se memoriza y las siguientes llamadas lo devuelven
+ * directamente. Es segura para usarse desde varios hilos.
+ */
+public final class LispPromise {
+
+    /** Cálculo pendiente; se libera después de forzar la promesa */
+    private Supplier<Object> thunk;
+
+    /** Valor memorizado (válido solo cuando forced es true) */
+    private Object value;
+
+    /** Indica si la promesa ya fue forzada (publica value entre hilos) */
+    private volatile boolean forced;
+
+    /**
+     * Constructor.
+     *
+     * @param thunk Cálculo a ejecutar cuando se fuerce la promesa
+     */
+    public LispPromise(Supplier<Object> thunk) {
+        this.thunk = thunk;
+    }
+
+    /**
+     * Fuerza la promesa: ejecuta el cálculo una sola vez y devuelve su valor.
+     * Si el cálculo lanza una excepción la promesa queda sin forzar.
+     *
+     * @return Valor de la promesa
+     */
+    public Object force() {
+        if (forced) {
+            return value;
+        }
+
+        synchronized (this) {
+            if (!forced) {
+                value = thunk.get();
+                thunk = null;  // Liberar el entorno capturado
+                forced = true;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Indica si la promesa ya fue forzada.
+     *
+     * @return true si el valor ya está calculado
+     */
+    public boolean isForced() {
+        return forced;
+    }
+
+    @Override
+    public String toString() {
+        return forced ? "#<promise " + value + ">" : "#<promise>";
+    }
+}
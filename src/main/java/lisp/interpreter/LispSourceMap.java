@@ -0,0 +1,118 @@
+package lisp.interpreter;
+
+/**
+ * Tabla de posiciones en el código fuente de las formas leídas por el parser.
+ * Se guarda aparte del árbol (indexada por identidad de cada lista) para no
+ * agregar campos a cada nodo.
+ *
+ * <p>Es una tabla hash abierta sobre arreglos: las formas en un Object[] y su
+ * línea y columna en un int[] paralelo, sin un objeto por entrada. Una
+ * posición ocupa dos enteros más la referencia a la forma.</p>
+ */
+public class LispSourceMap {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** Formas registradas (null indica una ranura libre) */
+    private Object[] nodes = new Object[INITIAL_CAPACITY];
+
+    /** Línea y columna de cada forma: posiciones 2i y 2i + 1 */
+    private int[] positions = new int[2 * INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * Registra la posición donde comienza una forma.
+     *
+     * @param node Forma (lista) leída por el parser
+     * @param line Línea donde comienza
+     * @param column Columna donde comienza
+     */
+    public void record(Object node, int line, int column) {
+        if (2 * (size + 1) > nodes.length) {
+            resize();
+        }
+        int slot = slot(node);
+        if (nodes[slot] == null) {
+            nodes[slot] = node;
+            size++;
+        }
+        positions[2 * slot] = line;
+        positions[2 * slot + 1] = column;
+    }
+
+    /**
+     * Obtiene la línea donde comienza una forma.
+     *
+     * @param node Forma a consultar
+     * @return Número de línea o -1 si no está registrada
+     */
+    public int getLine(Object node) {
+        int slot = slot(node);
+        return nodes[slot] != null ? positions[2 * slot] : -1;
+    }
+
+    /**
+     * Obtiene la columna donde comienza una forma.
+     *
+     * @param node Forma a consultar
+     * @return Número de columna o -1 si no está registrada
+     */
+    public int getColumn(Object node) {
+        int slot = slot(node);
+        return nodes[slot] != null ? positions[2 * slot + 1] : -1;
+    }
+
+    /**
+     * Obtiene el número de formas registradas.
+     *
+     * @return Número de formas
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Registra todas las posiciones de otra tabla.
+     */
+    void addAll(LispSourceMap other) {
+        for (int i = 0; i < other.nodes.length; i++) {
+            if (other.nodes[i] != null) {
+                record(other.nodes[i], other.positions[2 * i], other.positions[2 * i + 1]);
+            }
+        }
+    }
+
+    /**
+     * Ranura de la forma, o la ranura libre donde iría (sondeo lineal).
+     */
+    private int slot(Object node) {
+        int mask = nodes.length - 1;
+        int i = mix(System.identityHashCode(node)) & mask;
+        while (nodes[i] != null && nodes[i] != node) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private static int mix(int hash) {
+        // identityHashCode tiene los bits bajos poco variados en algunas JVM
+        return hash ^ (hash >>> 16);
+    }
+
+    private void resize() {
+        Object[] oldNodes = nodes;
+        int[] oldPositions = positions;
+        nodes = new Object[2 * oldNodes.length];
+        positions = new int[2 * oldPositions.length];
+
+        for (int i = 0; i < oldNodes.length; i++) {
+            if (oldNodes[i] != null) {
+                int slot = slot(oldNodes[i]);
+                nodes[slot] = oldNodes[i];
+                positions[2 * slot] = oldPositions[2 * i];
+                positions[2 * slot + 1] = oldPositions[2 * i + 1];
+            }
+        }
+    }
+}
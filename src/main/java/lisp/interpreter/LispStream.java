@@ -0,0 +1,47 @@
+package lisp.interpreter;
+
+/**
+ * Celda de un flujo (stream) perezoso.
+ * La cabeza ya está evaluada y la cola es una promesa que produce otra
+ * celda o "nil" al final del flujo, por lo que solo se calcula lo que
+ * realmente se consume.
+ */
+public final class LispStream {
+
+    private final Object head;
+    private final LispPromise tail;
+
+    /**
+     * Constructor.
+     *
+     * @param head Primer elemento del flujo (ya evaluado)
+     * @param tail Promesa que produce el resto del flujo
+     */
+    public LispStream(Object head, LispPromise tail) {
+        this.head = head;
+        this.tail = tail;
+    }
+
+    /**
+     * Obtiene el primer elemento del flujo.
+     *
+     * @return Cabeza del flujo
+     */
+    public Object getHead() {
+        return head;
+    }
+
+    /**
+     * Fuerza la cola del flujo.
+     *
+     * @return Siguiente celda del flujo o "nil" si terminó
+     */
+    public Object getTail() {
+        return tail.force();
+    }
+
+    @Override
+    public String toString() {
+        return "#<stream " + head + " ...>";
+    }
+}
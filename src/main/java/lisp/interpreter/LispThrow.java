@@ -0,0 +1,38 @@
+package lisp.interpreter;
+
+/**
+ * Salida no local de throw hacia el catch con la misma etiqueta. No es un
+ * error: no captura traza y cada hilo reutiliza la misma instancia, así que
+ * lanzarla no reserva memoria.
+ */
+final class LispThrow extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final ThreadLocal<LispThrow> INSTANCE = ThreadLocal.withInitial(LispThrow::new);
+
+    private Object tag;
+    private Object value;
+
+    private LispThrow() {
+        super(null, null, false, false);
+    }
+
+    /**
+     * Prepara la instancia del hilo actual para lanzarla.
+     */
+    static LispThrow of(Object tag, Object value) {
+        LispThrow signal = INSTANCE.get();
+        signal.tag = tag;
+        signal.value = value;
+        return signal;
+    }
+
+    Object getTag() {
+        return tag;
+    }
+
+    Object getValue() {
+        return value;
+    }
+}
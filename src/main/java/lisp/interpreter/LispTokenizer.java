@@ -113,14 +113,34 @@ public class LispTokenizer {
                 continue;
             }
             
-            // Manejar paréntesis y apóstrofe como tokens individuales
-            if (c == '(' || c == ')' || c == '\'') {
+            // Un punto y coma inicia un comentario hasta el final de la línea
+            if (c == ';') {
+                if (currentToken.length() > 0) {
+                    tokens.add(new Token(currentToken.toString(), line, tokenStartColumn));
+                    currentToken.setLength(0);
+                }
+                while (i + 1 < input.length() && input.charAt(i + 1) != '\n') {
+                    i++;
+                }
+                continue;
+            }
+            
+            // Manejar paréntesis, apóstrofe, backquote y coma como tokens individuales
+            if (c == '(' || c == ')' || c == '\'' || c == '`' || c == ',') {
                 // Si hay un token en construcción, completarlo antes
                 if (currentToken.length() > 0) {
                     tokens.add(new Token(currentToken.toString(), line, tokenStartColumn));
                     currentToken.setLength(0);
                 }
                 
+                // ",@" es un solo token (unquote-splicing)
+                if (c == ',' && i + 1 < input.length() && input.charAt(i + 1) == '@') {
+                    tokens.add(new Token(",@", line, column));
+                    column += 2;
+                    i++;
+                    continue;
+                }
+                
                 // Agregar el token especial
                 tokens.add(new Token(String.valueOf(c), line, column));
                 column++;
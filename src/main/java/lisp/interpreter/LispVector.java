@@ -0,0 +1,342 @@
+package lisp.interpreter;
+
+import java.util.Arrays;
+
+/**
+ * Vector numérico nativo del intérprete.
+ * Guarda sus elementos en un arreglo primitivo (long[] o double[]) en lugar
+ * de una lista de números en caja, y las operaciones masivas se implementan
+ * como ciclos simples sobre esos arreglos para que la JVM pueda optimizarlos.
+ */
+public final class LispVector {
+
+    /** Elementos enteros (null si el vector es de punto flotante) */
+    private final long[] longs;
+
+    /** Elementos de punto flotante (null si el vector es entero) */
+    private final double[] doubles;
+
+    private LispVector(long[] longs, double[] doubles) {
+        this.longs = longs;
+        this.doubles = doubles;
+    }
+
+    /**
+     * Crea un vector entero.
+     *
+     * @param length Número de elementos
+     * @param initial Valor inicial de cada elemento
+     * @return Nuevo vector
+     */
+    public static LispVector ofLongs(int length, long initial) {
+        long[] values = new long[length];
+        if (initial != 0) {
+            Arrays.fill(values, initial);
+        }
+        return new LispVector(values, null);
+    }
+
+    /**
+     * Crea un vector de punto flotante.
+     *
+     * @param length Número de elementos
+     * @param initial Valor inicial de cada elemento
+     * @return Nuevo vector
+     */
+    public static LispVector ofDoubles(int length, double initial) {
+        double[] values = new double[length];
+        if (initial != 0) {
+            Arrays.fill(values, initial);
+        }
+        return new LispVector(null, values);
+    }
+
+    /**
+     * Indica si el vector guarda valores de punto flotante.
+     *
+     * @return true si el vector es de tipo double
+     */
+    public boolean isDouble() {
+        return doubles != null;
+    }
+
+    /**
+     * Obtiene el número de elementos.
+     *
+     * @return Longitud del vector
+     */
+    public int length() {
+        return doubles != null ? doubles.length : longs.length;
+    }
+
+    /**
+     * Obtiene un elemento como número LISP.
+     *
+     * @param index Posición del elemento
+     * @return Integer, Long o Double según el tipo del vector
+     */
+    public Number get(int index) {
+        checkIndex(index);
+        if (doubles != null) {
+            return doubles[index];
+        }
+        return boxLong(longs[index]);
+    }
+
+    /**
+     * Asigna un elemento.
+     *
+     * @param index Posición del elemento
+     * @param value Valor numérico a guardar
+     */
+    public void set(int index, Number value) {
+        checkIndex(index);
+        if (doubles != null) {
+            doubles[index] = value.doubleValue();
+        } else {
+            if (value instanceof Double || value instanceof Float) {
+                throw new LispException("Error: un vector entero no puede guardar " + value);
+            }
+            longs[index] = value.longValue();
+        }
+    }
+
+    /**
+     * Suma todos los elementos.
+     *
+     * @return Suma de los elementos
+     */
+    public Number sum() {
+        if (doubles != null) {
+            double total = 0;
+            for (int i = 0; i < doubles.length; i++) {
+                total += doubles[i];
+            }
+            return total;
+        }
+
+        long total = 0;
+        for (int i = 0; i < longs.length; i++) {
+            total += longs[i];
+        }
+        return boxLong(total);
+    }
+
+    /**
+     * Producto punto con otro vector de la misma longitud.
+     *
+     * @param other Otro vector
+     * @return Producto punto
+     */
+    public Number dot(LispVector other) {
+        checkSameLength(other);
+
+        if (doubles == null && other.doubles == null) {
+            long[] a = longs;
+            long[] b = other.longs;
+            long total = 0;
+            for (int i = 0; i < a.length; i++) {
+                total += a[i] * b[i];
+            }
+            return boxLong(total);
+        }
+
+        double[] a = asDoubles();
+        double[] b = other.asDoubles();
+        double total = 0;
+        for (int i = 0; i < a.length; i++) {
+            total += a[i] * b[i];
+        }
+        return total;
+    }
+
+    /**
+     * Combina dos vectores elemento a elemento.
+     *
+     * @param other Otro vector de la misma longitud
+     * @param op Operador aritmético: '+', '-', '*' o '/'
+     * @return Nuevo vector con el resultado
+     */
+    public LispVector combine(LispVector other, char op) {
+        checkSameLength(other);
+
+        if (op != '/' && doubles == null && other.doubles == null) {
+            long[] a = longs;
+            long[] b = other.longs;
+            long[] r = new long[a.length];
+            switch (op) {
+                case '+':
+                    for (int i = 0; i < r.length; i++) r[i] = a[i] + b[i];
+                    break;
+                case '-':
+                    for (int i = 0; i < r.length; i++) r[i] = a[i] - b[i];
+                    break;
+                default:
+                    for (int i = 0; i < r.length; i++) r[i] = a[i] * b[i];
+                    break;
+            }
+            return new LispVector(r, null);
+        }
+
+        double[] a = asDoubles();
+        double[] b = other.asDoubles();
+        double[] r = new double[a.length];
+        switch (op) {
+            case '+':
+                for (int i = 0; i < r.length; i++) r[i] = a[i] + b[i];
+                break;
+            case '-':
+                for (int i = 0; i < r.length; i++) r[i] = a[i] - b[i];
+                break;
+            case '*':
+                for (int i = 0; i < r.length; i++) r[i] = a[i] * b[i];
+                break;
+            default:
+                for (int i = 0; i < r.length; i++) {
+                    if (b[i] == 0) {
+                        throw new LispException("Error: división por cero");
+                    }
+                    r[i] = a[i] / b[i];
+                }
+                break;
+        }
+        return new LispVector(null, r);
+    }
+
+    /**
+     * Combina cada elemento del vector con un escalar.
+     *
+     * @param scalar Valor escalar
+     * @param op Operador aritmético: '+', '-', '*' o '/'
+     * @return Nuevo vector con el resultado
+     */
+    public LispVector combine(Number scalar, char op) {
+        boolean integerScalar = !(scalar instanceof Double || scalar instanceof Float);
+
+        if (op != '/' && doubles == null && integerScalar) {
+            long[] a = longs;
+            long s = scalar.longValue();
+            long[] r = new long[a.length];
+            switch (op) {
+                case '+':
+                    for (int i = 0; i < r.length; i++) r[i] = a[i] + s;
+                    break;
+                case '-':
+                    for (int i = 0; i < r.length; i++) r[i] = a[i] - s;
+                    break;
+                default:
+                    for (int i = 0; i < r.length; i++) r[i] = a[i] * s;
+                    break;
+            }
+            return new LispVector(r, null);
+        }
+
+        double[] a = asDoubles();
+        double s = scalar.doubleValue();
+        if (op == '/' && s == 0) {
+            throw new LispException("Error: división por cero");
+        }
+        double[] r = new double[a.length];
+        switch (op) {
+            case '+':
+                for (int i = 0; i < r.length; i++) r[i] = a[i] + s;
+                break;
+            case '-':
+                for (int i = 0; i < r.length; i++) r[i] = a[i] - s;
+                break;
+            case '*':
+                for (int i = 0; i < r.length; i++) r[i] = a[i] * s;
+                break;
+            default:
+                for (int i = 0; i < r.length; i++) r[i] = a[i] / s;
+                break;
+        }
+        return new LispVector(null, r);
+    }
+
+    /**
+     * Niega cada elemento del vector.
+     *
+     * @return Nuevo vector con los elementos negados
+     */
+    public LispVector negate() {
+        if (doubles != null) {
+            double[] r = new double[doubles.length];
+            for (int i = 0; i < r.length; i++) r[i] = -doubles[i];
+            return new LispVector(null, r);
+        }
+
+        long[] r = new long[longs.length];
+        for (int i = 0; i < r.length; i++) r[i] = -longs[i];
+        return new LispVector(r, null);
+    }
+
+    /**
+     * Construye un vector a partir de números ya calculados.
+     * El vector es de punto flotante si algún valor lo es.
+     *
+     * @param values Valores del vector
+     * @return Nuevo vector
+     */
+    public static LispVector fromNumbers(Number[] values) {
+        boolean anyDouble = false;
+        for (Number value : values) {
+            if (value instanceof Double || value instanceof Float) {
+                anyDouble = true;
+                break;
+            }
+        }
+
+        if (anyDouble) {
+            double[] r = new double[values.length];
+            for (int i = 0; i < r.length; i++) r[i] = values[i].doubleValue();
+            return new LispVector(null, r);
+        }
+
+        long[] r = new long[values.length];
+        for (int i = 0; i < r.length; i++) r[i] = values[i].longValue();
+        return new LispVector(r, null);
+    }
+
+    private double[] asDoubles() {
+        if (doubles != null) {
+            return doubles;
+        }
+
+        double[] r = new double[longs.length];
+        for (int i = 0; i < r.length; i++) r[i] = longs[i];
+        return r;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length()) {
+            throw new LispException("Error: índice " + index + " fuera de rango para un vector de longitud " + length());
+        }
+    }
+
+    private void checkSameLength(LispVector other) {
+        if (other.length() != length()) {
+            throw new LispException("Error: los vectores deben tener la misma longitud (" +
+                                    length() + " y " + other.length() + ")");
+        }
+    }
+
+    private static Number boxLong(long value) {
+        if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+            return (int) value;
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("#(");
+        for (int i = 0; i < length(); i++) {
+            if (i > 0) {
+                sb.append(" ");
+            }
+            sb.append(get(i));
+        }
+        return sb.append(")").toString();
+    }
+}
@@ -0,0 +1,217 @@
+package lisp;
+
+import java.lang.ref.WeakReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import lisp.environment.LispEnvironment;
+import lisp.interpreter.LispBytecodeFunction;
+import lisp.interpreter.LispCompiler.CompiledFunction;
+import lisp.interpreter.LispEvaluator;
+import lisp.interpreter.LispException;
+import lisp.interpreter.LispParser;
+
+/**
+ * Pruebas unitarias para la traducción de funciones calientes a bytecode.
+ */
+public class LispBytecodeCompilerTest {
+
+    private LispEvaluator evaluator;
+    private LispEnvironment env;
+
+    /** Evaluador de referencia que nunca compila */
+    private LispEvaluator interpreter;
+    private LispEnvironment interpreterEnv;
+
+    @BeforeEach
+    public void setUp() {
+        evaluator = new LispEvaluator();
+        evaluator.setHotThreshold(2);
+        env = new LispEnvironment();
+        interpreter = new LispEvaluator();
+        interpreter.setHotThreshold(0);
+        interpreterEnv = new LispEnvironment();
+    }
+
+    /**
+     * Evalúa la expresión con ambos evaluadores y verifica que den lo mismo.
+     */
+    private Object evaluate(String source) {
+        Object expected = interpreter.evaluate(new LispParser().parse(source), interpreterEnv);
+        Object actual = evaluator.evaluate(new LispParser().parse(source), env);
+        assertEquals(expected, actual, source);
+        return actual;
+    }
+
+    private LispBytecodeFunction bytecodeOf(String name) {
+        CompiledFunction compiled = (CompiledFunction) env.findFunction(name).getCompiled();
+        return compiled != null ? compiled.getBytecode() : null;
+    }
+
+    @Test
+    @DisplayName("Una función numérica recursiva se traduce a bytecode")
+    public void testRecursiveFunctionIsGenerated() {
+        evaluate("(defun fib (n) (cond ((< n 2) n) (t (+ (fib (- n 1)) (fib (- n 2))))))");
+        assertEquals(55, evaluate("(fib 10)"));
+        assertNotNull(bytecodeOf("fib"));
+        assertEquals(6765, evaluate("(fib 20)"));
+        assertEquals(610.0, evaluate("(fib 15.0)"));
+    }
+
+    @Test
+    @DisplayName("El bytecode conserva la semántica del intérprete")
+    public void testSameSemanticsAsInterpreter() {
+        evaluate("(defun calc (a b) (cond ((= a b) (* a b 2)) ((> a b) (- a b)) (t (/ (+ a b) 2))))");
+        for (int i = 0; i < 3; i++) {
+            evaluate("(calc " + i + " 1)");
+        }
+        assertNotNull(bytecodeOf("calc"));
+
+        evaluate("(calc 3 4)");
+        evaluate("(calc 2.5 1)");
+        evaluate("(calc 50000 50000)");
+        evaluate("(calc 2147483647 -1)");
+        evaluate("(calc 0 -1.5)");
+        assertThrows(LispException.class, () -> evaluator.evaluate(new LispParser().parse("(calc 'a 1)"), env));
+    }
+
+    @Test
+    @DisplayName("Las formas no soportadas se quedan en el intérprete")
+    public void testUnsupportedFormsFallBack() {
+        evaluate("(setq factor 3)");
+        evaluate("(defun escala (x) (* x factor))");
+        evaluate("(defun par (x) (list x x))");
+        for (int i = 0; i < 3; i++) {
+            evaluate("(escala " + i + ")");
+            evaluate("(par " + i + ")");
+        }
+
+        assertNotNull(env.findFunction("escala").getCompiled());
+        assertNull(bytecodeOf("escala"));
+        assertNull(bytecodeOf("par"));
+        assertEquals(12, evaluate("(escala 4)"));
+    }
+
+    @Test
+    @DisplayName("Las llamadas entre funciones generadas usan sitios de llamada reenlazables")
+    public void testCallSitesBetweenFunctions() {
+        evaluate("(defun fact (n) (cond ((< n 2) 1) (t (* n (fact (- n 1))))))");
+        evaluate("(defun suma-fact (n) (cond ((< n 1) 0) (t (+ (fact n) (suma-fact (- n 1))))))");
+        assertEquals(33, evaluate("(suma-fact 4)"));
+        assertNotNull(bytecodeOf("suma-fact"));
+        assertNotNull(bytecodeOf("fact"));
+        assertEquals(4037913, evaluate("(suma-fact 10)"));
+
+        // Redefinir la función llamada invalida el bytecode de quien la llama
+        evaluate("(defun fact (n) (cond ((< n 2) 1) (t (+ n (fact (- n 1))))))");
+        assertFalse(bytecodeOf("suma-fact").isValidFor(env));
+        assertEquals(20, evaluate("(suma-fact 4)"));
+        evaluate("(suma-fact 5)");
+        assertNotNull(bytecodeOf("suma-fact"));
+        assertEquals(220, evaluate("(suma-fact 10)"));
+    }
+
+    @Test
+    @DisplayName("No se generan llamadas a funciones que dependen del alcance dinámico")
+    public void testDynamicScopeCalleeIsNotGenerated() {
+        evaluate("(defun usa-libre (x) (cond ((< x 1) libre) (t (usa-libre (- x 1)))))");
+        evaluate("(defun llama (libre) (+ (usa-libre 1) (usa-libre 2)))");
+        for (int i = 0; i < 4; i++) {
+            evaluate("(llama " + i + ")");
+        }
+        assertNull(bytecodeOf("llama"));
+        assertEquals(10, evaluate("(llama 5)"));
+    }
+
+    @Test
+    @DisplayName("Redefinir la función permite descargar su clase")
+    public void testRedefinitionUnloadsClass() throws InterruptedException {
+        evaluate("(defun doble (x) (* x 2))");
+        for (int i = 0; i < 3; i++) {
+            evaluate("(doble " + i + ")");
+        }
+        LispBytecodeFunction first = bytecodeOf("doble");
+        assertNotNull(first);
+        WeakReference<Class<?>> firstClass = new WeakReference<>(first.getClass());
+        first = null;
+
+        evaluate("(defun doble (x) (+ x x))");
+        for (int i = 0; i < 3; i++) {
+            evaluate("(doble " + i + ")");
+        }
+        assertNotNull(bytecodeOf("doble"));
+        assertNotSame(firstClass.get(), bytecodeOf("doble").getClass());
+        assertNotSame(firstClass.get().getClassLoader(), bytecodeOf("doble").getClass().getClassLoader());
+
+        for (int i = 0; i < 20 && firstClass.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(firstClass.get());
+    }
+
+    @Test
+    @DisplayName("Una macro con el nombre de la función desactiva el bytecode")
+    public void testMacroShadowingInvalidatesBytecode() {
+        evaluate("(defun cuenta (n) (cond ((< n 1) 0) (t (+ 1 (cuenta (- n 1))))))");
+        evaluate("(cuenta 5)");
+        assertNotNull(bytecodeOf("cuenta"));
+        assertTrue(bytecodeOf("cuenta").isValidFor(env));
+
+        evaluate("(defmacro otra (x) x)");
+        assertTrue(bytecodeOf("cuenta").isValidFor(env));
+        assertEquals(5, evaluate("(cuenta 5)"));
+
+        // Las llamadas recursivas del bytecode ya no resolverían a la función
+        evaluate("(defmacro cuenta (x) x)");
+        assertFalse(bytecodeOf("cuenta").isValidFor(env));
+        assertEquals(7, evaluate("(cuenta 7)"));
+    }
+
+    @Test
+    @DisplayName("Un entorno bifurcado usa el bytecode solo si sigue siendo válido allí")
+    public void testForkSharesBytecode() {
+        evaluate("(defun fact (n) (cond ((< n 2) 1) (t (* n (fact (- n 1))))))");
+        evaluate("(defun suma-fact (n) (cond ((< n 1) 0) (t (+ (fact n) (suma-fact (- n 1))))))");
+        evaluate("(suma-fact 4)");
+        LispBytecodeFunction code = bytecodeOf("suma-fact");
+        assertNotNull(code);
+
+        LispEnvironment fork = env.fork();
+        assertTrue(code.isValidFor(fork));
+        assertEquals(4037913, evaluator.evaluate(new LispParser().parse("(suma-fact 10)"), fork));
+
+        // Redefinir en la copia no desoptimiza al original
+        evaluator.evaluate(new LispParser().parse("(defun fact (n) (cond ((< n 2) 1) (t (+ n (fact (- n 1))))))"), fork);
+        assertFalse(code.isValidFor(fork));
+        assertEquals(220, evaluator.evaluate(new LispParser().parse("(suma-fact 10)"), fork));
+        assertTrue(code.isValidFor(env));
+        assertSame(code, bytecodeOf("suma-fact"));
+        assertEquals(4037913, evaluate("(suma-fact 10)"));
+    }
+
+    @Test
+    @DisplayName("Las variables de let se traducen a variables locales de la JVM")
+    public void testLetUsesJvmLocals() {
+        evaluate("(defun poli (x) (let* ((x2 (* x x)) (x3 (* x2 x))) (let ((x x3) (y x)) (+ x y x2))))");
+        evaluate("(defun suma-cuadrados (n) (cond ((< n 1) 0) (t (let ((c (* n n))) (+ c (suma-cuadrados (- n 1)))))))");
+        for (int i = 0; i < 3; i++) {
+            evaluate("(poli " + i + ")");
+            evaluate("(suma-cuadrados " + i + ")");
+        }
+        assertNotNull(bytecodeOf("poli"));
+        assertNotNull(bytecodeOf("suma-cuadrados"));
+        assertEquals(39, evaluate("(poli 3)"));
+        assertEquals(385, evaluate("(suma-cuadrados 10)"));
+    }
+}
@@ -0,0 +1,156 @@
+package lisp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import lisp.environment.LispEnvironment;
+import lisp.interpreter.LispEvaluator;
+import lisp.interpreter.LispParser;
+
+/**
+ * Pruebas unitarias para la compilación de funciones calientes.
+ */
+public class LispCompilerTest {
+
+    private LispEvaluator evaluator;
+    private LispEnvironment env;
+
+    /** Evaluador de referencia que nunca compila */
+    private LispEvaluator interpreter;
+    private LispEnvironment interpreterEnv;
+
+    @BeforeEach
+    public void setUp() {
+        evaluator = new LispEvaluator();
+        evaluator.setHotThreshold(3);
+        evaluator.setBytecodeEnabled(false);
+        env = new LispEnvironment();
+        interpreter = new LispEvaluator();
+        interpreter.setHotThreshold(0);
+        interpreterEnv = new LispEnvironment();
+    }
+
+    /**
+     * Evalúa la expresión con ambos evaluadores y verifica que den lo mismo.
+     */
+    private Object evaluate(String source) {
+        Object expected = interpreter.evaluate(new LispParser().parse(source), interpreterEnv);
+        Object actual = evaluator.evaluate(new LispParser().parse(source), env);
+        assertEquals(expected, actual, source);
+        return actual;
+    }
+
+    @Test
+    @DisplayName("Una función caliente se compila y da el mismo resultado")
+    public void testHotFunctionIsCompiled() {
+        evaluate("(defun fib (n) (cond ((< n 2) n) (t (+ (fib (- n 1)) (fib (- n 2))))))");
+        assertNull(env.findFunction("fib").getCompiled());
+
+        assertEquals(610, evaluate("(fib 15)"));
+        assertNotNull(env.findFunction("fib").getCompiled());
+        assertEquals(6765, evaluate("(fib 20)"));
+    }
+
+    @Test
+    @DisplayName("Las guardas de tipo vuelven al camino genérico")
+    public void testGuardsFallBackToGenericPath() {
+        evaluate("(defun sq (x) (* x x))");
+        evaluate("(defun menor (a b) (< a b))");
+        for (int i = 0; i < 5; i++) {
+            evaluate("(sq " + i + ")");
+            evaluate("(menor " + i + " 3)");
+        }
+        assertNotNull(env.findFunction("sq").getCompiled());
+
+        // Sitios perfilados como enteros que reciben otros tipos o se desbordan
+        assertEquals(2.25, evaluate("(sq 1.5)"));
+        evaluate("(sq 50000)");
+        assertEquals("t", evaluate("(menor 2.5 3)"));
+        evaluate("(- (sq 3) 0.5)");
+    }
+
+    @Test
+    @DisplayName("Redefinir o desoptimizar descarta el código compilado")
+    public void testRedefinitionDiscardsCompiledCode() {
+        evaluate("(defun inc (x) (+ x 1))");
+        evaluate("(defun f (x) (inc x))");
+        for (int i = 0; i < 5; i++) {
+            evaluate("(f " + i + ")");
+        }
+        assertNotNull(env.findFunction("f").getCompiled());
+
+        // f tenía inc expandida en línea: al redefinir inc su código compilado ya no sirve
+        evaluate("(defun inc (x) (+ x 10))");
+        assertEquals(11, evaluate("(f 1)"));
+        assertNull(env.findFunction("f").getCompiled());
+
+        for (int i = 0; i < 5; i++) {
+            evaluate("(f " + i + ")");
+        }
+        assertNotNull(env.findFunction("f").getCompiled());
+        assertEquals(12, evaluate("(f 2)"));
+    }
+
+    @Test
+    @DisplayName("let y let* compilados usan las ranuras del marco")
+    public void testCompiledLet() {
+        evaluate("(defun hipot2 (a b) (let ((a2 (* a a)) (b2 (* b b))) (+ a2 b2)))");
+        evaluate("(defun cadena (x) (let* ((y (+ x 1)) (z (* y 2))) (let ((y z) (z y)) (- y z))))");
+        for (int i = 0; i < 5; i++) {
+            evaluate("(hipot2 " + i + " 2)");
+            evaluate("(cadena " + i + ")");
+        }
+        assertNotNull(env.findFunction("hipot2").getCompiled());
+        assertNotNull(env.findFunction("cadena").getCompiled());
+        assertEquals(25, evaluate("(hipot2 3 4)"));
+        assertEquals(11, evaluate("(cadena 10)"));
+    }
+
+    @Test
+    @DisplayName("dotimes y while compilados dan lo mismo que el intérprete")
+    public void testCompiledLoops() {
+        evaluate("(defun suma-hasta (n) (let ((s 0)) (dotimes (i n s) (setq s (+ s i)))))");
+        evaluate("(defun cuenta-atras (n) (let ((pasos 0)) (while (> n 0) (setq n (- n 1)) (setq pasos (+ pasos 1))) pasos))");
+        for (int i = 0; i < 5; i++) {
+            evaluate("(suma-hasta " + i + ")");
+            evaluate("(cuenta-atras " + i + ")");
+        }
+        assertNotNull(env.findFunction("suma-hasta").getCompiled());
+        assertEquals(4950, evaluate("(suma-hasta 100)"));
+        assertEquals(100, evaluate("(cuenta-atras 100)"));
+    }
+
+    @Test
+    @DisplayName("Las variables globales se leen de su celda y respetan setq, let y fork")
+    public void testGlobalCells() {
+        evaluate("(setq factor-global 3)");
+        evaluate("(defun escala (v) (* v factor-global))");
+        for (int i = 0; i < 5; i++) {
+            evaluate("(escala " + i + ")");
+        }
+        assertNotNull(env.findFunction("escala").getCompiled());
+        assertEquals(30, evaluate("(escala 10)"));
+
+        // setq cambia la celda que ya guardó el sitio
+        evaluate("(setq factor-global 4)");
+        assertEquals(40, evaluate("(escala 10)"));
+
+        // Un marco que liga el nombre lo oculta (alcance dinámico)
+        evaluate("(defun con-factor (factor-global) (escala 10))");
+        assertEquals(70, evaluate("(con-factor 7)"));
+        assertEquals(40, evaluate("(escala 10)"));
+
+        // Una copia del entorno tiene sus propias celdas
+        LispEnvironment copy = env.fork();
+        evaluator.evaluate(new LispParser().parse("(setq factor-global 5)"), copy);
+        assertEquals(50, evaluator.evaluate(new LispParser().parse("(escala 10)"), copy));
+        assertEquals(40, evaluate("(escala 10)"));
+        evaluate("(setq factor-global 6)");
+        assertEquals(50, evaluator.evaluate(new LispParser().parse("(escala 10)"), copy));
+        assertEquals(60, evaluate("(escala 10)"));
+    }
+}
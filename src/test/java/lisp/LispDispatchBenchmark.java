@@ -0,0 +1,56 @@
+package lisp;
+
+import lisp.environment.LispEnvironment;
+import lisp.interpreter.LispEvaluator;
+import lisp.interpreter.LispParser;
+
+/**
+ * Comparación del costo de las llamadas entre funciones en cada nivel de
+ * ejecución: el intérprete (mapa de operadores y búsqueda de funciones), el
+ * árbol de LispCompiler y el bytecode con sitios de llamada MethodHandle.
+ * No es una prueba unitaria: se ejecuta a mano con
+ * {@code java -cp <clases y dependencias> lisp.LispDispatchBenchmark}.
+ */
+public class LispDispatchBenchmark {
+
+    private static final String[] PROGRAM = {
+        "(defun fact (n) (cond ((< n 2) 1) (t (* n (fact (- n 1))))))",
+        "(defun suma-fact (n) (cond ((< n 1) 0) (t (+ (fact n) (suma-fact (- n 1))))))"
+    };
+
+    private static final String CALL = "(suma-fact 12)";
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+
+        run("intérprete", 0, false, iterations);
+        run("árbol compilado", 100, false, iterations);
+        run("bytecode + MethodHandle", 100, true, iterations);
+    }
+
+    private static void run(String label, int threshold, boolean bytecode, int iterations) {
+        LispEvaluator evaluator = new LispEvaluator();
+        evaluator.setHotThreshold(threshold);
+        evaluator.setBytecodeEnabled(bytecode);
+        LispEnvironment env = new LispEnvironment();
+
+        LispParser parser = new LispParser();
+        for (String definition : PROGRAM) {
+            evaluator.evaluate(parser.parse(definition), env);
+        }
+        Object call = parser.parse(CALL);
+
+        // Calentamiento: perfila, compila y deja que el JIT optimice
+        for (int i = 0; i < iterations; i++) {
+            evaluator.evaluate(call, env);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            evaluator.evaluate(call, env);
+        }
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("%-26s %10.1f ns/op%n", label, (double) elapsed / iterations);
+    }
+}
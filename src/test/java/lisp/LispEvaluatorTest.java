@@ -344,4 +344,22 @@ public class LispEvaluatorTest {
         List<Object> call = Arrays.asList("suma", 2);
         assertThrows(LispException.class, () -> evaluator.evaluate(call, env));
     }
-}
\ No newline at end of file
+    
+    @Test
+    @DisplayName("El límite de iteraciones detiene los bucles")
+    public void testStepBudget() {
+        evaluator.setStepBudget(100);
+        // (dotimes (i 100) i) cabe justo en el límite
+        evaluator.evaluate(Arrays.asList("dotimes", Arrays.asList("i", 100), "i"), env);
+        
+        // Las iteraciones se acumulan hasta reiniciar el contador
+        List<Object> loop = Arrays.asList("dotimes", Arrays.asList("i", 1), "i");
+        assertThrows(LispException.class, () -> evaluator.evaluate(loop, env));
+        evaluator.resetSteps();
+        evaluator.evaluate(loop, env);
+        
+        // (while t 1) no termina nunca
+        evaluator.resetSteps();
+        assertThrows(LispException.class, () -> evaluator.evaluate(Arrays.asList("while", "t", 1), env));
+    }
+}
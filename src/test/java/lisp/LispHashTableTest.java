@@ -0,0 +1,108 @@
+package lisp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import lisp.interpreter.LispHashTable;
+
+/**
+ * Pruebas unitarias para la tabla hash de direccionamiento abierto.
+ */
+public class LispHashTableTest {
+    
+    @Test
+    @DisplayName("Inserción y búsqueda con crecimiento de la tabla")
+    public void testPutAndGetWithResize() {
+        LispHashTable table = new LispHashTable();
+        
+        for (int i = 0; i < 1000; i++) {
+            table.put(i, i * 2);
+            table.put("s" + i, i);
+        }
+        
+        assertEquals(2000, table.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i * 2, table.get(i));
+            assertEquals(i, table.get("s" + i));
+        }
+        assertNull(table.get(1000));
+        assertNull(table.get("s1000"));
+    }
+    
+    @Test
+    @DisplayName("Eliminación sin romper las secuencias de sondeo")
+    public void testRemove() {
+        LispHashTable table = new LispHashTable();
+        
+        for (int i = 0; i < 500; i++) {
+            table.put(i, "v" + i);
+        }
+        for (int i = 0; i < 500; i += 2) {
+            assertTrue(table.remove(i));
+        }
+        assertFalse(table.remove(0));
+        
+        assertEquals(250, table.size());
+        for (int i = 0; i < 500; i++) {
+            if (i % 2 == 0) {
+                assertNull(table.get(i));
+            } else {
+                assertEquals("v" + i, table.get(i));
+            }
+        }
+    }
+    
+    @Test
+    @DisplayName("Las llaves usan la igualdad de equal")
+    public void testEqualKeys() {
+        LispHashTable table = new LispHashTable();
+        
+        table.put(List.of("a", 1), "lista");
+        table.put(1, "entero");
+        
+        assertEquals("lista", table.get(new ArrayList<>(List.of("a", 1))));
+        assertEquals("entero", table.get(1));
+        assertNull(table.get(1L));
+        assertNull(table.get(1.0));
+    }
+    
+    @Test
+    @DisplayName("Las cadenas se guardan sin internar y se comparan con equals")
+    public void testStringKeysNotInterned() {
+        LispHashTable table = new LispHashTable();
+        String key = new String("clave");
+        
+        table.put(key, 1);
+        table.put(new String("clave"), 2);
+        
+        assertEquals(1, table.size());
+        assertEquals(2, table.get("clave"));
+        List<Object> keys = new ArrayList<>();
+        table.forEach((k, value) -> keys.add(k));
+        assertTrue(keys.get(0) == key);
+    }
+    
+    @Test
+    @DisplayName("Recorrido de todas las entradas")
+    public void testForEach() {
+        LispHashTable table = new LispHashTable();
+        table.put(1, "a");
+        table.put("x", "b");
+        
+        List<Object> keys = new ArrayList<>();
+        table.forEach((key, value) -> {
+            keys.add(key);
+            table.remove(key);  // Modificar durante el recorrido es seguro
+        });
+        
+        assertEquals(2, keys.size());
+        assertEquals(0, table.size());
+    }
+}
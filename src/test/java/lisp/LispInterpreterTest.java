@@ -1,16 +1,21 @@
 package lisp;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;  // Añadido el import faltante
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import lisp.environment.LispEnvironment;
 import lisp.interpreter.LispException;
 import lisp.interpreter.LispInterpreter;
+import lisp.interpreter.LispLineProfile;
+import lisp.interpreter.LispVector;
 
 /**
  * Pruebas de integración para el intérprete LISP completo.
@@ -123,6 +128,610 @@ public class LispInterpreterTest {
         assertEquals(25, interpreter.eval("(area-triangulo 5)"));
     }
     
+    @Test
+    @DisplayName("Promesas con delay y force")
+    public void testDelayForce() {
+        interpreter.eval("(setq contador 0)");
+        interpreter.eval("(setq p (delay (setq contador (+ contador 1))))");
+        
+        // delay no evalúa la expresión hasta que se fuerza
+        assertEquals(0, interpreter.eval("contador"));
+        assertEquals(1, interpreter.eval("(force p)"));
+        
+        // El valor se memoriza: forzar de nuevo no vuelve a evaluar
+        assertEquals(1, interpreter.eval("(force p)"));
+        assertEquals(1, interpreter.eval("contador"));
+        
+        // Forzar un valor que no es promesa lo devuelve tal cual
+        assertEquals(5, interpreter.eval("(force 5)"));
+    }
+    
+    @Test
+    @DisplayName("Los marcos retenidos por una promesa no se reutilizan")
+    public void testCapturedFrames() {
+        interpreter.eval("(defun promesa (x) (delay (* x 10)))");
+        interpreter.eval("(defun suma (n) (cond ((= n 0) 0) (t (+ n (suma (- n 1))))))");
+        interpreter.eval("(setq p (promesa 4))");
+        
+        // Otras llamadas reutilizan los marcos libres, pero no el de promesa
+        assertEquals(5050, interpreter.eval("(suma 100)"));
+        assertEquals(40, interpreter.eval("(force p)"));
+        
+        // Lo mismo con la cola de un flujo creada dentro de una función
+        interpreter.eval("(defun desde (n) (lazy-cons n (desde (+ n 1))))");
+        interpreter.eval("(setq s (desde 7))");
+        assertEquals(5050, interpreter.eval("(suma 100)"));
+        assertEquals(List.of(7, 8, 9), interpreter.eval("(stream-take 3 s)"));
+    }
+    
+    @Test
+    @DisplayName("Funciones anónimas con lambda, funcall y apply")
+    public void testLambda() {
+        interpreter.eval("(defun sumador (n) (lambda (x) (+ x n)))");
+        interpreter.eval("(setq mas5 (sumador 5))");
+        assertEquals(15, interpreter.eval("(funcall mas5 10)"));
+        assertEquals(42, interpreter.eval("((lambda (x y) (* x y)) 6 7)"));
+        
+        // Las funciones se guardan en listas y se pasan a otras funciones
+        interpreter.eval("(defun compone (f g) (lambda (x) (funcall f (funcall g x))))");
+        assertEquals(11, interpreter.eval("(funcall (compone (sumador 1) (sumador 10)) 0)"));
+        interpreter.eval("(setq fs (list (sumador 1) (sumador 2)))");
+        assertEquals(5, interpreter.eval("(let ((s 0)) (dolist (g fs s) (setq s (+ s (funcall g 1)))))"));
+        assertEquals(10, interpreter.eval("(apply '+ 1 2 '(3 4))"));
+        assertEquals(6, interpreter.eval("(apply (lambda (a b c) (* a b c)) '(1 2 3))"));
+        assertEquals(40, interpreter.eval("(stream-car (stream-map (lambda (x) (* x 10)) (range 4)))"));
+        
+        assertThrows(LispException.class, () -> interpreter.eval("(funcall mas5 1 2)"));
+    }
+    
+    @Test
+    @DisplayName("Las clausuras comparten las variables libres que se asignan")
+    public void testFlatClosures() {
+        // Un setq en el marco después de crear la clausura se ve dentro de ella;
+        // las globales se leen al llamarla
+        interpreter.eval("(defun comparte (n) (let ((f (lambda () (+ n base-clausura)))) (setq n 100) f))");
+        interpreter.eval("(setq base-clausura 10)");
+        interpreter.eval("(setq f (comparte 1))");
+        interpreter.eval("(setq base-clausura 20)");
+        assertEquals(120, interpreter.eval("(funcall f)"));
+        
+        // Y un setq dentro de la clausura lo ve el marco que la creó
+        interpreter.eval("(defun asigna (n) (let ((f (lambda () (setq n 7)))) (funcall f) n))");
+        assertEquals(7, interpreter.eval("(asigna 1)"));
+        
+        // Tres niveles: cada lambda captura lo que usan las interiores
+        interpreter.eval("(defun curry (a) (lambda (b) (lambda (c) (+ a b c))))");
+        assertEquals(6, interpreter.eval("(funcall (funcall (curry 1) 2) 3)"));
+        
+        // Una clausura caliente se compila y conserva sus valores
+        interpreter.eval("(setq doble (let ((k 2)) (lambda (x) (* k x))))");
+        for (int i = 0; i < 100; i++) {
+            assertEquals(2 * i, interpreter.eval("(funcall doble " + i + ")"));
+        }
+    }
+    
+    @Test
+    @DisplayName("Un contador en una clausura conserva su estado entre llamadas")
+    public void testCounterClosure() {
+        interpreter.eval("(defun contador () (let ((n 0)) (lambda () (setq n (+ n 1)))))");
+        interpreter.eval("(setq c (contador))");
+        assertEquals(1, interpreter.eval("(funcall c)"));
+        assertEquals(2, interpreter.eval("(funcall c)"));
+        assertEquals(3, interpreter.eval("(funcall c)"));
+        
+        // Cada llamada a contador crea una variable nueva
+        interpreter.eval("(setq otro (contador))");
+        assertEquals(1, interpreter.eval("(funcall otro)"));
+        assertEquals(4, interpreter.eval("(funcall c)"));
+        
+        // Dos clausuras creadas en el mismo marco comparten la variable
+        interpreter.eval("(setq tabla (make-hash-table))");
+        interpreter.eval("(defun par () (let ((n 0)) (puthash 'sube (lambda () (setq n (+ n 1))) tabla) (puthash 'lee (lambda () n) tabla)))");
+        interpreter.eval("(par)");
+        interpreter.eval("(funcall (gethash 'sube tabla))");
+        interpreter.eval("(funcall (gethash 'sube tabla))");
+        assertEquals(2, interpreter.eval("(funcall (gethash 'lee tabla))"));
+        
+        // Una clausura caliente se compila y sigue escribiendo en la celda
+        for (int i = 4; i < 100; i++) {
+            assertEquals(i + 1, interpreter.eval("(funcall c)"));
+        }
+    }
+    
+    @Test
+    @DisplayName("mapcar, filter, reduce, some y every")
+    public void testSequenceFunctions() {
+        interpreter.eval("(setq numeros '(1 2 3 4 5 6))");
+        assertEquals(List.of(1, 4, 9, 16, 25, 36), interpreter.eval("(mapcar (lambda (x) (* x x)) numeros)"));
+        assertEquals(List.of(4, 5, 6), interpreter.eval("(filter (lambda (x) (> x 3)) numeros)"));
+        assertEquals(21, interpreter.eval("(reduce + numeros)"));
+        assertEquals(121, interpreter.eval("(reduce + numeros 100)"));
+        assertEquals(0, interpreter.eval("(reduce + nil)"));
+        assertEquals("t", interpreter.eval("(some (lambda (x) (> x 5)) numeros)"));
+        assertEquals("nil", interpreter.eval("(every (lambda (x) (> x 5)) numeros)"));
+        
+        // Funciones de usuario por nombre, y una suma que ya no cabe en un int
+        interpreter.eval("(defun doble (x) (* 2 x))");
+        assertEquals(List.of(2, 4), interpreter.eval("(mapcar 'doble '(1 2))"));
+        assertEquals(interpreter.eval("(+ 2147483647 1)"), interpreter.eval("(reduce + '(2147483647 1))"));
+    }
+    
+    @Test
+    @DisplayName("Las cadenas de secuencias se ejecutan en una sola pasada")
+    public void testFusedSequences() {
+        interpreter.eval("(setq numeros '(1 2 3 4 5 6 7 8 9 10))");
+        assertEquals(80, interpreter.eval(
+            "(reduce + (mapcar (lambda (x) (* x 2)) (remove-if-not (lambda (x) (> x 5)) numeros)))"));
+        assertEquals(List.of(16, 20), interpreter.eval(
+            "(filter (lambda (x) (> x 12)) (mapcar (lambda (x) (* x 2)) (filter (lambda (x) (> x 5)) "
+            + "(filter (lambda (x) (= (* 2 (/ x 2)) x)) (mapcar (lambda (x) (+ x 1)) numeros)))))"));
+        
+        // some deja de recorrer la cadena en cuanto encuentra un resultado
+        interpreter.eval("(setq llamadas 0)");
+        assertEquals("t", interpreter.eval(
+            "(some (lambda (x) (> x 2)) (mapcar (lambda (x) (+ x (* 0 (incf-atomic llamadas)))) numeros))"));
+        assertEquals(3, interpreter.eval("llamadas"));
+    }
+    
+    @Test
+    @DisplayName("Flujos perezosos infinitos")
+    public void testLazyStreams() {
+        assertEquals(List.of(0, 1, 2, 3, 4), interpreter.eval("(stream-take 5 (range 0))"));
+        assertEquals(List.of(3, 4), interpreter.eval("(stream-take 10 (range 3 5))"));
+        
+        interpreter.eval("(defun par (n) (equal (* (/ n 2) 2) n))");
+        interpreter.eval("(defun cuadrado (n) (* n n))");
+        assertEquals(List.of(0, 4, 16, 36),
+            interpreter.eval("(stream-take 4 (stream-map cuadrado (stream-filter par (range 0))))"));
+        
+        // Un flujo construido con lazy-cons solo evalúa la cola al consumirla
+        interpreter.eval("(defun desde (n) (lazy-cons n (desde (+ n 1))))");
+        assertEquals(10, interpreter.eval("(stream-car (desde 10))"));
+        assertEquals(11, interpreter.eval("(stream-car (stream-cdr (desde 10)))"));
+        assertEquals(List.of(1, 2, 3), interpreter.eval("(stream-take 3 (desde 1))"));
+    }
+    
+    @Test
+    @DisplayName("Vectores numéricos nativos")
+    public void testVectors() {
+        interpreter.eval("(setq v (make-vector 4 1))");
+        interpreter.eval("(vset v 2 5)");
+        
+        assertEquals(4, interpreter.eval("(vlength v)"));
+        assertEquals(5, interpreter.eval("(vref v 2)"));
+        assertEquals(8, interpreter.eval("(vsum v)"));
+        assertEquals(28, interpreter.eval("(vdot v v)"));
+        assertEquals(16, interpreter.eval("(vsum (v+ v v))"));
+        assertEquals(24, interpreter.eval("(vsum (v* v 3))"));
+        assertEquals(-8, interpreter.eval("(vsum (vmap - v))"));
+        assertEquals(10, interpreter.eval("(vref (vmap * v 2) 2)"));
+        
+        // Un valor inicial decimal crea un vector de punto flotante
+        interpreter.eval("(setq w (make-vector 3 0.5))");
+        assertEquals(1.5, interpreter.eval("(vsum w)"));
+        assertEquals(4.5, interpreter.eval("(vsum (v+ w (make-vector 3 1)))"));
+        
+        // Funciones de usuario también pueden aplicarse con vmap
+        interpreter.eval("(defun cuadrado (n) (* n n))");
+        assertEquals(28, interpreter.eval("(vsum (vmap cuadrado v))"));
+        
+        assertThrows(LispException.class, () -> interpreter.eval("(vref v 10)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(vset v 0 1.5)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(v+ v w)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(make-vector 2.7 0)"));
+    }
+
+    @Test
+    @DisplayName("La división de vectores por cero lanza el mismo error que /")
+    public void testVectorDivisionByZero() {
+        interpreter.eval("(setq v (make-vector 3 4))");
+
+        assertEquals(6.0, interpreter.eval("(vsum (vmap / v 2))"));
+        assertThrows(LispException.class, () -> interpreter.eval("(vmap / v 0)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(vmap / v 0.0)"));
+
+        // Entre vectores el divisor se revisa elemento por elemento
+        LispVector dividendo = LispVector.ofLongs(3, 4);
+        LispVector divisor = LispVector.ofLongs(3, 2);
+        assertEquals(6.0, dividendo.combine(divisor, '/').sum());
+        divisor.set(1, 0);
+        assertThrows(LispException.class, () -> dividendo.combine(divisor, '/'));
+    }
+    
+    @Test
+    @DisplayName("Tablas hash")
+    public void testHashTables() {
+        interpreter.eval("(setq tabla (make-hash-table))");
+        interpreter.eval("(puthash 1 'uno tabla)");
+        interpreter.eval("(puthash 'dos 2 tabla)");
+        interpreter.eval("(puthash '(a b) 'lista tabla)");
+        
+        assertEquals("uno", interpreter.eval("(gethash 1 tabla)"));
+        assertEquals(2, interpreter.eval("(gethash 'dos tabla)"));
+        assertEquals("lista", interpreter.eval("(gethash '(a b) tabla)"));
+        assertEquals("nil", interpreter.eval("(gethash 3 tabla)"));
+        assertEquals(0, interpreter.eval("(gethash 3 tabla 0)"));
+        assertEquals(3, interpreter.eval("(hash-count tabla)"));
+        
+        // Igualdad consistente con equal: 1 y 1.0 son llaves distintas
+        assertEquals("nil", interpreter.eval("(gethash 1.0 tabla)"));
+        
+        assertEquals("t", interpreter.eval("(remhash 1 tabla)"));
+        assertEquals("nil", interpreter.eval("(remhash 1 tabla)"));
+        assertEquals(2, interpreter.eval("(hash-count tabla)"));
+        
+        // maphash aplica la función a cada par llave-valor
+        interpreter.eval("(setq copia (make-hash-table))");
+        interpreter.eval("(defun copiar (llave valor) (puthash llave valor copia))");
+        interpreter.eval("(maphash copiar tabla)");
+        assertEquals(2, interpreter.eval("(hash-count copia)"));
+        assertEquals(2, interpreter.eval("(gethash 'dos copia)"));
+    }
+    
+    @Test
+    @DisplayName("Quasiquote con unquote y unquote-splicing")
+    public void testQuasiquote() {
+        interpreter.eval("(setq x 5)");
+        interpreter.eval("(setq xs '(1 2))");
+        
+        assertEquals(List.of("a", 5, "b"), interpreter.eval("`(a ,x b)"));
+        assertEquals(List.of("a", 1, 2, "b"), interpreter.eval("`(a ,@xs b)"));
+        assertEquals(List.of("a", List.of("+", 1, 6)), interpreter.eval("`(a (+ 1 ,(+ x 1)))"));
+    }
+    
+    @Test
+    @DisplayName("Macros con expansión guardada por sitio de llamada")
+    public void testDefmacro() {
+        interpreter.eval("(defmacro doble (e) `(* 2 ,e))");
+        assertEquals(10, interpreter.eval("(doble 5)"));
+        
+        // &rest agrupa los argumentos restantes sin evaluarlos
+        interpreter.eval("(defmacro suma-todo (&rest xs) `(+ ,@xs))");
+        assertEquals(6, interpreter.eval("(suma-todo 1 2 3)"));
+        
+        // La macro cuenta sus expansiones en una tabla hash
+        interpreter.eval("(setq conteo (make-hash-table))");
+        interpreter.eval("(defmacro contada (e) " +
+            "(cond ((puthash 'n (+ (gethash 'n conteo 0) 1) conteo) `(+ ,e 1))))");
+        interpreter.eval("(defun siguiente (n) (contada n))");
+        
+        assertEquals(2, interpreter.eval("(siguiente 1)"));
+        assertEquals(3, interpreter.eval("(siguiente 2)"));
+        assertEquals(4, interpreter.eval("(siguiente 3)"));
+        assertEquals(1, interpreter.eval("(gethash 'n conteo)"));
+        
+        // Redefinir la macro invalida la expansión guardada
+        interpreter.eval("(defmacro contada (e) " +
+            "(cond ((puthash 'n (+ (gethash 'n conteo 0) 1) conteo) `(- ,e 1))))");
+        assertEquals(2, interpreter.eval("(siguiente 3)"));
+        assertEquals(1, interpreter.eval("(siguiente 2)"));
+        assertEquals(2, interpreter.eval("(gethash 'n conteo)"));
+        
+        assertThrows(LispException.class, () -> interpreter.eval("(doble 1 2)"));
+    }
+    
+    @Test
+    @DisplayName("Redefinir una función invalida los sitios de llamada guardados")
+    public void testRedefinitionInvalidatesCallSites() {
+        interpreter.eval("(defun f (x) (* x 2))");
+        interpreter.eval("(defun g (x) (f x))");
+        assertEquals(6, interpreter.eval("(g 3)"));
+        assertEquals(8, interpreter.eval("(g 4)"));
+        
+        interpreter.eval("(defun f (x) (* x 3))");
+        assertEquals(9, interpreter.eval("(g 3)"));
+        
+        // Una función definida dentro de otra solo existe en ese entorno
+        interpreter.eval("(defun con-local (x) (cond ((defun f (y) (+ y 100)) (g x))))");
+        assertEquals(103, interpreter.eval("(con-local 3)"));
+        assertEquals(9, interpreter.eval("(g 3)"));
+    }
+    
+    @Test
+    @DisplayName("Formas y aridades se verifican al definir, con línea y columna")
+    public void testDefinitionTimeValidation() {
+        // El error está en una rama que nunca se ejecutaría
+        LispException e = assertThrows(LispException.class,
+            () -> interpreter.eval("(defun f (x)\n  (cond ((equal x 1) 1)\n        (t (equal x))))"));
+        assertEquals(3, e.getLine());
+        assertEquals(12, e.getColumn());
+        assertThrows(LispException.class, () -> interpreter.eval("(f 1)"));
+        
+        // Cláusula de cond mal formada
+        e = assertThrows(LispException.class, () -> interpreter.eval("(defun g (x) (cond ((atom x))))"));
+        assertEquals(1, e.getLine());
+        assertEquals(20, e.getColumn());
+        
+        // Llamadas a funciones conocidas, incluida la recursión
+        interpreter.eval("(defun suma (a b) (+ a b))");
+        assertThrows(LispException.class, () -> interpreter.eval("(defun h (x) (cond ((atom x) (suma x)) (t 0)))"));
+        assertThrows(LispException.class, () -> interpreter.eval("(defun r (n) (cond ((= n 0) 0) (t (r))))"));
+        
+        // Una redefinición con otra aridad se sigue detectando en los sitios ya verificados
+        interpreter.eval("(defun usa-suma (x) (suma x 1))");
+        assertEquals(3, interpreter.eval("(usa-suma 2)"));
+        interpreter.eval("(defun suma (a) a)");
+        assertThrows(LispException.class, () -> interpreter.eval("(usa-suma 2)"));
+    }
+    
+    @Test
+    @DisplayName("Copias aisladas del entorno global")
+    public void testFork() {
+        interpreter.eval("(setq base 1)");
+        interpreter.eval("(defun doble (x) (* x 2))");
+        
+        LispInterpreter copy = interpreter.fork();
+        assertEquals(1, copy.eval("base"));
+        assertEquals(8, copy.eval("(doble 4)"));
+        
+        // Los cambios en la copia no se ven en el original
+        copy.eval("(setq base 2)");
+        copy.eval("(defun doble (x) (+ x x x))");
+        copy.eval("(defun solo-copia () 7)");
+        assertEquals(2, copy.eval("base"));
+        assertEquals(12, copy.eval("(doble 4)"));
+        assertEquals(1, interpreter.eval("base"));
+        assertEquals(8, interpreter.eval("(doble 4)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(solo-copia)"));
+        
+        // Ni los del original en la copia
+        interpreter.eval("(defmacro doble (x) x)");
+        assertEquals(4, interpreter.eval("(doble 4)"));
+        assertEquals(12, copy.eval("(doble 4)"));
+    }
+    
+    @Test
+    @DisplayName("Los nombres locales y asignados son de cada entorno global")
+    public void testNameRegistriesPerGlobal() {
+        LispEnvironment a = new LispEnvironment();
+        LispEnvironment b = new LispEnvironment();
+        
+        new LispEnvironment(a, new String[] {"solo-en-a"});
+        a.markAssigned("asignada-en-a");
+        assertTrue(a.isLocalName("solo-en-a"));
+        assertTrue(a.isAssignedName("asignada-en-a"));
+        assertTrue(!b.isLocalName("solo-en-a"));
+        assertTrue(!b.isAssignedName("asignada-en-a"));
+        
+        // fork() hereda lo registrado hasta ese momento; lo demás no se comparte
+        LispEnvironment copy = a.fork();
+        assertTrue(copy.isLocalName("solo-en-a"));
+        assertTrue(copy.isAssignedName("asignada-en-a"));
+        new LispEnvironment(copy, new String[] {"solo-en-copia"});
+        assertTrue(!a.isLocalName("solo-en-copia"));
+        
+        // Una definición compartida registra sus ranuras en cada entorno donde
+        // se llama, aunque el marco salga ya hecho de la reserva del hilo
+        interpreter.eval("(setq tasa 3)");
+        interpreter.eval("(defun lee-tasa () tasa)");
+        interpreter.eval("(defun con-tasa (tasa) (lee-tasa))");
+        LispInterpreter otra = interpreter.fork();
+        assertEquals(1, otra.eval("(con-tasa 1)"));
+        assertEquals(7, interpreter.eval("(con-tasa 7)"));
+        assertEquals(3, interpreter.eval("(lee-tasa)"));
+    }
+    
+    @Test
+    @DisplayName("Un setq concurrente en el original no se filtra a la copia")
+    public void testForkWithConcurrentSetq() throws InterruptedException {
+        LispEnvironment env = new LispEnvironment();
+        env.setVariable("contador", 0);
+        
+        Thread writer = new Thread(() -> {
+            for (int i = 1; i <= 200_000; i++) {
+                env.setVariable("contador", i);
+            }
+        });
+        writer.start();
+        
+        // El valor que ve cada copia queda fijo aunque el original siga cambiando
+        List<LispEnvironment> copies = new ArrayList<>();
+        List<Object> seen = new ArrayList<>();
+        while (writer.isAlive()) {
+            LispEnvironment copy = env.fork();
+            copies.add(copy);
+            seen.add(copy.getVariable("contador"));
+        }
+        writer.join();
+        
+        for (int i = 0; i < copies.size(); i++) {
+            assertEquals(seen.get(i), copies.get(i).getVariable("contador"));
+        }
+        assertEquals(200_000, env.getVariable("contador"));
+    }
+    
+    @Test
+    @DisplayName("Variables locales con let y let*")
+    public void testLet() {
+        assertEquals(3, interpreter.eval("(let ((a 1) (b 2)) (+ a b))"));
+        assertEquals("nil", interpreter.eval("(let ((a 1)))"));
+        assertEquals("nil", interpreter.eval("(let (a) a)"));
+        
+        // let evalúa todos los valores antes de ligar; let* en orden
+        interpreter.eval("(setq x 10)");
+        assertEquals(11, interpreter.eval("(let ((x 1) (y (+ x 1))) y)"));
+        assertEquals(2, interpreter.eval("(let* ((x 1) (y (+ x 1))) y)"));
+        assertEquals(10, interpreter.eval("x"));
+        
+        // Dentro de funciones: sombra de parámetros y restauración al salir
+        interpreter.eval("(defun f (x) (list (let ((x (* x 2))) (let* ((x (+ x 1)) (x (* x 10))) x)) x))");
+        assertEquals(List.of(70, 3), interpreter.eval("(f 3)"));
+        
+        // Alcance dinámico: las funciones llamadas ven las variables del let
+        interpreter.eval("(defun lee-base () base)");
+        assertEquals(42, interpreter.eval("(let ((base 42)) (lee-base))"));
+        
+        // setq de otras variables y defun siguen actuando fuera del let
+        interpreter.eval("(let ((a 5)) (setq total a) (defun dentro () a))");
+        assertEquals(5, interpreter.eval("total"));
+        assertEquals("a", interpreter.eval("(dentro)"));
+        
+        // Un error dentro del cuerpo también restaura las variables
+        interpreter.eval("(defun g (y) (list (cond ((equal (let ((y 0)) (/ 1 y)) 0) 0) (t 1)) y))");
+        assertThrows(LispException.class, () -> interpreter.eval("(g 7)"));
+        interpreter.eval("(defun h (y) (list (let ((y (+ y 1))) y) y))");
+        assertEquals(List.of(8, 7), interpreter.eval("(h 7)"));
+        
+        assertThrows(LispException.class, () -> interpreter.eval("(let)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(let (1) 2)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(let x 2)"));
+    }
+    
+    @Test
+    @DisplayName("Bucles dotimes, dolist, do y while")
+    public void testLoops() {
+        interpreter.eval("(setq s 0)");
+        assertEquals("nil", interpreter.eval("(dotimes (i 5) (setq s (+ s i)))"));
+        assertEquals(10, interpreter.eval("s"));
+        assertEquals(3, interpreter.eval("(dotimes (i 3 i))"));
+        
+        interpreter.eval("(setq total 0)");
+        assertEquals(6, interpreter.eval("(dolist (x (list 1 2 3) total) (setq total (+ total x)))"));
+        assertEquals("nil", interpreter.eval("(dolist (x nil) (setq total 0))"));
+        assertEquals(6, interpreter.eval("total"));
+        
+        // do avanza las variables en paralelo
+        assertEquals(55, interpreter.eval("(do ((i 0 (+ i 1)) (a 0 b) (b 1 (+ a b))) ((= i 10) a))"));
+        
+        interpreter.eval("(setq n 5)");
+        assertEquals("nil", interpreter.eval("(while (> n 0) (setq n (- n 1)))"));
+        assertEquals(0, interpreter.eval("n"));
+        
+        // Dentro de funciones las variables del bucle usan el marco de la función
+        interpreter.eval("(defun factorial (n) (let ((r 1)) (dotimes (i n r) (setq r (* r (+ i 1))))))");
+        assertEquals(120, interpreter.eval("(factorial 5)"));
+        
+        // Un millón de iteraciones sin crecer la pila
+        assertEquals(1000000, interpreter.eval("(let ((c 0)) (dotimes (i 1000000 c) (setq c (+ c 1))))"));
+        
+        assertThrows(LispException.class, () -> interpreter.eval("(dotimes (i (list 1)) i)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(dolist (x 5) x)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(dotimes i 5)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(do ((1 2)) (t))"));
+    }
+    
+    @Test
+    @DisplayName("Operaciones atómicas sobre variables")
+    public void testAtomicOperations() {
+        interpreter.eval("(setq contador 0)");
+        assertEquals(1, interpreter.eval("(incf-atomic contador)"));
+        assertEquals(6, interpreter.eval("(incf-atomic contador 5)"));
+        assertEquals(7.5, interpreter.eval("(incf-atomic contador 1.5)"));
+        
+        assertEquals("nil", interpreter.eval("(compare-and-set contador 0 10)"));
+        assertEquals("t", interpreter.eval("(compare-and-set contador 7.5 10)"));
+        assertEquals(10, interpreter.eval("contador"));
+        
+        // Modifica la variable donde está definida, no en el entorno de la función
+        interpreter.eval("(defun sumar (n) (incf-atomic contador n))");
+        assertEquals(13, interpreter.eval("(sumar 3)"));
+        assertEquals(13, interpreter.eval("contador"));
+        
+        assertThrows(LispException.class, () -> interpreter.eval("(incf-atomic no-definida)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(compare-and-set 1 2 3)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(defun f () (incf-atomic contador 1 2))"));
+    }
+    
+    @Test
+    @DisplayName("Varios hilos comparten el intérprete sin perder actualizaciones")
+    public void testConcurrentUpdates() throws InterruptedException {
+        interpreter.eval("(setq contador 0)");
+        interpreter.eval("(defun sumar (n) (incf-atomic contador n))");
+        
+        int threads = 8;
+        int iterations = 500;
+        List<Throwable> errors = new ArrayList<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int id = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    for (int i = 0; i < iterations; i++) {
+                        interpreter.eval("(sumar 1)");
+                        interpreter.eval("(setq propia" + id + " " + i + ")");
+                        interpreter.eval("(defun f" + id + " (x) (+ x " + i + "))");
+                    }
+                } catch (Throwable e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        
+        assertTrue(errors.isEmpty(), errors.toString());
+        assertEquals(threads * iterations, interpreter.eval("contador"));
+        for (int t = 0; t < threads; t++) {
+            assertEquals(iterations - 1, interpreter.eval("propia" + t));
+            assertEquals(iterations - 1, interpreter.eval("(f" + t + " 0)"));
+        }
+    }
+    
+    @Test
+    @DisplayName("Traza LISP de los errores sin traza de Java")
+    public void testLispBacktrace() {
+        // El let evita que divide se expanda en línea dentro de media
+        interpreter.eval("(defun divide (a b)\n  (let ((q (/ a b))) q))");
+        interpreter.eval("(defun media (x n)\n  (+ 1\n     (divide x n)))");
+        
+        LispException error = assertThrows(LispException.class, () -> interpreter.eval("(list 1 (media 4 0))"));
+        assertEquals(0, error.getStackTrace().length);
+        assertEquals(List.of("divide (línea 3, columna 6)", "media (línea 1, columna 9)"), error.getBacktrace());
+        
+        // Los errores fuera de funciones no tienen traza
+        assertTrue(assertThrows(LispException.class, () -> interpreter.eval("(/ 1 0)")).getBacktrace().isEmpty());
+    }
+    
+    @Test
+    @DisplayName("La traza LISP conserva las llamadas de las funciones compiladas")
+    public void testHotBacktrace() {
+        interpreter.eval("(defun divide (a b)\n  (let ((q (/ a b))) q))");
+        interpreter.eval("(defun media (x n)\n  (+ 1\n     (divide x n)))");
+        interpreter.eval("(defun cuenta (n d)\n  (cond ((= n 0) (divide 1 d))\n        (t (cuenta (- n 1) d))))");
+        
+        // Calentar las funciones hasta que se traducen a bytecode
+        for (int i = 0; i < 1200; i++) {
+            interpreter.eval("(media 4 2)");
+            interpreter.eval("(cuenta 1 1)");
+        }
+        
+        LispException error = assertThrows(LispException.class, () -> interpreter.eval("(list 1 (media 4 0))"));
+        assertEquals(List.of("divide (línea 3, columna 6)", "media (línea 1, columna 9)"), error.getBacktrace());
+        
+        // Las llamadas recursivas directas también aparecen
+        error = assertThrows(LispException.class, () -> interpreter.eval("(cuenta 2 0)"));
+        assertEquals(List.of("divide (línea 2, columna 18)", "cuenta (línea 3, columna 12)",
+                             "cuenta (línea 3, columna 12)", "cuenta (línea 1, columna 1)"), error.getBacktrace());
+    }
+    
+    @Test
+    @DisplayName("catch, throw e ignore-errors")
+    public void testNonLocalExits() {
+        assertEquals(2, interpreter.eval("(catch 'fin (+ 1 1))"));
+        assertEquals(10, interpreter.eval("(catch 'fin (+ 1 (throw 'fin 10)))"));
+        
+        // throw atraviesa funciones, bucles y catch con otras etiquetas
+        interpreter.eval("(defun busca (x lista) (dolist (e lista 'no) (cond ((equal e x) (throw 'hallado e)) (t nil))))");
+        assertEquals(3, interpreter.eval("(catch 'hallado (catch 'otro (busca 3 (list 1 2 3 4))))"));
+        assertEquals("no", interpreter.eval("(catch 'hallado (busca 9 (list 1 2)))"));
+        
+        // Las variables locales se restauran al salir con throw
+        interpreter.eval("(defun f (x) (list (catch 'c (let ((x 0)) (throw 'c x))) x))");
+        assertEquals(List.of(0, 5), interpreter.eval("(f 5)"));
+        
+        assertEquals("nil", interpreter.eval("(ignore-errors (/ 1 0))"));
+        assertEquals(3, interpreter.eval("(ignore-errors 1 2 3)"));
+        assertEquals(7, interpreter.eval("(catch 'c (ignore-errors (throw 'c 7)))"));
+        
+        assertThrows(LispException.class, () -> interpreter.eval("(throw 'nadie 1)"));
+        assertThrows(LispException.class, () -> interpreter.eval("(throw 'x)"));
+    }
+    
     @Test
     @DisplayName("Manejo de errores")
     public void testErrorHandling() {
@@ -139,4 +748,71 @@ public class LispInterpreterTest {
         // Sintaxis incorrecta
         assertThrows(Exception.class, () -> interpreter.eval("(+ 1 2"));
     }
-}
\ No newline at end of file
+    
+    @Test
+    @DisplayName("Carga de un programa y líneas más ejecutadas")
+    public void testLoadWithLineProfile() {
+        String source = String.join("\n",
+            "; suma los cuadrados de 1 a n",
+            "(defun cuadrado (x)",
+            "  (* x x))",
+            "(defun suma-cuadrados (n)",
+            "  (cond ((< n 1) 0)",
+            "        (t (+ (cuadrado n)",
+            "              (suma-cuadrados (- n 1))))))",
+            "(suma-cuadrados 10)");
+        
+        LispLineProfile profile = new LispLineProfile();
+        interpreter.setLineProfile(profile);
+        List<Object> results = interpreter.load(source);
+        interpreter.setLineProfile(null);
+        
+        assertEquals(385, results.get(results.size() - 1));
+        // 11 llamadas: cond y (< n 1) en la línea 5; la suma y (cuadrado n),
+        // expandida en línea pero con la posición de la llamada, en la 6
+        assertEquals(22, profile.getCount(5));
+        assertEquals(20, profile.getCount(6));
+        assertEquals(20, profile.getCount(7));
+        assertEquals(1, profile.getCount(8));
+        int[] hot = profile.getHotLines(2);
+        assertEquals(2, hot.length);
+        assertTrue(profile.getCount(hot[0]) >= profile.getCount(hot[1]));
+        assertTrue(profile.report(source, 3).contains("(cond ((< n 1) 0)"));
+        
+        // Los errores de un programa cargado indican su línea
+        LispException e = assertThrows(LispException.class,
+            () -> interpreter.load("(setq a 1)\n(cond (a))"));
+        assertTrue(e.getMessage().contains("línea 2"), e.getMessage());
+    }
+    
+    @Test
+    @DisplayName("equal entre datos citados consolidados")
+    public void testHashConsedEqual() {
+        interpreter.setHashConsing(true);
+        assertEquals("t", interpreter.eval("(equal '(si (a b) entonces c) '(si (a b) entonces c))"));
+        assertEquals("nil", interpreter.eval("(equal '(si (a b) entonces c) '(si (a b) entonces d))"));
+        assertEquals("t", interpreter.eval("(equal (list 1 2) '(1 2))"));
+        assertEquals("t", interpreter.eval("(equal '(1 2) (list 1 2))"));
+    }
+    
+    @Test
+    @DisplayName("quote devuelve constantes inmutables sin copiarlas")
+    public void testImmutableQuoteConstants() {
+        interpreter.eval("(defun tabla () '((a 1) (b 2.5) (c d)))");
+        Object first = interpreter.eval("(tabla)");
+        
+        assertSame(first, interpreter.eval("(tabla)"));
+        List<?> rows = (List<?>) first;
+        assertThrows(UnsupportedOperationException.class, () -> rows.clear());
+        assertThrows(UnsupportedOperationException.class, () -> ((List<?>) rows.get(0)).remove(0));
+        assertEquals("[[a, 1], [b, 2.5], [c, d]]", first.toString());
+        
+        // Los datos citados por una macro se congelan una vez en su expansión
+        interpreter.eval("(defmacro constante (x) `(quote ,x))");
+        interpreter.eval("(defun datos () (constante (1 2 (3 4))))");
+        Object data = interpreter.eval("(datos)");
+        assertSame(data, interpreter.eval("(datos)"));
+        assertThrows(UnsupportedOperationException.class, () -> ((List<?>) data).clear());
+        assertEquals("t", interpreter.eval("(equal (datos) (list 1 2 (list 3 4)))"));
+    }
+}
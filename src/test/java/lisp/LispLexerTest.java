@@ -0,0 +1,116 @@
+package lisp;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import lisp.interpreter.LispLexer;
+import lisp.interpreter.LispParser;
+import lisp.interpreter.LispTokenizer;
+
+/**
+ * Pruebas unitarias para el analizador léxico sin copias.
+ */
+public class LispLexerTest {
+
+    @Test
+    @DisplayName("Los tokens coinciden con los del tokenizador")
+    public void testSameTokensAsTokenizer() {
+        String source = "(defun f (x) ; comentario\n\t`(+ ,x ,@(list 'a 1.5)))\n  (f -3)";
+        List<LispTokenizer.Token> expected = new LispTokenizer().tokenizeWithPosition(source);
+
+        List<String> texts = new ArrayList<>();
+        LispLexer lexer = new LispLexer(source);
+        int i = 0;
+        while (lexer.next() != LispLexer.EOF) {
+            LispTokenizer.Token token = expected.get(i++);
+            assertEquals(token.getLine(), lexer.line(), token.getValue());
+            assertEquals(token.getColumn(), lexer.column(), token.getValue());
+            assertEquals(token.getValue(), source.substring(lexer.start(), lexer.end()));
+            texts.add(lexer.text());
+        }
+        assertEquals(expected.size(), texts.size());
+        assertEquals(LispLexer.UNQUOTE_SPLICING, kindAt(source, 11));
+    }
+
+    private static int kindAt(String source, int index) {
+        LispLexer lexer = new LispLexer(source);
+        for (int i = 0; i <= index; i++) {
+            lexer.next();
+        }
+        return lexer.kind();
+    }
+
+    @Test
+    @DisplayName("Números y símbolos con las mismas reglas que antes")
+    public void testAtoms() {
+        String[] atoms = {"42", "-7", "+5", "007", "2147483647", "-2147483648", "2147483648",
+            "00000000001", "1.5", ".5", "-.5", "1e3", "2d", "NaN", "-Infinity",
+            "-", "+", "1+", "abc123", "0x10", "NIL", "Inf", "ñandú"};
+        for (String atom : atoms) {
+            LispLexer lexer = new LispLexer(atom);
+            lexer.next();
+            assertEquals(expectedAtom(atom), lexer.atom(), atom);
+        }
+    }
+
+    /** Reglas del parser por tokens: Integer.parseInt, luego Double.parseDouble */
+    private static Object expectedAtom(String token) {
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException e) {
+            try {
+                return Double.parseDouble(token);
+            } catch (NumberFormatException e2) {
+                return token;
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Los símbolos se internan")
+    public void testInternedSymbols() {
+        List<?> form = (List<?>) new LispParser().parse("(cons x (cons x quote))");
+        List<?> inner = (List<?>) form.get(2);
+
+        assertSame(form.get(0), inner.get(0));
+        assertSame(form.get(1), inner.get(1));
+        assertSame("quote", inner.get(2));
+    }
+
+    @Test
+    @DisplayName("Recorrer un texto grande no crea objetos por token")
+    public void testNoAllocationPerToken() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        StringBuilder source = new StringBuilder();
+        while (source.length() < 1_000_000) {
+            source.append("(defun cuadrado (x) (* x x)) ; comentario\n(cuadrado 12)\n");
+        }
+        LispLexer lexer = new LispLexer(source);
+
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        int tokens = 0;
+        while (lexer.next() != LispLexer.EOF) {
+            if (lexer.kind() == LispLexer.ATOM) {
+                lexer.atom();
+            }
+            tokens++;
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(tokens > 200_000);
+        assertTrue(allocated < 64 * 1024, "bytes asignados: " + allocated);
+    }
+}
@@ -0,0 +1,139 @@
+package lisp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import lisp.environment.LispEnvironment;
+import lisp.environment.LispEnvironment.FunctionDefinition;
+import lisp.interpreter.LispEvaluator;
+import lisp.interpreter.LispException;
+import lisp.interpreter.LispOptimizer;
+import lisp.interpreter.LispParser;
+
+/**
+ * Pruebas unitarias para el pase de optimización.
+ */
+public class LispOptimizerTest {
+    
+    private LispEvaluator evaluator;
+    private LispOptimizer optimizer;
+    private LispEnvironment env;
+    private List<String> messages;
+    
+    @BeforeEach
+    public void setUp() {
+        evaluator = new LispEvaluator();
+        optimizer = evaluator.getOptimizer();
+        env = new LispEnvironment();
+        messages = new ArrayList<>();
+        optimizer.setReporter(messages::add);
+    }
+    
+    private Object optimize(String source) {
+        return optimizer.optimize(new LispParser().parse(source), env);
+    }
+    
+    private Object evaluate(String source) {
+        return evaluator.evaluate(new LispParser().parse(source), env);
+    }
+    
+    @Test
+    @DisplayName("Plegado de operaciones aritméticas constantes")
+    public void testFoldArithmetic() {
+        assertEquals(86400, optimize("(* 60 60 24)"));
+        assertEquals(List.of("+", "x", 86400), optimize("(+ x (* 60 60 24))"));
+        assertEquals(List.of("quote", "t"), optimize("(< 1 2)"));
+        assertEquals(3, messages.size());
+    }
+    
+    @Test
+    @DisplayName("Las expresiones que fallan no se pliegan")
+    public void testErrorsArePreserved() {
+        Object form = optimize("(/ 1 0)");
+        
+        assertEquals(List.of("/", 1, 0), form);
+        assertTrue(messages.isEmpty());
+        assertThrows(LispException.class, () -> evaluator.evaluate(form, env));
+    }
+    
+    @Test
+    @DisplayName("Las formas sin cambios se comparten")
+    public void testUnchangedFormsAreShared() {
+        Object form = new LispParser().parse("(f x (quote (+ 1 2)))");
+        assertSame(form, optimizer.optimize(form, env));
+    }
+    
+    @Test
+    @DisplayName("Poda de cláusulas de cond")
+    public void testCondPruning() {
+        // Las cláusulas después de una prueba siempre verdadera son inalcanzables
+        assertEquals(List.of("cond", List.of(List.of("f", "x"), 1), List.of("t", 2)),
+            optimize("(cond ((f x) 1) (t 2) ((g x) 3))"));
+        
+        // Las pruebas siempre falsas se eliminan
+        assertEquals(List.of("cond", List.of(List.of("f", "x"), 1)),
+            optimize("(cond ((> 1 2) 0) ((f x) 1))"));
+        
+        // Una cond cuya primera prueba siempre se cumple es su resultado
+        assertEquals(List.of("f", 3), optimize("(cond ((equal 2 2) (f (+ 1 2))) ((g x) 0))"));
+        assertEquals(List.of("quote", "nil"), optimize("(cond ((> 1 2) 0))"));
+    }
+    
+    @Test
+    @DisplayName("defun optimiza el cuerpo de la función")
+    public void testDefunOptimizesBody() {
+        evaluator.evaluate(new LispParser().parse("(defun segundos (d) (* d (* 60 60 24)))"), env);
+        
+        assertEquals(List.of("*", "d", 86400), env.getFunction("segundos").getBody());
+        assertEquals(172800, evaluator.evaluate(new LispParser().parse("(segundos 2)"), env));
+    }
+    
+    @Test
+    @DisplayName("Expansión en línea de funciones auxiliares pequeñas")
+    public void testInlineSmallFunctions() {
+        evaluate("(defun cuadrado (x) (* x x))");
+        evaluate("(defun suma-cuadrados (a b) (+ (cuadrado a) (cuadrado b)))");
+        
+        FunctionDefinition function = env.getFunction("suma-cuadrados");
+        assertEquals(List.of("+", List.of("*", "a", "a"), List.of("*", "b", "b")), function.getExecutableBody());
+        assertEquals(25, evaluate("(suma-cuadrados 3 4)"));
+        
+        // Con argumentos constantes el cuerpo expandido se pliega
+        evaluate("(defun area () (cuadrado 5))");
+        assertEquals(25, env.getFunction("area").getExecutableBody());
+    }
+    
+    @Test
+    @DisplayName("Redefinir una función expandida desoptimiza a quien la llama")
+    public void testRedefinitionDeoptimizes() {
+        evaluate("(defun cuadrado (x) (* x x))");
+        evaluate("(defun f (a) (+ (cuadrado a) 1))");
+        assertEquals(10, evaluate("(f 3)"));
+        
+        evaluate("(defun cuadrado (x) (+ x x))");
+        assertEquals(7, evaluate("(f 3)"));
+        assertEquals(env.getFunction("f").getBody(), env.getFunction("f").getExecutableBody());
+    }
+    
+    @Test
+    @DisplayName("No se expanden funciones recursivas ni argumentos repetidos")
+    public void testInlineRestrictions() {
+        evaluate("(defun fact (n) (cond ((equal n 0) 1) (t (* n (fact (- n 1))))))");
+        evaluate("(defun usa-fact (n) (fact n))");
+        assertEquals(List.of("fact", "n"), env.getFunction("usa-fact").getExecutableBody());
+        
+        // Un argumento compuesto usado dos veces se evaluaría dos veces
+        evaluate("(defun cuadrado (x) (* x x))");
+        evaluate("(defun g (n) (cuadrado (+ n 1)))");
+        assertEquals(List.of("cuadrado", List.of("+", "n", 1)), env.getFunction("g").getExecutableBody());
+        assertEquals(16, evaluate("(g 3)"));
+    }
+}
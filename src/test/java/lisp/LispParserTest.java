@@ -1,17 +1,25 @@
 package lisp;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 
+import lisp.interpreter.LispHashCons;
+import lisp.interpreter.LispNumberList;
 import lisp.interpreter.LispParser;
+import lisp.interpreter.LispSourceMap;
 
 /**
  * Pruebas unitarias para el parser LISP.
@@ -109,6 +117,16 @@ public class LispParserTest {
         assertEquals("c", quotedList.get(2));
     }
     
+    @Test
+    @DisplayName("Parseo de quasiquote y unquote")
+    public void testParseQuasiquoteExpressions() {
+        Object result = parser.parse("`(a ,b ,@c)");
+        
+        assertEquals(List.of("quasiquote",
+                List.of("a", List.of("unquote", "b"), List.of("unquote-splicing", "c"))),
+            result);
+    }
+    
     @Test
     @DisplayName("Parseo de listas vacías")
     public void testParseEmptyList() {
@@ -157,6 +175,105 @@ public class LispParserTest {
         assertEquals("[+ 1 [* 2 3]]", tree);
     }
 
+    @Test
+    @DisplayName("Posiciones de las formas de un programa completo")
+    public void testProgramSourceMap() {
+        StringBuilder source = new StringBuilder();
+        for (int i = 1; i <= 200; i++) {
+            source.append("  (+ ").append(i).append(" (* 2 3)) ; línea ").append(i).append('\n');
+        }
+        
+        List<Object> forms = parser.parseProgram(source);
+        LispSourceMap sourceMap = parser.getSourceMap();
+        
+        assertEquals(200, forms.size());
+        assertEquals(400, sourceMap.size());
+        for (int i = 0; i < forms.size(); i++) {
+            List<?> form = (List<?>) forms.get(i);
+            assertEquals(i + 1, sourceMap.getLine(form));
+            assertEquals(3, sourceMap.getColumn(form));
+            assertEquals(i + 1, sourceMap.getLine(form.get(2)));
+        }
+        assertEquals(-1, sourceMap.getLine(new ArrayList<>()));
+    }
+
+    @Test
+    @DisplayName("Los datos citados numéricos se guardan en arreglos primitivos")
+    @SuppressWarnings("unchecked")
+    public void testCompactQuotedNumbers() {
+        List<?> form = (List<?>) parser.parse("'((1 2 3) (1.5 2.5) (a 1) ())");
+        List<?> datum = (List<?>) form.get(1);
+        
+        assertTrue(datum.get(0) instanceof LispNumberList);
+        assertTrue(((LispNumberList) datum.get(1)).isDouble());
+        assertFalse(datum.get(2) instanceof LispNumberList);
+        assertEquals(List.of(1, 2, 3), datum.get(0));
+        assertEquals(2.5, ((List<?>) datum.get(1)).get(1));
+        assertThrows(UnsupportedOperationException.class, () -> ((List<Object>) datum.get(0)).set(0, 9));
+        
+        // El código no se compacta: (+ 1 2) sigue siendo una forma evaluable
+        assertFalse(parser.parse("(+ 1 2)") instanceof LispNumberList);
+    }
+    
+    @Test
+    @DisplayName("Memoria retenida por una lista citada de un millón de enteros")
+    public void testQuotedListFootprint() {
+        int n = 1_000_000;
+        StringBuilder text = new StringBuilder("'(");
+        for (int i = 0; i < n; i++) {
+            text.append(i + 1000).append(' ');
+        }
+        String source = text.append(')').toString();
+        
+        long boxed = retainedBytes(() -> {
+            List<Object> list = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                list.add(i + 1000);
+            }
+            return list;
+        });
+        long compact = retainedBytes(() -> new LispParser().parse(source));
+        
+        // Con JVM de 64 bits: unos 20 MB en caja frente a unos 4 MB
+        assertTrue(compact * 3 < boxed, "compacta: " + compact + " B, en caja: " + boxed + " B");
+    }
+    
+    private static long retainedBytes(Supplier<Object> build) {
+        Object[] holder = new Object[1];
+        long before = usedHeapAfterGc();
+        holder[0] = build.get();
+        long after = usedHeapAfterGc();
+        assertNotNull(holder[0]);
+        return after - before;
+    }
+    
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+    
+    @Test
+    @DisplayName("Consolidación de datos citados repetidos")
+    public void testHashConsing() {
+        parser.setHashConsing(true);
+        List<?> first = (List<?>) parser.parse("'((a (1 2)) (b (1 2)) (a (1 2)))");
+        List<?> second = (List<?>) new LispParser().parse("'(a (1 2))");
+        
+        List<?> datum = (List<?>) first.get(1);
+        List<?> pattern = (List<?>) datum.get(0);
+        assertSame(pattern, datum.get(2));
+        assertSame(((List<?>) pattern).get(1), ((List<?>) datum.get(1)).get(1));
+        assertTrue(LispHashCons.isInterned(pattern));
+        
+        // Sin consolidar sigue siendo igual, aunque no sea la misma instancia
+        assertEquals(pattern, second.get(1));
+        assertEquals(second.get(1), pattern);
+        assertFalse(pattern.equals(datum.get(1)));
+        assertEquals(List.of("a", List.of(1, 2)).hashCode(), pattern.hashCode());
+    }
+    
     @Test
     @DisplayName("Depuración de parser")
     public void testDebugParser() {
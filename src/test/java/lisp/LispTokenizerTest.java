@@ -92,6 +92,21 @@ public class LispTokenizerTest {
         assertEquals(")", tokens.get(5));
     }
     
+    @Test
+    public void testQuasiquoteTokens() {
+        List<String> tokens = tokenizer.tokenize("`(a ,b ,@c)");
+        
+        assertEquals(8, tokens.size(), "Debe haber 8 tokens");
+        assertEquals("`", tokens.get(0), "Primer token debe ser un backquote");
+        assertEquals("(", tokens.get(1));
+        assertEquals("a", tokens.get(2));
+        assertEquals(",", tokens.get(3));
+        assertEquals("b", tokens.get(4));
+        assertEquals(",@", tokens.get(5));
+        assertEquals("c", tokens.get(6));
+        assertEquals(")", tokens.get(7));
+    }
+    
     @Test
     public void testExtraSpaces() {
         List<String> tokens1 = tokenizer.tokenize("(+   2   3)");
@@ -0,0 +1,83 @@
+package lisp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import lisp.environment.PersistentMap;
+
+/**
+ * Pruebas unitarias para el mapa persistente de los entornos.
+ */
+public class PersistentMapTest {
+    
+    @Test
+    @DisplayName("Inserción, búsqueda y eliminación de muchas llaves")
+    public void testPutGetRemove() {
+        PersistentMap<Integer> map = PersistentMap.empty();
+        
+        for (int i = 0; i < 5000; i++) {
+            map = map.put("v" + i, i);
+        }
+        assertEquals(5000, map.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(i, map.get("v" + i));
+        }
+        assertNull(map.get("v5000"));
+        
+        for (int i = 0; i < 5000; i += 2) {
+            map = map.remove("v" + i);
+        }
+        assertEquals(2500, map.size());
+        assertFalse(map.containsKey("v0"));
+        assertEquals(1, map.get("v1"));
+        
+        for (int i = 1; i < 5000; i += 2) {
+            map = map.remove("v" + i);
+        }
+        assertEquals(0, map.size());
+        assertSame(PersistentMap.empty(), map);
+    }
+    
+    @Test
+    @DisplayName("Las versiones anteriores no cambian")
+    public void testPersistence() {
+        PersistentMap<String> original = PersistentMap.<String>empty().put("x", "1").put("y", "2");
+        PersistentMap<String> changed = original.put("x", "10").remove("y").put("z", "3");
+        
+        assertEquals("1", original.get("x"));
+        assertEquals("2", original.get("y"));
+        assertFalse(original.containsKey("z"));
+        assertEquals("10", changed.get("x"));
+        assertFalse(changed.containsKey("y"));
+        assertEquals(2, original.size());
+        assertEquals(2, changed.size());
+        
+        // Sin cambios se devuelve el mismo mapa
+        assertSame(original, original.put("x", "1"));
+        assertSame(original, original.remove("w"));
+    }
+    
+    @Test
+    @DisplayName("Llaves con el mismo hash y valores null")
+    public void testCollisionsAndNullValues() {
+        // "Aa" y "BB" tienen el mismo hashCode
+        PersistentMap<String> map = PersistentMap.<String>empty().put("Aa", "a").put("BB", "b").put("C", null);
+        
+        assertEquals(3, map.size());
+        assertEquals("a", map.get("Aa"));
+        assertEquals("b", map.get("BB"));
+        assertTrue(map.containsKey("C"));
+        assertEquals("ausente", map.lookup("D", "ausente"));
+        assertNull(map.lookup("C", "ausente"));
+        
+        PersistentMap<String> removed = map.remove("Aa");
+        assertFalse(removed.containsKey("Aa"));
+        assertEquals("b", removed.get("BB"));
+        assertEquals("a", map.get("Aa"));
+    }
+}